@@ -0,0 +1,544 @@
+package gg.raf.suite.fs.archive;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A shared pool of read-only file channels to the archive files
+ *  of the cache, keyed by the absolute path of the file.
+ *
+ * Every open channel counts against a fixed descriptor budget.
+ *  Channels that are not leased by anyone are kept open for reuse
+ *  and evicted in least recently used order once the budget is reached.
+ *  When every channel is leased, acquiring a new one blocks until a
+ *  lease is released.
+ *
+ * Writing to an archive is only possible inside a {@link WriteTransaction}
+ *  which waits for all readers of that file to release their leases and
+ *  holds back new readers until it is closed.
+ *
+ * Channels are opened outside the monitor of the pool; the descriptor is
+ *  reserved and the channel entered as opening under the monitor, so a
+ *  slow open only holds back the readers of that one file.
+ */
+public final class ArchiveChannelPool {
+
+    /**
+     * The default number of descriptors the pool may keep open.
+     */
+    public static final int DEFAULT_BUDGET = 64;
+
+    /**
+     * The pool shared by the whole application.
+     */
+    private static final ArchiveChannelPool POOL = new ArchiveChannelPool(DEFAULT_BUDGET);
+
+    /**
+     * The maximum number of descriptors open at once.
+     */
+    private final int budget;
+
+    /**
+     * The open read channels in access order(eldest first).
+     */
+    private final LinkedHashMap<String, PooledChannel> channels = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The paths currently held by a write transaction, and the thread that began each.
+     */
+    private final HashMap<String, Thread> writing = new HashMap<>();
+
+    /**
+     * The number of descriptors currently open, read and write.
+     */
+    private int open;
+
+    /**
+     * Construct a pool with a given descriptor budget.
+     * @param budget
+     */
+    public ArchiveChannelPool(int budget) {
+        if(budget < 1)
+            throw new IllegalArgumentException("Budget must be at least 1.");
+        this.budget = budget;
+    }
+
+    /**
+     * Retrieve the pool shared by the application.
+     * @return
+     */
+    public static ArchiveChannelPool getPool() {
+        return POOL;
+    }
+
+    /**
+     * Lease a read-only channel to the given file, opening it if necessary.
+     *  The lease must be closed once the caller is done reading.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public Lease acquire(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        Thread owner = Thread.currentThread();
+        PooledChannel pooled;
+        synchronized (this) {
+            try {
+                while (true) {
+                    if (!writing.containsKey(key)) {
+                        pooled = channels.get(key);
+                        if (pooled != null) {
+                            /**
+                             * A channel still being opened by another thread is waited for.
+                             */
+                            if (pooled.channel != null)
+                                return new Lease(pooled, owner);
+                        } else if (reserve()) {
+                            pooled = new PooledChannel(key);
+                            pooled.hold(owner);
+                            channels.put(key, pooled);
+                            break;
+                        }
+                    }
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + key);
+            }
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            if (!file.exists())
+                throw new FileNotFoundException(key);
+            throw e;
+        } finally {
+            synchronized (this) {
+                if (channel != null)
+                    pooled.channel = channel;
+                else {
+                    channels.remove(key);
+                    open--;
+                }
+                notifyAll();
+            }
+        }
+        return new Lease(pooled);
+    }
+
+    /**
+     * Begin a write transaction on the given file. This waits for every
+     *  outstanding lease on the file to be released and prevents new
+     *  leases until the transaction is closed.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException If the calling thread holds a lease or
+     *  transaction on the file itself, which it would wait on forever.
+     */
+    public WriteTransaction beginWrite(File file) throws IOException {
+        String key = lockWrite(file, true);
+        try {
+            return new WriteTransaction(key, new RandomAccessFile(file, "rw").getChannel());
+        } catch (IOException e) {
+            finishWrite(key, true);
+            throw e;
+        }
+    }
+
+    /**
+     * Begin a transaction that replaces the given file with another one,
+     *  through {@link WriteTransaction#replaceWith}. It waits for and holds
+     *  back leases like {@link #beginWrite}, but opens no channel, so the
+     *  file can be moved over where open files can not be, and is not
+     *  created if it does not exist.
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException If the calling thread holds a lease or
+     *  transaction on the file itself, which it would wait on forever.
+     */
+    public WriteTransaction beginReplace(File file) throws IOException {
+        return new WriteTransaction(lockWrite(file, false), null);
+    }
+
+    /**
+     * Wait until no lease or transaction is held on a file and mark it
+     *  as being written, closing its idle channel.
+     * @param file
+     * @param descriptor    Whether to reserve a descriptor for the writer.
+     * @return The key of the file.
+     * @throws InterruptedIOException
+     */
+    private synchronized String lockWrite(File file, boolean descriptor) throws InterruptedIOException {
+        String key = file.getAbsolutePath();
+        Thread owner = Thread.currentThread();
+        PooledChannel leased = channels.get(key);
+        if (writing.get(key) == owner || (leased != null && leased.holders.containsKey(owner)))
+            throw new IllegalStateException("The calling thread holds " + key + " itself.");
+        try {
+            while (writing.containsKey(key) || isLeased(key))
+                wait();
+            writing.put(key, owner);
+            PooledChannel idle = channels.remove(key);
+            if (idle != null)
+                close(idle);
+            while (descriptor && !reserve())
+                wait();
+        } catch (InterruptedException e) {
+            writing.remove(key);
+            notifyAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + key);
+        }
+        return key;
+    }
+
+    /**
+     * Close every idle channel held by the pool.
+     */
+    public synchronized void closeIdle() {
+        Iterator<PooledChannel> iterator = channels.values().iterator();
+        while (iterator.hasNext()) {
+            PooledChannel pooled = iterator.next();
+            if (pooled.references == 0) {
+                iterator.remove();
+                close(pooled);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Retrieve the number of descriptors currently open.
+     * @return
+     */
+    public synchronized int getOpenCount() {
+        return open;
+    }
+
+    /**
+     * Retrieve the descriptor budget of this pool.
+     * @return
+     */
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Reserve a descriptor for a new channel, evicting the least recently
+     *  used idle channel if the budget has been reached.
+     * @return Whether or not a descriptor was reserved.
+     */
+    private boolean reserve() {
+        if (open >= budget) {
+            Iterator<PooledChannel> iterator = channels.values().iterator();
+            while (iterator.hasNext()) {
+                PooledChannel pooled = iterator.next();
+                if (pooled.references == 0) {
+                    iterator.remove();
+                    close(pooled);
+                    break;
+                }
+            }
+        }
+        if (open >= budget)
+            return false;
+        open++;
+        return true;
+    }
+
+    /**
+     * Is the read channel for the given path leased by anyone?
+     * @param key
+     * @return
+     */
+    private boolean isLeased(String key) {
+        PooledChannel pooled = channels.get(key);
+        return pooled != null && pooled.references > 0;
+    }
+
+    /**
+     * Close a channel and give its descriptor back to the budget.
+     * @param pooled
+     */
+    private void close(PooledChannel pooled) {
+        try {
+            pooled.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        open--;
+    }
+
+    /**
+     * Release a lease on a pooled channel.
+     * @param pooled
+     */
+    private synchronized void release(PooledChannel pooled, Thread owner) {
+        pooled.references--;
+        Integer held = pooled.holders.get(owner);
+        if (held != null && held > 1)
+            pooled.holders.put(owner, held - 1);
+        else
+            pooled.holders.remove(owner);
+        notifyAll();
+    }
+
+    /**
+     * Finish a write transaction on the given path.
+     * @param key
+     * @param descriptor    Whether the transaction reserved a descriptor.
+     */
+    private synchronized void finishWrite(String key, boolean descriptor) {
+        writing.remove(key);
+        if (descriptor)
+            open--;
+        notifyAll();
+    }
+
+    /**
+     * A channel held open by the pool.
+     */
+    private static final class PooledChannel {
+
+        /**
+         * The absolute path of the file.
+         */
+        private final String key;
+
+        /**
+         * The read-only channel, or null while it is being opened.
+         */
+        private FileChannel channel;
+
+        /**
+         * The number of outstanding leases.
+         */
+        private int references;
+
+        /**
+         * The number of outstanding leases of each thread holding one.
+         */
+        private final HashMap<Thread, Integer> holders = new HashMap<>(4);
+
+        private PooledChannel(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Count a lease taken by a thread; the pool monitor is held.
+         */
+        private void hold(Thread owner) {
+            references++;
+            holders.merge(owner, 1, Integer::sum);
+        }
+
+    }
+
+    /**
+     * A lease on a read-only channel. Reads are positional so a single
+     *  channel may safely be shared by many threads.
+     */
+    public final class Lease implements AutoCloseable {
+
+        /**
+         * The leased channel.
+         */
+        private final PooledChannel pooled;
+
+        /**
+         * The thread that took the lease.
+         */
+        private final Thread owner;
+
+        /**
+         * Has this lease been released?
+         */
+        private boolean released;
+
+        /**
+         * Take a further lease on an open channel; the pool monitor is held.
+         */
+        private Lease(PooledChannel pooled, Thread owner) {
+            this.pooled = pooled;
+            this.owner = owner;
+            pooled.hold(owner);
+        }
+
+        /**
+         * The lease counted when the channel was entered as opening.
+         */
+        private Lease(PooledChannel pooled) {
+            this.pooled = pooled;
+            this.owner = Thread.currentThread();
+        }
+
+        /**
+         * Retrieve the leased channel.
+         * @return
+         */
+        public FileChannel getChannel() {
+            return pooled.channel;
+        }
+
+        /**
+         * Retrieve the size of the leased file.
+         * @return
+         * @throws IOException
+         */
+        public long size() throws IOException {
+            return pooled.channel.size();
+        }
+
+        /**
+         * Read the entire file.
+         * @return
+         * @throws IOException
+         */
+        public byte[] readFully() throws IOException {
+            return read(0, (int) size());
+        }
+
+        /**
+         * Read a range of bytes from the file.
+         * @param position  The position to start reading at.
+         * @param length    The number of bytes to read.
+         * @return
+         * @throws IOException
+         */
+        public byte[] read(long position, int length) throws IOException {
+            byte[] data = new byte[length];
+            read(position, ByteBuffer.wrap(data));
+            return data;
+        }
+
+        /**
+         * Fill the remaining bytes of a buffer from the given position of the file.
+         * @param position
+         * @param buffer
+         * @throws IOException
+         */
+        public void read(long position, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = pooled.channel.read(buffer, position);
+                if (read < 0)
+                    throw new IOException("Unexpected end of " + pooled.key);
+                position += read;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (released)
+                return;
+            released = true;
+            release(pooled, owner);
+        }
+
+    }
+
+    /**
+     * A transaction holding the only writable channel to an archive file,
+     *  or for a replace transaction, only the right to replace it.
+     */
+    public final class WriteTransaction implements AutoCloseable {
+
+        /**
+         * The absolute path of the file.
+         */
+        private final String key;
+
+        /**
+         * The writable channel, or null for a replace transaction.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Whether a descriptor was reserved for the channel.
+         */
+        private final boolean descriptor;
+
+        /**
+         * Has this transaction been closed?
+         */
+        private boolean closed;
+
+        private WriteTransaction(String key, FileChannel channel) {
+            this.key = key;
+            this.channel = channel;
+            this.descriptor = channel != null;
+        }
+
+        /**
+         * Retrieve the writable channel.
+         * @return The channel, or null for a replace transaction.
+         */
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * Replace the whole content of the file with the remaining bytes of a buffer.
+         * @param buffer
+         * @throws IOException
+         */
+        public void replaceContent(ByteBuffer buffer) throws IOException {
+            long position = 0;
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            channel.truncate(position);
+        }
+
+        /**
+         * Replace the file with another one, moved over it. Readers opened
+         *  once the transaction is closed see the new file. The writable
+         *  channel, if any, is closed first, as an open file can not be
+         *  replaced on every platform.
+         * @param source    The replacement, on the same file system.
+         * @throws IOException
+         */
+        public void replaceWith(File source) throws IOException {
+            if (channel != null)
+                channel.close();
+            Files.move(source.toPath(), Paths.get(key), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Flush every write to the storage device.
+         * @throws IOException
+         */
+        public void commit() throws IOException {
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                if (channel != null)
+                    channel.close();
+            } finally {
+                finishWrite(key, descriptor);
+            }
+        }
+
+    }
+
+}
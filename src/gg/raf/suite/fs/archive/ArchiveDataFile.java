@@ -1,12 +1,13 @@
 package gg.raf.suite.fs.archive;
 
+import gg.raf.suite.fs.blob.BlobStore;
 import gg.raf.suite.fs.file.RiotFile;
 import gg.raf.suite.tasks.ExportCache;
 
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.zip.Deflater;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 /**
@@ -20,9 +21,9 @@ import java.util.zip.Inflater;
 public class ArchiveDataFile {
 
     /**
-     * The data file for the archive.
+     * The data file for the archive, read through the {@link ArchiveChannelPool}.
      */
-    private RandomAccessFile dataFile;
+    private File dataFile;
 
     /**
      * An array list of file entries defined in the riot archive fs.
@@ -48,16 +49,17 @@ public class ArchiveDataFile {
      * @param dataFile
      */
     public ArchiveDataFile(File dataFile) throws FileNotFoundException {
-        this.dataFile = new RandomAccessFile(dataFile, "rw");
+        if(!dataFile.isFile())
+            throw new FileNotFoundException(dataFile.getAbsolutePath());
+        this.dataFile = dataFile;
     }
 
     /**
      * Setup and begin decoding individual files within the archive data fs.
      */
     public void initiate() {
-        try {
-            byte[] fileData = new byte[(int)dataFile.length()];
-            this.dataFile.readFully(fileData);
+        try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(dataFile)) {
+            byte[] fileData = lease.readFully();
 
             decodeFiles(fileData);
             initiated = true;
@@ -79,21 +81,12 @@ public class ArchiveDataFile {
                 buffer.position(fileEntry.getDataOffset());
                 buffer.get(entryData, 0, fileEntry.getDataSize());
 
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                Inflater inflater = new Inflater();
-                inflater.setInput(entryData);
-                byte[] tmp = new byte[4 * 1024];
-                try{
-                    while(!inflater.finished()){
-                        int size = inflater.inflate(tmp);
-                        bos.write(tmp, 0, size);
-                    }
-                    byte[] uncompressed = bos.toByteArray();
+                byte[] uncompressed = inflate(entryData);
+                if(uncompressed != null) {
                     uncompressedSize += uncompressed.length;
-                    bos.close();
                     fileEntry.setFileData(uncompressed);
                     fileEntry.setCompressed(true);
-                } catch (Exception e){
+                } else {
                     fileEntry.setFileData(entryData);
                     fileEntry.setCompressed(false);
                 }
@@ -103,56 +96,60 @@ public class ArchiveDataFile {
         }
     }
 
-    public boolean addFile(int hash, File file) {
-        int fileIndex = getFileIndexForHash(hash);
-        RiotFile toReplace = fileEntries.get(fileIndex);
-        if(toReplace != null) {
-            byte[] fileData = new byte[(int)file.length()];
-            byte[] compressed = null;
-            try {
-                DataInputStream is = new DataInputStream(new FileInputStream(file));
-                is.readFully(fileData);
-
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                Deflater deflater = new Deflater();
-                deflater.setInput(fileData);
-                byte[] tmp = new byte[1024];
-                int size = deflater.deflate(tmp);
-                bos.write(tmp, 0, size);
-                compressed = bos.toByteArray();
-                bos.close();
-                if(compressed == null || compressed.length == 0)
-                    return false;
-                int sizeOffset = fileData.length - toReplace.getFileData().length;
-                toReplace.setDataOffset(toReplace.getDataOffset() + sizeOffset);
-                toReplace.setDataSize(compressed.length);
-                toReplace.setFileData(fileData);
-                for(int i = fileIndex + 1; i < fileEntries.size(); i++) {
-                    RiotFile fil = fileEntries.get(i);
-                    fil.setDataOffset(fil.getDataOffset() + sizeOffset);
-                }
-
-                ByteBuffer buffer = ByteBuffer.allocate(uncompressedSize + sizeOffset);
-                for(RiotFile rf : fileEntries) {
-                    bos = new ByteArrayOutputStream();
-                    deflater.setInput(rf.getFileData());
-                    tmp = new byte[rf.getFileData().length];
-                    size = deflater.deflate(tmp);
-                    bos.write(tmp, 0, size);
-                    System.out.println("Pos: " + buffer.position() + " Cap: " + buffer.capacity() + " bos: " + bos.toByteArray().length + " Size: " + rf.getDataSize());
-                    buffer.put(bos.toByteArray(), rf.getDataOffset(), rf.getDataSize());
-                }
-
-                dataFile.write(buffer.array());
-                bos.close();
+    /**
+     * Read and inflate a single file entry without decoding the rest
+     *  of the data file. The given entry is left untouched so that it can
+     *  be shared; a copy holding the file data is returned instead.
+     *  The data comes from the {@link BlobStore}, so an entry identical to
+     *  one read before is not inflated again and shares its data.
+     * @param entry The file entry to read.
+     * @return
+     * @throws IOException
+     */
+    public RiotFile readFile(RiotFile entry) throws IOException {
+        byte[] entryData;
+        try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(dataFile)) {
+            entryData = lease.read(entry.getDataOffset() & 0xFFFFFFFFL, entry.getDataSize());
+        }
+        RiotFile file = new RiotFile(entry.getHash(), entry.getDataOffset(), entry.getDataSize(), entry.getPathListIndex());
+        BlobStore.Blob blob = BlobStore.getStore().load(entryData);
+        file.setFileData(blob.getData());
+        file.setCompressed(blob.isCompressed());
+        file.setContentFingerprint(blob.getContentFingerprint());
+        return file;
+    }
 
-                return true;
-            } catch (Exception e) {
-                e.printStackTrace();
-                return false;
+    /**
+     * Inflate the raw data of a file entry.
+     * @param entryData The raw data of the entry.
+     * @return The uncompressed data, or null if the entry is not compressed.
+     */
+    public static byte[] inflate(byte[] entryData) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(entryData);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(entryData.length * 2);
+            byte[] tmp = new byte[4 * 1024];
+            while (!inflater.finished()) {
+                int size = inflater.inflate(tmp);
+                if (size == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    return null;
+                bos.write(tmp, 0, size);
             }
+            return bos.toByteArray();
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
         }
-        return false;
+    }
+
+    /**
+     * Retrieve the data file.
+     * @return
+     */
+    public File getDataFile() {
+        return dataFile;
     }
 
     /**
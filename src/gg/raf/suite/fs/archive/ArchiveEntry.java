@@ -0,0 +1,84 @@
+package gg.raf.suite.fs.archive;
+
+import gg.raf.suite.fs.file.RiotFile;
+
+import java.io.IOException;
+
+/**
+ * A reference to a single file entry of a decoded archive.
+ *
+ * An entry reference does not hold any file data; the data is
+ *  read from the archive data file on request.
+ */
+public final class ArchiveEntry {
+
+    /**
+     * The archive the entry belongs to.
+     */
+    private final ArchiveFile archive;
+
+    /**
+     * The position of the entry in the file list of the archive.
+     */
+    private final int slot;
+
+    /**
+     * Construct a reference to an entry of an archive.
+     * @param archive   The decoded archive.
+     * @param slot      The position of the entry in the file list.
+     */
+    public ArchiveEntry(ArchiveFile archive, int slot) {
+        this.archive = archive;
+        this.slot = slot;
+    }
+
+    /**
+     * Retrieve the archive this entry belongs to.
+     * @return
+     */
+    public ArchiveFile getArchive() {
+        return archive;
+    }
+
+    /**
+     * Retrieve the manifest of the archive this entry belongs to.
+     * @return
+     */
+    public ReleaseManifest getManifest() {
+        return archive.getManifest();
+    }
+
+    /**
+     * Retrieve the position of the entry in the file list of the archive.
+     * @return
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Retrieve the file entry, without file data.
+     * @return
+     */
+    public RiotFile getEntry() {
+        return archive.getArchiveDataFile().getFileEntries().get(slot);
+    }
+
+    /**
+     * Retrieve the path of the entry.
+     * @return
+     */
+    public String getPath() {
+        return archive.getPathTable().getPath(getEntry().getPathListIndex());
+    }
+
+    /**
+     * Read and inflate the file data of this entry.
+     * @return A copy of the file entry holding its data.
+     * @throws IOException
+     */
+    public RiotFile readFile() throws IOException {
+        return archive.getArchiveDataFile().readFile(getEntry());
+    }
+
+}
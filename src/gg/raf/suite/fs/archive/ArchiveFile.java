@@ -1,13 +1,17 @@
 package gg.raf.suite.fs.archive;
 
+import gg.raf.suite.fs.blob.ContentFingerprint;
 import gg.raf.suite.fs.file.RiotFile;
-import gg.raf.suite.fs.file.RiotPath;
-import gg.raf.suite.utilities.StringUtil;
+import gg.raf.suite.fs.file.RiotFileType;
+import gg.raf.suite.fs.file.PathTable;
+import gg.raf.suite.fs.index.BloomFilter;
 
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by Allen Kinzalow on 9/24/2015.
@@ -19,14 +23,9 @@ import java.util.ArrayList;
 public class ArchiveFile {
 
     /**
-     * The archive file.
+     * The archive file, read through the {@link ArchiveChannelPool}.
      */
-    private RandomAccessFile riotArchiveFile;
-
-    /**
-     * The raw data.
-     */
-    private byte[] fileData;
+    private File riotArchiveFile;
 
     /**
      * The magic number - 0x18be0ef0
@@ -75,15 +74,30 @@ public class ArchiveFile {
     private ReleaseManifest manifest;
 
     /**
-     * An array list of the path entries defined in the riot archive fs.
+     * The path entries defined in the riot archive fs.
+     */
+    private PathTable pathTable;
+
+    /**
+     * A Bloom filter over the path hashes of this archive.
      */
-    private ArrayList<RiotPath> pathEntries = new ArrayList<>();
+    private BloomFilter pathFilter;
 
     /**
      * The associated data fs with this riot archive fs.
      */
     private ArchiveDataFile archiveDataFile;
 
+    /**
+     * The {@link RiotFileType} ordinal of each entry slot, sniffed on first use.
+     */
+    private byte[] entryTypes;
+
+    /**
+     * Whether the archive was decoded in full.
+     */
+    private boolean decoded;
+
     /**
      * Construct an archive file given a directory, a release number, and a release name.
      * @param file              The directory to a file of releases.
@@ -93,7 +107,9 @@ public class ArchiveFile {
     public ArchiveFile(File file, String releaseNumber, String releaseName) throws FileNotFoundException {
         this.manifest = new ReleaseManifest(releaseNumber, releaseName);
         File archive = new File(file.getAbsolutePath() + "/" + releaseName + "/" + releaseName);
-        this.riotArchiveFile = new RandomAccessFile(archive, "rw");
+        if(!archive.isFile())
+            throw new FileNotFoundException(archive.getAbsolutePath());
+        this.riotArchiveFile = archive;
         this.archiveDataFile = new ArchiveDataFile(new File(archive + ".dat"));
     }
 
@@ -103,10 +119,11 @@ public class ArchiveFile {
      * @param file  The direct path to the raw archive file.
      */
     public ArchiveFile(File file) throws FileNotFoundException {
-        this.riotArchiveFile = new RandomAccessFile(file, "rw");
+        if(!file.isFile())
+            throw new FileNotFoundException(file.getAbsolutePath());
+        this.riotArchiveFile = file;
         this.archiveDataFile = new ArchiveDataFile(new File(file.getAbsolutePath() + ".dat"));
-        String dir = file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf('\\'));
-        this.manifest = new ReleaseManifest(dir.substring(dir.lastIndexOf('\\') + 1, dir.length()), file.getName());
+        this.manifest = new ReleaseManifest(file.getAbsoluteFile().getParentFile().getName(), file.getName());
     }
 
     /**
@@ -125,13 +142,12 @@ public class ArchiveFile {
      * Initiate the archive file.
      */
     public void initiate() {
-        try {
-            fileData = new byte[(int) riotArchiveFile.length()];
-            riotArchiveFile.readFully(fileData);
+        try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(riotArchiveFile)) {
             /**
              * Decode the archive header, fs info, fs data, and path info.
              */
-            decodeArchive();
+            decodeArchive(lease.readFully());
+            this.decoded = true;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -139,12 +155,13 @@ public class ArchiveFile {
 
     /**
      * Decode the entire riot archive file.
+     * @param fileData  The raw data of the archive file.
      */
-    private void decodeArchive() {
+    private void decodeArchive(byte[] fileData) {
         /**
          * Wrap a byte buffer to the raw file data.
          */
-        ByteBuffer buffer = ByteBuffer.wrap(this.fileData);
+        ByteBuffer buffer = ByteBuffer.wrap(fileData);
         /**
          * Set the byte buffer order to little endian.
          */
@@ -163,41 +180,31 @@ public class ArchiveFile {
          */
         this.fileListCount = buffer.getInt();
         //System.out.println("File List Count: " + this.fileListCount);
+        int[] pathHashes = new int[this.fileListCount];
         for (int fileIndex = 0; fileIndex < this.fileListCount; fileIndex++) {
             int hash = buffer.getInt();
+            pathHashes[fileIndex] = hash;
             int dataOffset = buffer.getInt();
             int dataSize = buffer.getInt();
             int pathListIndex = buffer.getInt();
             //System.out.println("File Hash: " + hash + " Data Offset: " + dataOffset + " Data Size: " + dataSize + " PLI: " + pathListIndex);
             archiveDataFile.getFileEntries().add(new RiotFile(hash, dataOffset, dataSize, pathListIndex));
         }
+        this.pathFilter = BloomFilter.create(pathHashes, this.fileListCount);
         /**
          * Path Entries
          */
         int pathStringOffset = buffer.position();
         this.pathListSize = buffer.getInt();
         this.pathListCount = buffer.getInt();
-        for (int pathIndex = 0; pathIndex < pathListCount; pathIndex++) {
-            int pathOffset = buffer.getInt();
-            int pathLength = buffer.getInt();
-            //System.out.println("Path Offset: " + pathOffset + " Path Length: " + pathLength);
-            pathEntries.add(new RiotPath(pathOffset, pathLength));
-        }
-        /**
-         * Read the path strings.
-         */
-        for (RiotPath pathEntry : pathEntries) {
-            buffer.position(pathStringOffset + pathEntry.getPathOffset());
-            pathEntry.setString(StringUtil.readString(buffer));
-            //System.out.println("Path Offset: " + pathEntry.getPathOffset() + " Path Length: " + pathEntry.getPathLength() + " PLI: " + pathEntries.indexOf(pathEntry) + " Path String: " + pathEntry.getPath());
-        }
+        this.pathTable = PathTable.decode(buffer, pathStringOffset);
     }
 
     /**
      * Encode this archive back to the .raf file
      */
     public void encodeArchive() {
-        try {
+        try (ArchiveChannelPool.WriteTransaction transaction = ArchiveChannelPool.getPool().beginWrite(riotArchiveFile)) {
             ByteBuffer buffer = ByteBuffer.allocate(999999);
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             buffer.putInt(magicNumber);
@@ -216,15 +223,19 @@ public class ArchiveFile {
 
             buffer.putInt(pathListSize);
             buffer.putInt(pathListCount);
-            for (RiotPath path : pathEntries) {
-                buffer.putInt(path.getPathOffset());
-                buffer.putInt(path.getPathLength());
+            for (int i = 0; i < pathTable.size(); i++) {
+                buffer.putInt(pathTable.getPathOffset(i));
+                buffer.putInt(pathTable.getPathLength(i));
             }
 
-            for (RiotPath path : pathEntries)
-                StringUtil.writeString(buffer, path.getPath());
+            pathTable.writeStrings(buffer);
 
-            riotArchiveFile.write(buffer.array());
+            buffer.flip();
+            transaction.replaceContent(buffer);
+            transaction.commit();
+            synchronized (this) {
+                entryTypes = null;
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -237,29 +248,19 @@ public class ArchiveFile {
      */
     public static ArrayList<String> fetchPathList(File file) {
         ArrayList<String> pathList = new ArrayList<>();
-        try {
-            RandomAccessFile rf = new RandomAccessFile(file, "rw");
-            byte[] fileData = new byte[(int) rf.length()];
-            rf.readFully(fileData);
+        try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(file)) {
+            byte[] fileData = lease.readFully();
             ByteBuffer buffer = ByteBuffer.wrap(fileData);
             buffer.order(ByteOrder.LITTLE_ENDIAN);
-            buffer.position(buffer.position() + 16);
-            int pathListOffset = buffer.getInt();
-            buffer.position(pathListOffset);
+            int pathListOffset = buffer.getInt(16);
 
             /**
              * Path List decoding
              */
-            buffer.getInt();
-            int pathListCount = buffer.getInt();
-            for (int pathIndex = 0; pathIndex < pathListCount; pathIndex++) {
-                int pathOffset = buffer.getInt();
-                buffer.getInt();
-                int pos = buffer.position();
-                buffer.position(pathListOffset + pathOffset);
-                pathList.add(StringUtil.readString(buffer));
-                buffer.position(pos);
-            }
+            PathTable pathTable = PathTable.decode(buffer, pathListOffset);
+            pathList.ensureCapacity(pathTable.size());
+            for (int pathIndex = 0; pathIndex < pathTable.size(); pathIndex++)
+                pathList.add(pathTable.getPath(pathIndex));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -286,8 +287,8 @@ public class ArchiveFile {
      * Retrieve the path entries for this archive.
      * @return
      */
-    public ArrayList<RiotPath> getPathEntries() {
-        return pathEntries;
+    public PathTable getPathTable() {
+        return pathTable;
     }
 
     /**
@@ -296,27 +297,94 @@ public class ArchiveFile {
      * @return
      */
     public int getPathIndex(String path) {
-        for(RiotPath p : pathEntries) {
-            if(p.getPath().equals(path))
-                return pathEntries.indexOf(p);
-        }
-        return -1;
+        if(pathFilter != null && !pathFilter.mightContain(RiotFile.hashPath(path)))
+            return -1;
+        return pathTable.indexOf(path);
+    }
+
+    /**
+     * Retrieve the Bloom filter over the path hashes of this archive.
+     * @return
+     */
+    public BloomFilter getPathFilter() {
+        return pathFilter;
+    }
+
+    /**
+     * Retrieve the type of every entry slot, identified from the magic
+     *  number of its data. The types are sniffed once and kept.
+     * @return The {@link RiotFileType} ordinal of each entry slot.
+     * @throws IOException
+     */
+    public synchronized byte[] getEntryTypes() throws IOException {
+        if (entryTypes == null)
+            entryTypes = EntryTypeSniffer.sniff(this);
+        return entryTypes;
+    }
+
+    /**
+     * Retrieve the type of an entry slot, identified from the magic number of its data.
+     * @param slot
+     * @return
+     * @throws IOException
+     */
+    public RiotFileType getEntryType(int slot) throws IOException {
+        return RiotFileType.typeForOrdinal(getEntryTypes()[slot]);
+    }
+
+    /**
+     * Retrieve the archive file.
+     * @return
+     */
+    public File getFile() {
+        return riotArchiveFile;
+    }
+
+    /**
+     * Check whether {@link #initiate()} decoded the archive in full.
+     * @return
+     */
+    public boolean isDecoded() {
+        return decoded;
     }
 
     /**
      * Write this archive to a directory.
+     *  Entries are inflated one at a time straight from the data file
+     *  so that the decoded index is never filled with file data.
      */
     public void writeArchive(String out) {
-        try {
+        writeArchive(out, new HashMap<>());
+    }
+
+    /**
+     * Write this archive to a directory, skipping the entries whose file
+     *  was already written with the same content.
+     * @param out       The directory.
+     * @param written   The fingerprint of the stored bytes last written to
+     *                  each path, updated as entries are written.
+     */
+    public void writeArchive(String out, Map<String, ContentFingerprint> written) {
+        try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(archiveDataFile.getDataFile())) {
             for (RiotFile fileEntry : archiveDataFile.getFileEntries()) {
-                String path = out + pathEntries.get(fileEntry.getPathListIndex()).getPath();
+                String path = out + pathTable.getPath(fileEntry.getPathListIndex());
                 //System.out.println("Writing: " + path);
+                byte[] entryData = lease.read(fileEntry.getDataOffset() & 0xFFFFFFFFL, fileEntry.getDataSize());
+                ContentFingerprint fingerprint = ContentFingerprint.of(entryData);
+                if (fingerprint.equals(written.get(path)))
+                    continue;
                 File directory = new File(path.substring(0, path.lastIndexOf('/')));
                 if (!directory.exists())
                     directory.mkdirs();
-                BufferedOutputStream dos = new BufferedOutputStream(new FileOutputStream(new File(path)));
-                dos.write(fileEntry.getFileData());
-                dos.close();
+                byte[] uncompressed = ArchiveDataFile.inflate(entryData);
+                try (BufferedOutputStream dos = new BufferedOutputStream(new FileOutputStream(new File(path)))) {
+                    dos.write(uncompressed != null ? uncompressed : entryData);
+                }
+                /**
+                 * Only recorded once written, so a failed write is retried
+                 *  by the next release holding the same content.
+                 */
+                written.put(path, fingerprint);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,247 @@
+package gg.raf.suite.fs.archive;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process-wide registry of decoded archives.
+ *
+ * Every feature that needs the index of an archive(the tree view,
+ *  file tabs, containers and tasks) asks the registry for it instead
+ *  of constructing its own {@link ArchiveFile}, so the header of an
+ *  archive is decoded at most once and the result is shared by reference.
+ *
+ * An archive is decoded again when the size or modification time of its
+ *  .raf or .raf.dat file changes, and dropped once it has not been
+ *  requested for the idle timeout, or once the registry holds more than
+ *  its capacity and it is the least recently requested. An archive that
+ *  fails to decode is handed out but never registered.
+ *
+ * Archives handed out by the registry are shared and must be treated as
+ *  read-only; file data should be read with {@link ArchiveDataFile#readFile}.
+ */
+public final class ArchiveRegistry {
+
+    /**
+     * The default time an archive may go unused before it is evicted.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The default number of archives kept registered.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The minimum time between two sweeps for idle archives.
+     */
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The registry shared by the application.
+     */
+    private static final ArchiveRegistry REGISTRY = new ArchiveRegistry(DEFAULT_IDLE_TIMEOUT, DEFAULT_CAPACITY);
+
+    /**
+     * The registered archives keyed by the absolute path of their .raf file.
+     */
+    private final ConcurrentHashMap<String, Registration> archives = new ConcurrentHashMap<>();
+
+    /**
+     * The time an archive may go unused before it is evicted.
+     */
+    private final long idleTimeout;
+
+    /**
+     * The number of archives kept registered.
+     */
+    private final int capacity;
+
+    /**
+     * The time of the last sweep for idle archives.
+     */
+    private volatile long lastSweep = System.currentTimeMillis();
+
+    /**
+     * Construct a registry with a given idle timeout in milliseconds
+     *  and capacity in archives.
+     * @param idleTimeout
+     * @param capacity
+     */
+    public ArchiveRegistry(long idleTimeout, int capacity) {
+        this.idleTimeout = idleTimeout;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Retrieve the registry shared by the application.
+     * @return
+     */
+    public static ArchiveRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    /**
+     * Retrieve the decoded archive for a .raf file, decoding it if it has
+     *  not been decoded yet or if the file has changed since.
+     * @param file  The .raf file.
+     * @return
+     * @throws FileNotFoundException
+     */
+    public ArchiveFile get(File file) throws FileNotFoundException {
+        String key = file.getAbsolutePath();
+        if (!file.isFile())
+            throw new FileNotFoundException(key);
+        File dataFile = new File(key + ".dat");
+        long now = System.currentTimeMillis();
+        sweep(now);
+
+        Registration registration = archives.computeIfAbsent(key, k -> new Registration());
+        boolean added = false;
+        synchronized (registration) {
+            long size = file.length(), modified = file.lastModified();
+            long dataSize = dataFile.length(), dataModified = dataFile.lastModified();
+            if (registration.archive == null || registration.size != size || registration.modified != modified
+                    || registration.dataSize != dataSize || registration.dataModified != dataModified) {
+                ArchiveFile archive = new ArchiveFile(file);
+                archive.initiate();
+                if (!archive.isDecoded()) {
+                    /**
+                     * Keep a partly decoded archive out of the registry so
+                     *  the next request decodes it again.
+                     */
+                    registration.archive = null;
+                    archives.remove(key, registration);
+                    return archive;
+                }
+                added = registration.archive == null;
+                registration.archive = archive;
+                registration.size = size;
+                registration.modified = modified;
+                registration.dataSize = dataSize;
+                registration.dataModified = dataModified;
+            }
+            registration.lastAccess = now;
+            if (!added)
+                return registration.archive;
+        }
+        if (archives.size() > capacity)
+            evictLeastRecent();
+        return registration.archive;
+    }
+
+    /**
+     * Retrieve the decoded archive for a .raf file only if it is already
+     *  registered and still up to date.
+     * @param file
+     * @return The archive, or null.
+     */
+    public ArchiveFile getIfPresent(File file) {
+        Registration registration = archives.get(file.getAbsolutePath());
+        if (registration == null)
+            return null;
+        synchronized (registration) {
+            File dataFile = new File(file.getAbsolutePath() + ".dat");
+            if (registration.archive == null || registration.size != file.length() || registration.modified != file.lastModified()
+                    || registration.dataSize != dataFile.length() || registration.dataModified != dataFile.lastModified())
+                return null;
+            registration.lastAccess = System.currentTimeMillis();
+            return registration.archive;
+        }
+    }
+
+    /**
+     * Drop the decoded archive for a .raf file, i.e after it has been written.
+     * @param file
+     */
+    public void invalidate(File file) {
+        archives.remove(file.getAbsolutePath());
+    }
+
+    /**
+     * Drop every archive that has not been requested for the idle timeout.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        lastSweep = now;
+        Iterator<Map.Entry<String, Registration>> iterator = archives.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Registration registration = iterator.next().getValue();
+            if (now - registration.lastAccess > idleTimeout)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Drop the least recently requested archives until the registry is
+     *  back within its capacity.
+     */
+    private void evictLeastRecent() {
+        int excess = archives.size() - capacity;
+        if (excess <= 0)
+            return;
+        /**
+         * Snapshot the access times, as requests keep updating them.
+         */
+        Map<String, Long> accessed = new HashMap<>();
+        for (Map.Entry<String, Registration> entry : archives.entrySet())
+            accessed.put(entry.getKey(), entry.getValue().lastAccess);
+        List<String> keys = new ArrayList<>(accessed.keySet());
+        keys.sort(Comparator.comparingLong(accessed::get));
+        for (int index = 0; index < excess && index < keys.size(); index++)
+            archives.remove(keys.get(index));
+    }
+
+    /**
+     * Retrieve the number of registered archives.
+     * @return
+     */
+    public int size() {
+        return archives.size();
+    }
+
+    /**
+     * Sweep for idle archives if the sweep interval has passed.
+     * @param now
+     */
+    private void sweep(long now) {
+        if (now - lastSweep > SWEEP_INTERVAL)
+            evictIdle();
+    }
+
+    /**
+     * A registered archive and the state of its files when it was decoded.
+     */
+    private static final class Registration {
+
+        /**
+         * The decoded archive.
+         */
+        private ArchiveFile archive;
+
+        /**
+         * The size and modification time of the .raf file.
+         */
+        private long size, modified;
+
+        /**
+         * The size and modification time of the .raf.dat file.
+         */
+        private long dataSize, dataModified;
+
+        /**
+         * The last time this archive was requested.
+         */
+        private volatile long lastAccess = System.currentTimeMillis();
+
+    }
+
+}
@@ -0,0 +1,132 @@
+package gg.raf.suite.fs.archive;
+
+import gg.raf.suite.fs.file.RiotFile;
+import gg.raf.suite.fs.file.RiotFileType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Identifies the entries of an archive from the magic number at the start
+ *  of their data.
+ *
+ * Only the first {@link #INPUT_LENGTH} stored bytes of each entry are read,
+ *  with positional reads in offset order; the heads of entries separated
+ *  by no more than {@link #MERGE_GAP} bytes are read together, so small
+ *  entries take a single read without the data file being read through.
+ *  Only the first {@link RiotFileType#MAGIC_LENGTH} bytes of each entry
+ *  are inflated; the inflater stops as soon as they are out. Entries that
+ *  are not compressed are identified from their stored bytes, and entries
+ *  lying past the end of the data file are left as DEFAULT.
+ */
+final class EntryTypeSniffer {
+
+    /**
+     * The largest read made from the data file.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * The number of stored bytes read from the head of an entry; far more
+     *  than a deflate stream takes to produce the header.
+     */
+    private static final int INPUT_LENGTH = 4 * 1024;
+
+    /**
+     * The largest gap of unneeded bytes read to join the heads of two
+     *  entries into one read.
+     */
+    private static final int MERGE_GAP = 4 * 1024;
+
+    private EntryTypeSniffer() { }
+
+    /**
+     * Identify every entry of an archive.
+     * @param archive
+     * @return The {@link RiotFileType} ordinal of each entry slot.
+     * @throws IOException
+     */
+    static byte[] sniff(ArchiveFile archive) throws IOException {
+        List<RiotFile> entries = archive.getArchiveDataFile().getFileEntries();
+        byte[] types = new byte[entries.size()];
+        Arrays.fill(types, (byte) RiotFileType.DEFAULT.ordinal());
+        /**
+         * Order the slots by data offset in the high word, with the slot in the low word.
+         */
+        long[] order = new long[entries.size()];
+        for (int slot = 0; slot < order.length; slot++)
+            order[slot] = ((entries.get(slot).getDataOffset() & 0xFFFFFFFFL) << 32) | slot;
+        Arrays.sort(order);
+        byte[] window = new byte[WINDOW_SIZE];
+        byte[] header = new byte[RiotFileType.MAGIC_LENGTH];
+        Inflater inflater = new Inflater();
+        try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(archive.getArchiveDataFile().getDataFile())) {
+            long fileSize = lease.size();
+            long windowStart = 0;
+            int windowLength = 0;
+            for (long key : order) {
+                int slot = (int) key;
+                long offset = key >>> 32;
+                if (offset >= fileSize)
+                    continue;
+                int needed = (int) Math.min(Math.min(entries.get(slot).getDataSize() & 0xFFFFFFFFL, fileSize - offset), INPUT_LENGTH);
+                if (needed == 0)
+                    continue;
+                if (offset < windowStart || offset + needed > windowStart + windowLength) {
+                    /**
+                     * Start a new read at this entry, or extend the last one
+                     *  over a small gap if the head still fits the window.
+                     */
+                    long end = offset + needed;
+                    if (windowLength > 0 && offset >= windowStart && offset - (windowStart + windowLength) <= MERGE_GAP
+                            && end - windowStart <= window.length) {
+                        int extra = (int) (end - windowStart) - windowLength;
+                        lease.read(windowStart + windowLength, ByteBuffer.wrap(window, windowLength, extra));
+                        windowLength += extra;
+                    } else {
+                        windowStart = offset;
+                        windowLength = needed;
+                        lease.read(windowStart, ByteBuffer.wrap(window, 0, windowLength));
+                    }
+                }
+                int start = (int) (offset - windowStart);
+                int length = inflateHeader(inflater, window, start, needed, header);
+                RiotFileType type = length >= 0
+                        ? RiotFileType.typeForMagic(header, 0, length)
+                        : RiotFileType.typeForMagic(window, start, needed);
+                types[slot] = (byte) type.ordinal();
+            }
+        } finally {
+            inflater.end();
+        }
+        return types;
+    }
+
+    /**
+     * Inflate the start of an entry.
+     * @return The number of bytes inflated, or -1 if the entry is not compressed.
+     *  An entry nothing can be inflated from is taken as not compressed, as
+     *  {@link ArchiveDataFile#inflate} would.
+     */
+    private static int inflateHeader(Inflater inflater, byte[] data, int offset, int length, byte[] header) {
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        int inflated = 0;
+        try {
+            while (inflated < header.length && !inflater.finished()) {
+                int count = inflater.inflate(header, inflated, header.length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            return -1;
+        }
+        return inflated == 0 && !inflater.finished() ? -1 : inflated;
+    }
+
+}
@@ -1,5 +1,7 @@
 package gg.raf.suite.fs.archive;
 
+import java.util.Comparator;
+
 /**
  * Created by Allen Kinzalow on 9/24/2015.
  *
@@ -13,6 +15,12 @@ package gg.raf.suite.fs.archive;
  */
 public class ReleaseManifest {
 
+    /**
+     * Orders release numbers such as "0.0.1.9" and "0.0.1.10" by the
+     *  numeric value of each dot separated component.
+     */
+    public static final Comparator<String> RELEASE_ORDER = ReleaseManifest::compareReleaseNumbers;
+
     /**
      * The release number.
      */
@@ -39,4 +47,50 @@ public class ReleaseManifest {
         return releaseNumber;
     }
 
+    /**
+     * Compare two release numbers component by component.
+     * @param a
+     * @param b
+     * @return
+     */
+    public static int compareReleaseNumbers(String a, String b) {
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            int startA = i, startB = j;
+            while (i < a.length() && a.charAt(i) != '.')
+                i++;
+            while (j < b.length() && b.charAt(j) != '.')
+                j++;
+            int compare = compareComponent(a, startA, i, b, startB, j);
+            if (compare != 0)
+                return compare;
+            i++;
+            j++;
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * Compare two components of release numbers, numerically if both are numbers.
+     */
+    private static int compareComponent(String a, int startA, int endA, String b, int startB, int endB) {
+        while (startA < endA - 1 && a.charAt(startA) == '0')
+            startA++;
+        while (startB < endB - 1 && b.charAt(startB) == '0')
+            startB++;
+        boolean numeric = true;
+        for (int k = startA; k < endA && numeric; k++)
+            numeric = Character.isDigit(a.charAt(k));
+        for (int k = startB; k < endB && numeric; k++)
+            numeric = Character.isDigit(b.charAt(k));
+        if (numeric && endA - startA != endB - startB)
+            return Integer.compare(endA - startA, endB - startB);
+        for (; startA < endA && startB < endB; startA++, startB++) {
+            int compare = Character.compare(a.charAt(startA), b.charAt(startB));
+            if (compare != 0)
+                return compare;
+        }
+        return Integer.compare(endA - startA, endB - startB);
+    }
+
 }
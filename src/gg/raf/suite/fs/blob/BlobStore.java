@@ -0,0 +1,350 @@
+package gg.raf.suite.fs.blob;
+
+import gg.raf.suite.config.Configuration;
+import gg.raf.suite.fs.archive.ArchiveDataFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A content addressed store of the inflated data of archive entries.
+ *
+ * An entry is looked up by the fingerprint of its stored(compressed)
+ *  bytes, which maps to the fingerprint of its inflated content; every
+ *  entry with the same content shares one payload. Identical entries of
+ *  different releases are therefore inflated and held only once.
+ *
+ * Payloads are kept in memory up to a byte budget, least recently used
+ *  first out, and large ones are also written under the configuration
+ *  directory so later sessions read them back instead of inflating them.
+ *  The directory has a byte budget of its own; once it is passed the
+ *  payload files read longest ago are deleted. Payloads are shared and
+ *  must not be modified.
+ *
+ * The content fingerprints of the stored fingerprints seen are kept in a
+ *  bounded map, least recently used first out; one whose payload has
+ *  left memory is dropped when it is next looked up.
+ */
+public final class BlobStore {
+
+    /**
+     * The directory of the payloads written to disk.
+     */
+    public static final File BLOB_DIR = new File(Configuration.CONFIG_DIR, "blobs");
+
+    /**
+     * The size from which payloads are written to disk; smaller ones
+     *  inflate faster than they are read back.
+     */
+    private static final int DISK_THRESHOLD = 64 * 1024;
+
+    /**
+     * The most stored fingerprints whose content fingerprint is kept.
+     */
+    private static final int CONTENT_CAPACITY = 16384;
+
+    /**
+     * The share of the disk budget the directory is trimmed down to once it is passed.
+     */
+    private static final double DISK_TRIM = 0.75;
+
+    /**
+     * The suffix of payload files being written.
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * The store shared by the application.
+     */
+    private static final BlobStore store = new BlobStore(64L * 1024 * 1024, BLOB_DIR, 512L * 1024 * 1024);
+
+    /**
+     * The content fingerprint of each stored fingerprint seen, in access order.
+     */
+    private final LinkedHashMap<ContentFingerprint, ContentFingerprint> contents = new LinkedHashMap<ContentFingerprint, ContentFingerprint>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ContentFingerprint, ContentFingerprint> eldest) {
+            return size() > CONTENT_CAPACITY;
+        }
+    };
+
+    /**
+     * The payloads held in memory by content fingerprint, in access order.
+     */
+    private final LinkedHashMap<ContentFingerprint, byte[]> payloads = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * The most bytes of payloads held in memory.
+     */
+    private final long memoryBudget;
+
+    /**
+     * The bytes of payloads held in memory.
+     */
+    private long memorySize;
+
+    /**
+     * The directory of the payloads written to disk, or null to keep them in memory only.
+     */
+    private final File directory;
+
+    /**
+     * The most bytes of payload files kept in the directory.
+     */
+    private final long diskBudget;
+
+    /**
+     * The bytes of payload files in the directory, or -1 until it is first measured.
+     */
+    private long diskSize = -1;
+
+    /**
+     * The number of lookups served without inflating.
+     */
+    private long hits, misses;
+
+    /**
+     * Construct a blob store.
+     * @param memoryBudget  The most bytes of payloads held in memory.
+     * @param directory     The directory of the payloads written to disk, or null.
+     * @param diskBudget    The most bytes of payload files kept in the directory.
+     */
+    public BlobStore(long memoryBudget, File directory, long diskBudget) {
+        this.memoryBudget = memoryBudget;
+        this.directory = directory;
+        this.diskBudget = diskBudget;
+    }
+
+    /**
+     * Retrieve the store shared by the application.
+     * @return
+     */
+    public static BlobStore getStore() {
+        return store;
+    }
+
+    /**
+     * Load the content of an entry, inflating it only if no entry with the
+     *  same stored bytes has been loaded before.
+     * @param entryData The stored bytes of the entry.
+     * @return
+     */
+    public Blob load(byte[] entryData) {
+        ContentFingerprint fingerprint = ContentFingerprint.of(entryData);
+        synchronized (this) {
+            ContentFingerprint content = contents.get(fingerprint);
+            byte[] data = content == null ? null : payloads.get(content);
+            if (data != null) {
+                hits++;
+                return new Blob(fingerprint, content, data);
+            }
+            if (content != null)
+                contents.remove(fingerprint);
+        }
+        byte[] data = readPayload(fingerprint);
+        if (data == null) {
+            byte[] uncompressed = ArchiveDataFile.inflate(entryData);
+            data = uncompressed != null ? uncompressed : entryData;
+            if (uncompressed != null && uncompressed.length >= DISK_THRESHOLD)
+                writePayload(fingerprint, uncompressed);
+        }
+        /**
+         * Stored bytes that do not inflate are their own content.
+         */
+        ContentFingerprint content = data == entryData ? fingerprint : ContentFingerprint.of(data);
+        synchronized (this) {
+            misses++;
+            contents.put(fingerprint, content);
+            byte[] shared = payloads.get(content);
+            if (shared != null)
+                return new Blob(fingerprint, content, shared);
+            if (data.length <= memoryBudget) {
+                payloads.put(content, data);
+                memorySize += data.length;
+                evict();
+            }
+        }
+        return new Blob(fingerprint, content, data);
+    }
+
+    /**
+     * Drop the least recently used payloads until the memory budget is met.
+     */
+    private void evict() {
+        Iterator<Map.Entry<ContentFingerprint, byte[]>> iterator = payloads.entrySet().iterator();
+        while (memorySize > memoryBudget && iterator.hasNext()) {
+            memorySize -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Read a payload written to disk.
+     * @return The payload, or null if none was written.
+     */
+    private byte[] readPayload(ContentFingerprint fingerprint) {
+        if (directory == null)
+            return null;
+        File file = new File(directory, fingerprint.toString());
+        if (!file.isFile())
+            return null;
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            /**
+             * The modification time orders the files by their last read for trimming.
+             */
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Write a payload to disk. It is written to a temporary file first so
+     *  a payload file is always whole. Payloads larger than the disk budget
+     *  are not written.
+     */
+    private void writePayload(ContentFingerprint fingerprint, byte[] data) {
+        if (directory == null || data.length > diskBudget)
+            return;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                return;
+            File file = new File(directory, fingerprint.toString());
+            File temporary = File.createTempFile(fingerprint.toString(), TEMPORARY_SUFFIX, directory);
+            Files.write(temporary.toPath(), data);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) {
+                if (diskSize >= 0)
+                    diskSize += data.length;
+                if (diskSize < 0 || diskSize > diskBudget)
+                    trimDisk();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Measure the payload files of the directory and, if the disk budget is
+     *  passed, delete those read longest ago until {@link #DISK_TRIM} of it is left.
+     *  Temporary files left by an interrupted write are deleted.
+     */
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        long size = 0;
+        ArrayList<File> payloadFiles = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (!file.isFile())
+                continue;
+            if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+                /**
+                 * Another writer may still be filling a recent one.
+                 */
+                if (System.currentTimeMillis() - file.lastModified() > 60 * 60 * 1000L)
+                    file.delete();
+                continue;
+            }
+            size += file.length();
+            payloadFiles.add(file);
+        }
+        if (size > diskBudget) {
+            long trimmed = (long) (diskBudget * DISK_TRIM);
+            long[] modified = new long[payloadFiles.size()];
+            Integer[] order = new Integer[payloadFiles.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+                modified[i] = payloadFiles.get(i).lastModified();
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+            for (int i = 0; i < order.length && size > trimmed; i++) {
+                File file = payloadFiles.get(order[i]);
+                long length = file.length();
+                if (file.delete())
+                    size -= length;
+            }
+        }
+        diskSize = size;
+    }
+
+    /**
+     * Retrieve the number of loads served from memory.
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Retrieve the number of loads read from disk or inflated.
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Retrieve the bytes of payloads held in memory.
+     * @return
+     */
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    /**
+     * The content of an entry.
+     */
+    public static final class Blob {
+
+        private final ContentFingerprint fingerprint;
+        private final ContentFingerprint contentFingerprint;
+        private final byte[] data;
+
+        private Blob(ContentFingerprint fingerprint, ContentFingerprint contentFingerprint, byte[] data) {
+            this.fingerprint = fingerprint;
+            this.contentFingerprint = contentFingerprint;
+            this.data = data;
+        }
+
+        /**
+         * The fingerprint of the stored bytes of the entry.
+         */
+        public ContentFingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * The fingerprint of the content, shared by every entry with the same content.
+         */
+        public ContentFingerprint getContentFingerprint() {
+            return contentFingerprint;
+        }
+
+        /**
+         * The content, shared and not to be modified.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Were the stored bytes compressed?
+         */
+        public boolean isCompressed() {
+            return !fingerprint.equals(contentFingerprint);
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package gg.raf.suite.fs.blob;
+
+import gg.raf.suite.utilities.Murmur3;
+
+/**
+ * Identifies a run of bytes by its length and 128 bit hash, so equal
+ *  contents can be recognised without comparing them.
+ */
+public final class ContentFingerprint {
+
+    /**
+     * The length of the content.
+     */
+    private final int size;
+
+    /**
+     * The halves of the hash of the content.
+     */
+    private final long low, high;
+
+    private ContentFingerprint(int size, long low, long high) {
+        this.size = size;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Fingerprint a whole array.
+     * @param data
+     * @return
+     */
+    public static ContentFingerprint of(byte[] data) {
+        return of(data, 0, data.length);
+    }
+
+    /**
+     * Fingerprint a range of bytes.
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static ContentFingerprint of(byte[] data, int offset, int length) {
+        long[] hash = new long[2];
+        Murmur3.hash128(data, offset, length, 0, hash);
+        return new ContentFingerprint(length, hash[0], hash[1]);
+    }
+
+    /**
+     * Fingerprint a content by a sample of its bytes and its whole length.
+     *  Only as strong as the sample; it suits contents whose sampled bytes
+     *  already depend on all of them, such as the head and checksummed
+     *  tail of a zlib stream.
+     * @param sample    The sampled bytes.
+     * @param offset
+     * @param length
+     * @param size      The length of the whole content.
+     * @return
+     */
+    public static ContentFingerprint ofSample(byte[] sample, int offset, int length, int size) {
+        long[] hash = new long[2];
+        Murmur3.hash128(sample, offset, length, 0, hash);
+        return new ContentFingerprint(size, hash[0], hash[1]);
+    }
+
+    /**
+     * Rebuild a fingerprint from its length and hash halves, as written by
+     *  {@link #getLow()} and {@link #getHigh()}.
+     * @param size
+     * @param low
+     * @param high
+     * @return
+     */
+    public static ContentFingerprint valueOf(int size, long low, long high) {
+        return new ContentFingerprint(size, low, high);
+    }
+
+    /**
+     * Retrieve the low half of the hash.
+     * @return
+     */
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * Retrieve the high half of the hash.
+     * @return
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * Retrieve the length of the content.
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ContentFingerprint))
+            return false;
+        ContentFingerprint other = (ContentFingerprint) o;
+        return size == other.size && low == other.low && high == other.high;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) low;
+    }
+
+    /**
+     * The hash and length in hex, usable as a file name.
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x-%x", high, low, size);
+    }
+
+}
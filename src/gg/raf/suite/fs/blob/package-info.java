@@ -0,0 +1,5 @@
+/**
+ * A content addressed store of the inflated data of archive entries,
+ *  shared between entries whose contents are identical.
+ */
+package gg.raf.suite.fs.blob;
@@ -1,9 +1,13 @@
 package gg.raf.suite.fs.container;
 
+import gg.raf.suite.fs.archive.ArchiveEntry;
 import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by Allen Kinzalow on 9/24/2015.
@@ -16,9 +20,16 @@ import java.util.ArrayList;
  *      the <b>ENTIRE</b> League of Legends cache in
  *      one instance - excluding parsing archive data files;
  *      however, the memory usage is still very large.
+ *      Prefer {@link #stream()} for cache-wide analyses, which visits
+ *      every entry while holding only a few archives at once.
  */
 public class ArchiveContainer extends Container<ArrayList<ArchiveFile>> {
 
+    /**
+     * The default number of archives a stream holds at once.
+     */
+    public static final int DEFAULT_OPEN_ARCHIVES = Runtime.getRuntime().availableProcessors() * 2;
+
     /**
      * A collection of all archive releases.
      */
@@ -26,6 +37,13 @@ public class ArchiveContainer extends Container<ArrayList<ArchiveFile>> {
         super(container);
     }
 
+    /**
+     * A collection of all archive releases under a given root path.
+     */
+    public ArchiveContainer(String rootPath, ArrayList<ArchiveFile> container) {
+        super(rootPath, container);
+    }
+
     /**
      * Navigate through all of the releases and decode each
      *  archive that the release contains.
@@ -37,8 +55,7 @@ public class ArchiveContainer extends Container<ArrayList<ArchiveFile>> {
             for (File file : directory.listFiles()) {
                 for (final File subFile : file.listFiles()) {
                     if (subFile.getName().endsWith(".raf")) {
-                        ArchiveFile archiveFile = new ArchiveFile(subFile);
-                        archiveFile.initiate();
+                        ArchiveFile archiveFile = ArchiveRegistry.getRegistry().get(subFile);
                         container.add(archiveFile);
                     }
                 }
@@ -48,6 +65,43 @@ public class ArchiveContainer extends Container<ArrayList<ArchiveFile>> {
         }
     }
 
+    /**
+     * Stream every file entry of every archive in the cache without
+     *  populating this container. The stream should be closed once
+     *  it is no longer used.
+     * @param maxOpenArchives   The maximum number of archives held at once.
+     * @param parallel          Whether or not the stream is parallel.
+     * @return
+     */
+    public Stream<ArchiveEntry> stream(int maxOpenArchives, boolean parallel) {
+        ArchiveSpliterator spliterator = new ArchiveSpliterator(this.getRootPath(), maxOpenArchives);
+        return StreamSupport.stream(spliterator, parallel).onClose(spliterator::close);
+    }
+
+    /**
+     * Stream every file entry of the given archives without populating
+     *  this container. No archive is decoded before it is reached, so
+     *  archives filtered out beforehand cost nothing. The stream should
+     *  be closed once it is no longer used.
+     * @param archives          The .raf files, i.e a subset of {@link ArchiveSpliterator#listArchives}.
+     * @param maxOpenArchives   The maximum number of archives held at once.
+     * @param parallel          Whether or not the stream is parallel.
+     * @return
+     */
+    public static Stream<ArchiveEntry> stream(File[] archives, int maxOpenArchives, boolean parallel) {
+        ArchiveSpliterator spliterator = new ArchiveSpliterator(archives, maxOpenArchives);
+        return StreamSupport.stream(spliterator, parallel).onClose(spliterator::close);
+    }
+
+    /**
+     * Stream every file entry of every archive in the cache, holding
+     *  at most {@link #DEFAULT_OPEN_ARCHIVES} archives at once.
+     * @return
+     */
+    public Stream<ArchiveEntry> stream() {
+        return stream(DEFAULT_OPEN_ARCHIVES, false);
+    }
+
     /**
      * Get the container.
      * @return
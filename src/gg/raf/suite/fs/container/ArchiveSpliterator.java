@@ -0,0 +1,368 @@
+package gg.raf.suite.fs.container;
+
+import gg.raf.suite.fs.archive.ArchiveEntry;
+import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
+import gg.raf.suite.fs.archive.ReleaseManifest;
+import gg.raf.suite.fs.file.RiotFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over the file entries of every archive in the cache.
+ *
+ * Archives are decoded lazily while the spliterator is traversed and
+ *  released as soon as all of their entries have been visited, so at most
+ *  a configured number of archives are held at once no matter how large
+ *  the cache is. The spliterator splits by ranges of archives first and
+ *  then by byte ranges of the data file within a single archive, which
+ *  lets parallel streams spread work evenly across cores.
+ *
+ * Streams built on this spliterator should be closed, i.e with
+ *  try-with-resources, so that archives held by short-circuited
+ *  traversals are released.
+ */
+public final class ArchiveSpliterator implements Spliterator<ArchiveEntry> {
+
+    /**
+     * The approximate number of .raf bytes per file entry, used to estimate sizes.
+     */
+    private static final int BYTES_PER_ENTRY = 64;
+
+    /**
+     * The state shared by a spliterator and everything split from it.
+     */
+    private final Context context;
+
+    /**
+     * The range of archives left to traverse [archiveIndex, archiveFence).
+     */
+    private int archiveIndex, archiveFence;
+
+    /**
+     * The archive currently being traversed, or null.
+     */
+    private OpenArchive open;
+
+    /**
+     * The range of entries of the open archive left to traverse [entryIndex, entryFence).
+     */
+    private int entryIndex, entryFence;
+
+    /**
+     * Construct a spliterator over all archives found under a cache directory.
+     * @param rootPath          The cache directory containing release directories.
+     * @param maxOpenArchives   The maximum number of archives held at once.
+     */
+    public ArchiveSpliterator(String rootPath, int maxOpenArchives) {
+        this(listArchives(new File(rootPath)), maxOpenArchives);
+    }
+
+    /**
+     * Construct a spliterator over the given archives.
+     * @param archives          The .raf files, in the order traversed.
+     * @param maxOpenArchives   The maximum number of archives held at once.
+     */
+    public ArchiveSpliterator(File[] archives, int maxOpenArchives) {
+        this(new Context(archives, maxOpenArchives), 0, archives.length);
+    }
+
+    private ArchiveSpliterator(Context context, int archiveIndex, int archiveFence) {
+        this.context = context;
+        this.archiveIndex = archiveIndex;
+        this.archiveFence = archiveFence;
+    }
+
+    /**
+     * List every .raf file of every release directory, ordered by release and name.
+     * @param directory
+     * @return
+     */
+    public static File[] listArchives(File directory) {
+        List<File> archives = new ArrayList<>();
+        File[] releases = directory.listFiles(File::isDirectory);
+        if (releases == null)
+            return new File[0];
+        Arrays.sort(releases, (a, b) -> ReleaseManifest.compareReleaseNumbers(a.getName(), b.getName()));
+        for (File release : releases) {
+            File[] files = release.listFiles((dir, name) -> name.endsWith(".raf"));
+            if (files == null)
+                continue;
+            Arrays.sort(files);
+            Collections.addAll(archives, files);
+        }
+        return archives.toArray(new File[archives.size()]);
+    }
+
+    /**
+     * Release every archive still held by this spliterator or any spliterator
+     *  split from it. Registered as the close handler of streams.
+     */
+    public void close() {
+        context.close();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ArchiveEntry> action) {
+        while (true) {
+            if (open != null) {
+                if (entryIndex < entryFence) {
+                    action.accept(new ArchiveEntry(open.archive, entryIndex++));
+                    return true;
+                }
+                closeArchive();
+            }
+            if (archiveIndex >= archiveFence)
+                return false;
+            openArchive(archiveIndex++);
+        }
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super ArchiveEntry> action) {
+        while (true) {
+            if (open != null) {
+                ArchiveFile archive = open.archive;
+                for (int fence = entryFence; entryIndex < fence; )
+                    action.accept(new ArchiveEntry(archive, entryIndex++));
+                closeArchive();
+            }
+            if (archiveIndex >= archiveFence)
+                return;
+            openArchive(archiveIndex++);
+        }
+    }
+
+    @Override
+    public Spliterator<ArchiveEntry> trySplit() {
+        if (open == null) {
+            int remaining = archiveFence - archiveIndex;
+            if (remaining > 1) {
+                int mid = archiveIndex + remaining / 2;
+                ArchiveSpliterator prefix = new ArchiveSpliterator(context, archiveIndex, mid);
+                archiveIndex = mid;
+                return prefix;
+            }
+            if (remaining == 0)
+                return null;
+            /**
+             * A single archive left; open it so it can be split by byte range.
+             */
+            openArchive(archiveIndex++);
+        }
+        if (archiveIndex < archiveFence) {
+            /**
+             * Hand off the archives not yet opened before splitting the open one.
+             */
+            ArchiveSpliterator suffix = new ArchiveSpliterator(context, archiveIndex, archiveFence);
+            archiveFence = archiveIndex;
+            return suffix;
+        }
+        int mid = splitByBytes();
+        if (mid <= entryIndex || mid >= entryFence)
+            return null;
+        ArchiveSpliterator prefix = new ArchiveSpliterator(context, archiveIndex, archiveFence);
+        prefix.open = open;
+        prefix.entryIndex = entryIndex;
+        prefix.entryFence = mid;
+        open.share();
+        entryIndex = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        long estimate = open != null ? entryFence - entryIndex : 0;
+        if (archiveFence > archiveIndex)
+            estimate += (context.rafBytes[archiveFence] - context.rafBytes[archiveIndex]) / BYTES_PER_ENTRY + 1;
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Find the entry that splits the remaining entries of the open archive
+     *  into two halves holding about the same number of compressed bytes.
+     * @return
+     */
+    private int splitByBytes() {
+        List<RiotFile> entries = open.archive.getArchiveDataFile().getFileEntries();
+        long total = 0;
+        for (int i = entryIndex; i < entryFence; i++)
+            total += entries.get(i).getDataSize();
+        long half = total / 2, sum = 0;
+        for (int i = entryIndex; i < entryFence; i++) {
+            sum += entries.get(i).getDataSize();
+            if (sum >= half)
+                return Math.max(i, entryIndex + 1);
+        }
+        return entryFence;
+    }
+
+    /**
+     * Open an archive, waiting for one of the open archive permits.
+     * @param index
+     */
+    private void openArchive(int index) {
+        File file = context.archives[index];
+        context.acquire();
+        try {
+            ArchiveFile archive = ArchiveRegistry.getRegistry().getIfPresent(file);
+            if (archive == null) {
+                /**
+                 * Decode without registering so the stream stays in constant memory.
+                 */
+                archive = new ArchiveFile(file);
+                archive.initiate();
+            }
+            open = new OpenArchive(context, archive);
+            entryIndex = 0;
+            entryFence = archive.getArchiveDataFile().getFileEntries().size();
+        } catch (IOException e) {
+            context.permits.release();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stop traversing the open archive.
+     */
+    private void closeArchive() {
+        open.release();
+        open = null;
+    }
+
+    /**
+     * State shared between a spliterator and its splits.
+     */
+    private static final class Context {
+
+        /**
+         * Every archive to traverse.
+         */
+        private final File[] archives;
+
+        /**
+         * Prefix sums of the .raf sizes, used for size estimates.
+         */
+        private final long[] rafBytes;
+
+        /**
+         * Permits for the archives held at once.
+         */
+        private final Semaphore permits;
+
+        /**
+         * The archives currently held.
+         */
+        private final Set<OpenArchive> held = ConcurrentHashMap.newKeySet();
+
+        private Context(File[] archives, int maxOpenArchives) {
+            if (maxOpenArchives < 1)
+                throw new IllegalArgumentException("At least one archive must be allowed open.");
+            this.archives = archives;
+            this.rafBytes = new long[archives.length + 1];
+            for (int i = 0; i < archives.length; i++)
+                rafBytes[i + 1] = rafBytes[i] + archives[i].length();
+            this.permits = new Semaphore(maxOpenArchives);
+        }
+
+        /**
+         * Wait for a permit, letting a fork-join pool compensate for the blocked worker.
+         */
+        private void acquire() {
+            if (permits.tryAcquire())
+                return;
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean acquired;
+
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        if (!acquired) {
+                            permits.acquire();
+                            acquired = true;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return acquired || (acquired = permits.tryAcquire());
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to open an archive.", e);
+            }
+        }
+
+        /**
+         * Release every archive still held.
+         */
+        private void close() {
+            for (OpenArchive archive : held)
+                archive.forceRelease();
+        }
+
+    }
+
+    /**
+     * An archive held open by one or more spliterators.
+     */
+    private static final class OpenArchive {
+
+        /**
+         * The shared context.
+         */
+        private final Context context;
+
+        /**
+         * The decoded archive.
+         */
+        private final ArchiveFile archive;
+
+        /**
+         * The number of spliterators traversing this archive.
+         */
+        private int references = 1;
+
+        private OpenArchive(Context context, ArchiveFile archive) {
+            this.context = context;
+            this.archive = archive;
+            context.held.add(this);
+        }
+
+        private synchronized void share() {
+            references++;
+        }
+
+        private synchronized void release() {
+            if (references > 0 && --references == 0 && context.held.remove(this))
+                context.permits.release();
+        }
+
+        private synchronized void forceRelease() {
+            references = 0;
+            if (context.held.remove(this))
+                context.permits.release();
+        }
+
+    }
+
+}
@@ -1,8 +1,9 @@
 package gg.raf.suite.fs.container;
 
 import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
 import gg.raf.suite.fs.archive.ReleaseManifest;
-import gg.raf.suite.fs.file.RiotPath;
+import gg.raf.suite.fs.file.PathTable;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -31,15 +32,16 @@ public class PathContainer extends Container<SortedMap<String,ReleaseManifest>>
             for (File file : directory.listFiles()) {
                 for (final File subFile : file.listFiles()) {
                     if (subFile.getName().endsWith(".raf")) {
-                        ArchiveFile archiveFile = new ArchiveFile(subFile);
-                        archiveFile.initiate();
-                        for(RiotPath path : archiveFile.getPathEntries()) {
-                            if(!container.containsKey(path.getPath())) {
-                                container.put(path.getPath(), archiveFile.getManifest());
+                        ArchiveFile archiveFile = ArchiveRegistry.getRegistry().get(subFile);
+                        PathTable pathTable = archiveFile.getPathTable();
+                        for(int pathIndex = 0; pathIndex < pathTable.size(); pathIndex++) {
+                            String path = pathTable.getPath(pathIndex);
+                            if(!container.containsKey(path)) {
+                                container.put(path, archiveFile.getManifest());
                             } else {
-                                ReleaseManifest manifest = container.get(path.getPath());
-                                if(archiveFile.getManifest().getReleaseNumber().compareTo(manifest.getReleaseNumber()) > 0)
-                                    container.put(path.getPath(), archiveFile.getManifest());
+                                ReleaseManifest manifest = container.get(path);
+                                if(ReleaseManifest.compareReleaseNumbers(archiveFile.getManifest().getReleaseNumber(), manifest.getReleaseNumber()) > 0)
+                                    container.put(path, archiveFile.getManifest());
                             }
                         }
                     }
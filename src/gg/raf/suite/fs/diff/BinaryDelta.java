@@ -0,0 +1,210 @@
+package gg.raf.suite.fs.diff;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes a target byte array as a delta against a source byte array,
+ *  and rebuilds the target from the source and the delta.
+ *
+ * The source is indexed by the rolling hash of every block at a block
+ *  boundary. The target is scanned one byte at a time with the same
+ *  rolling hash; a block whose bytes match is extended forwards and back
+ *  and becomes a copy, and the bytes between copies become inserts.
+ *
+ * Format, every number a little endian base 128 varint:
+ *  sourceLength, targetLength, then operations until the target is whole:
+ *  (length << 1 | 1) sourceOffset for a copy, (length << 1) byte[length] for an insert.
+ */
+public final class BinaryDelta {
+
+    /**
+     * The length of the blocks matched.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * The multiplier of the rolling hash.
+     */
+    private static final int PRIME = 0x01000193;
+
+    /**
+     * PRIME to the power of BLOCK_SIZE - 1, to take the leaving byte out of the rolling hash.
+     */
+    private static final int LEAVING;
+
+    static {
+        int power = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++)
+            power *= PRIME;
+        LEAVING = power;
+    }
+
+    private BinaryDelta() { }
+
+    /**
+     * Encode a target against a source.
+     * @param source
+     * @param target
+     * @return The delta.
+     */
+    public static byte[] encode(byte[] source, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeVarint(out, source.length);
+        writeVarint(out, target.length);
+        if (Arrays.equals(source, target)) {
+            if (target.length > 0) {
+                writeVarint(out, ((long) target.length << 1) | 1);
+                writeVarint(out, 0);
+            }
+            return out.toByteArray();
+        }
+        if (source.length < BLOCK_SIZE || target.length < BLOCK_SIZE) {
+            writeInsert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+        /**
+         * Index the source blocks by hash; the table holds block starts, -1 for none.
+         */
+        int blocks = source.length / BLOCK_SIZE;
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(blocks * 2 - 1, 1));
+        int[] table = new int[1 << bits];
+        Arrays.fill(table, -1);
+        int shift = 32 - bits;
+        for (int block = blocks - 1; block >= 0; block--)
+            table[(hash(source, block * BLOCK_SIZE) * 0x9E3779B1) >>> shift] = block * BLOCK_SIZE;
+
+        int literalStart = 0;
+        int position = 0;
+        int hash = hash(target, 0);
+        int last = target.length - BLOCK_SIZE;
+        while (position <= last) {
+            int candidate = table[(hash * 0x9E3779B1) >>> shift];
+            if (candidate >= 0 && equals(source, candidate, target, position, BLOCK_SIZE)) {
+                /**
+                 * Extend the match forwards, then backwards into the pending insert.
+                 */
+                int sourceEnd = candidate + BLOCK_SIZE, targetEnd = position + BLOCK_SIZE;
+                while (sourceEnd < source.length && targetEnd < target.length && source[sourceEnd] == target[targetEnd]) {
+                    sourceEnd++;
+                    targetEnd++;
+                }
+                int sourceStart = candidate, targetStart = position;
+                while (sourceStart > 0 && targetStart > literalStart && source[sourceStart - 1] == target[targetStart - 1]) {
+                    sourceStart--;
+                    targetStart--;
+                }
+                writeInsert(out, target, literalStart, targetStart - literalStart);
+                writeVarint(out, ((long) (targetEnd - targetStart) << 1) | 1);
+                writeVarint(out, sourceStart);
+                literalStart = position = targetEnd;
+                if (position <= last)
+                    hash = hash(target, position);
+                continue;
+            }
+            if (position < last)
+                hash = (hash - target[position] * LEAVING) * PRIME + target[position + BLOCK_SIZE];
+            position++;
+        }
+        writeInsert(out, target, literalStart, target.length - literalStart);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild a target from its source and delta.
+     * @param source
+     * @param delta
+     * @return The target.
+     * @throws IllegalArgumentException If the delta is corrupt or was made against another source.
+     */
+    public static byte[] apply(byte[] source, byte[] delta) {
+        return apply(source, delta, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Rebuild a target of a known maximum length from its source and delta.
+     * @param source
+     * @param delta
+     * @param maxLength The length the target may not exceed.
+     * @return The target.
+     * @throws IllegalArgumentException If the delta is corrupt, was made against another
+     *  source, or describes a target longer than the maximum.
+     */
+    public static byte[] apply(byte[] source, byte[] delta, long maxLength) {
+        int[] position = { 0 };
+        long sourceLength = readVarint(delta, position);
+        long targetLength = readVarint(delta, position);
+        if (sourceLength != source.length)
+            throw new IllegalArgumentException("Delta made against a source of " + sourceLength + " bytes, not " + source.length + ".");
+        if (targetLength < 0 || targetLength > Math.min(maxLength, Integer.MAX_VALUE))
+            throw new IllegalArgumentException("Corrupt delta.");
+        byte[] target = new byte[(int) targetLength];
+        int written = 0;
+        while (written < target.length) {
+            long operation = readVarint(delta, position);
+            long length = operation >>> 1;
+            if (length > target.length - written)
+                throw new IllegalArgumentException("Corrupt delta.");
+            if ((operation & 1) != 0) {
+                long offset = readVarint(delta, position);
+                if (offset + length > source.length)
+                    throw new IllegalArgumentException("Corrupt delta.");
+                System.arraycopy(source, (int) offset, target, written, (int) length);
+            } else {
+                if (length > delta.length - position[0])
+                    throw new IllegalArgumentException("Corrupt delta.");
+                System.arraycopy(delta, position[0], target, written, (int) length);
+                position[0] += (int) length;
+            }
+            written += (int) length;
+        }
+        return target;
+    }
+
+    /**
+     * The rolling hash of the block at an offset.
+     */
+    private static int hash(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            hash = hash * PRIME + data[offset + i];
+        return hash;
+    }
+
+    private static boolean equals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int offset, int length) {
+        if (length == 0)
+            return;
+        writeVarint(out, (long) length << 1);
+        out.write(data, offset, length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= data.length)
+                throw new IllegalArgumentException("Corrupt delta.");
+            int b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Corrupt delta.");
+    }
+
+}
@@ -0,0 +1,372 @@
+package gg.raf.suite.fs.diff;
+
+import gg.raf.suite.fs.archive.ArchiveChannelPool;
+import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
+import gg.raf.suite.fs.blob.ContentFingerprint;
+import gg.raf.suite.fs.container.ArchiveSpliterator;
+import gg.raf.suite.fs.file.PathTable;
+import gg.raf.suite.fs.file.RiotFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The paths added, removed and changed between two releases, found from
+ *  the archive indexes alone.
+ *
+ * The entries of each release are packed into a long per entry, the path
+ *  hash in the high word and the entry number in the low word, and sorted;
+ *  one merge pass over both arrays then pairs up the entries of every
+ *  path, comparing the path bytes only among entries of equal hash.
+ *  Paired entries of different compressed size have changed. Entries of
+ *  equal size are fingerprinted from their stored bytes, read in data
+ *  file order; nothing is inflated.
+ */
+public final class ReleaseDiff {
+
+    /**
+     * The size of the reads made to fingerprint entries.
+     */
+    private static final int WINDOW_SIZE = 1024 * 1024;
+
+    /**
+     * The paths only in the newer release, sorted.
+     */
+    private final List<String> added;
+
+    /**
+     * The paths only in the older release, sorted.
+     */
+    private final List<String> removed;
+
+    /**
+     * The paths in both releases whose data differs, sorted.
+     */
+    private final List<String> changed;
+
+    /**
+     * The number of paths in both releases whose data is identical.
+     */
+    private final int unchangedCount;
+
+    /**
+     * The number of entry pairs that had to be fingerprinted.
+     */
+    private final int fingerprintCount;
+
+    private ReleaseDiff(List<String> added, List<String> removed, List<String> changed, int unchangedCount, int fingerprintCount) {
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+        this.unchangedCount = unchangedCount;
+        this.fingerprintCount = fingerprintCount;
+    }
+
+    /**
+     * Compare two releases of a cache directory.
+     * @param rootPath      The cache directory containing release directories.
+     * @param fromRelease   The release number of the older release.
+     * @param toRelease     The release number of the newer release.
+     * @return
+     * @throws IOException
+     */
+    public static ReleaseDiff compare(String rootPath, String fromRelease, String toRelease) throws IOException {
+        return compare(listRelease(rootPath, fromRelease), listRelease(rootPath, toRelease));
+    }
+
+    /**
+     * List the archives of a release.
+     * @param rootPath  The cache directory containing release directories.
+     * @param release   The release number.
+     * @return The archives, ordered by name.
+     * @throws IOException
+     */
+    public static List<ArchiveFile> listRelease(String rootPath, String release) throws IOException {
+        List<ArchiveFile> archives = new ArrayList<>();
+        for (File file : ArchiveSpliterator.listArchives(new File(rootPath))) {
+            if (file.getAbsoluteFile().getParentFile().getName().equals(release))
+                archives.add(ArchiveRegistry.getRegistry().get(file));
+        }
+        return archives;
+    }
+
+    /**
+     * Compare the archives of two releases. A path held by several
+     *  archives of a release is taken from the last of them.
+     * @param from  The archives of the older release.
+     * @param to    The archives of the newer release.
+     * @return
+     * @throws IOException
+     */
+    public static ReleaseDiff compare(List<ArchiveFile> from, List<ArchiveFile> to) throws IOException {
+        Entries older = new Entries(from);
+        Entries newer = new Entries(to);
+        List<String> added = new ArrayList<>(), removed = new ArrayList<>(), changed = new ArrayList<>();
+        /**
+         * The entry pairs of equal size, fingerprinted once the merge is done.
+         */
+        int[] pairs = new int[256];
+        int pairCount = 0;
+        int unchanged = 0;
+        int i = 0, j = 0;
+        while (i < older.count || j < newer.count) {
+            int olderHash = i < older.count ? older.hashes[i] : 0;
+            int newerHash = j < newer.count ? newer.hashes[j] : 0;
+            if (j == newer.count || (i < older.count && olderHash < newerHash)) {
+                for (; i < older.count && older.hashes[i] == olderHash; i++) {
+                    if (older.last[i])
+                        removed.add(older.getPath(i));
+                }
+                continue;
+            }
+            if (i == older.count || newerHash < olderHash) {
+                for (; j < newer.count && newer.hashes[j] == newerHash; j++) {
+                    if (newer.last[j])
+                        added.add(newer.getPath(j));
+                }
+                continue;
+            }
+            /**
+             * Both releases hold paths of this hash; pair them by path.
+             */
+            int olderEnd = i, newerEnd = j;
+            while (olderEnd < older.count && older.hashes[olderEnd] == olderHash)
+                olderEnd++;
+            while (newerEnd < newer.count && newer.hashes[newerEnd] == newerHash)
+                newerEnd++;
+            for (int n = j; n < newerEnd; n++) {
+                if (!newer.last[n])
+                    continue;
+                int match = -1;
+                for (int o = i; o < olderEnd && match < 0; o++) {
+                    if (older.last[o] && older.samePath(o, newer, n))
+                        match = o;
+                }
+                if (match < 0)
+                    added.add(newer.getPath(n));
+                else if (older.sizes[match] != newer.sizes[n])
+                    changed.add(newer.getPath(n));
+                else {
+                    if (pairCount == pairs.length)
+                        pairs = Arrays.copyOf(pairs, pairCount * 2);
+                    pairs[pairCount++] = match;
+                    pairs[pairCount++] = n;
+                }
+            }
+            for (int o = i; o < olderEnd; o++) {
+                if (!older.last[o])
+                    continue;
+                boolean kept = false;
+                for (int n = j; n < newerEnd && !kept; n++)
+                    kept = newer.last[n] && older.samePath(o, newer, n);
+                if (!kept)
+                    removed.add(older.getPath(o));
+            }
+            i = olderEnd;
+            j = newerEnd;
+        }
+        int pairTotal = pairCount / 2;
+        ContentFingerprint[] olderPrints = older.fingerprint(pairs, pairCount, 0);
+        ContentFingerprint[] newerPrints = newer.fingerprint(pairs, pairCount, 1);
+        for (int p = 0; p < pairTotal; p++) {
+            if (olderPrints[p].equals(newerPrints[p]))
+                unchanged++;
+            else
+                changed.add(newer.getPath(pairs[p * 2 + 1]));
+        }
+        Collections.sort(added);
+        Collections.sort(removed);
+        Collections.sort(changed);
+        return new ReleaseDiff(added, removed, changed, unchanged, pairTotal);
+    }
+
+    /**
+     * Retrieve the paths only in the newer release, sorted.
+     * @return
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * Retrieve the paths only in the older release, sorted.
+     * @return
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Retrieve the paths in both releases whose data differs, sorted.
+     * @return
+     */
+    public List<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Retrieve the number of paths in both releases whose data is identical.
+     * @return
+     */
+    public int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * Retrieve the number of entry pairs of equal size that were fingerprinted.
+     * @return
+     */
+    public int getFingerprintCount() {
+        return fingerprintCount;
+    }
+
+    /**
+     * The entries of the archives of a release, sorted by path hash, as
+     *  one primitive column per field.
+     */
+    private static final class Entries {
+
+        private final List<ArchiveFile> archives;
+
+        /**
+         * The number of entries.
+         */
+        private final int count;
+
+        /**
+         * The path hash of each entry, ascending.
+         */
+        private final int[] hashes;
+
+        /**
+         * The archive, path list index, data offset and stored size of each entry.
+         */
+        private final int[] archiveIndexes, pathIndexes, offsets, sizes;
+
+        /**
+         * Is each entry the last of its path among the archives?
+         */
+        private final boolean[] last;
+
+        private Entries(List<ArchiveFile> archives) {
+            this.archives = archives;
+            int total = 0;
+            for (ArchiveFile archive : archives)
+                total += archive.getArchiveDataFile().getFileEntries().size();
+            /**
+             * Sort the path hash of each entry in the high word with its entry number in the low word.
+             */
+            long[] keys = new long[total];
+            int[] entryArchives = new int[total];
+            RiotFile[] entries = new RiotFile[total];
+            int number = 0;
+            for (int a = 0; a < archives.size(); a++) {
+                for (RiotFile entry : archives.get(a).getArchiveDataFile().getFileEntries()) {
+                    keys[number] = ((long) entry.getHash() << 32) | number;
+                    entryArchives[number] = a;
+                    entries[number++] = entry;
+                }
+            }
+            Arrays.sort(keys);
+            count = total;
+            hashes = new int[total];
+            archiveIndexes = new int[total];
+            pathIndexes = new int[total];
+            offsets = new int[total];
+            sizes = new int[total];
+            for (int k = 0; k < total; k++) {
+                RiotFile entry = entries[(int) keys[k]];
+                hashes[k] = (int) (keys[k] >> 32);
+                archiveIndexes[k] = entryArchives[(int) keys[k]];
+                pathIndexes[k] = entry.getPathListIndex();
+                offsets[k] = entry.getDataOffset();
+                sizes[k] = entry.getDataSize();
+            }
+            /**
+             * Entry numbers grow with the archive, so the last entry of a
+             *  path is the last of its equal hash run that has that path.
+             */
+            last = new boolean[total];
+            for (int k = 0; k < total; k++) {
+                boolean shadowed = false;
+                for (int n = k + 1; n < total && hashes[n] == hashes[k] && !shadowed; n++)
+                    shadowed = samePath(k, this, n);
+                last[k] = !shadowed;
+            }
+        }
+
+        private String getPath(int k) {
+            return archives.get(archiveIndexes[k]).getPathTable().getPath(pathIndexes[k]);
+        }
+
+        private boolean samePath(int k, Entries other, int otherK) {
+            return archives.get(archiveIndexes[k]).getPathTable().matches(pathIndexes[k],
+                    other.archives.get(other.archiveIndexes[otherK]).getPathTable(), other.pathIndexes[otherK]);
+        }
+
+        /**
+         * Fingerprint the stored bytes of one side of the entry pairs,
+         *  reading each archive once in data file order.
+         * @param pairs     The entries of the older and newer release, interleaved.
+         * @param length    The number of ints of the pairs.
+         * @param side      0 for the older entries, 1 for the newer.
+         * @return The fingerprint of each pair.
+         */
+        private ContentFingerprint[] fingerprint(int[] pairs, int length, int side) throws IOException {
+            int pairCount = length / 2;
+            ContentFingerprint[] prints = new ContentFingerprint[pairCount];
+            /**
+             * Bucket the pairs by archive, then order each bucket by data
+             *  offset in the high word, with the pair number in the low word.
+             */
+            int[] starts = new int[archives.size() + 1];
+            for (int p = 0; p < pairCount; p++)
+                starts[archiveIndexes[pairs[p * 2 + side]] + 1]++;
+            for (int a = 0; a < archives.size(); a++)
+                starts[a + 1] += starts[a];
+            long[] order = new long[pairCount];
+            int[] next = Arrays.copyOf(starts, archives.size());
+            for (int p = 0; p < pairCount; p++) {
+                int k = pairs[p * 2 + side];
+                order[next[archiveIndexes[k]]++] = ((long) offsets[k] << 32) | p;
+            }
+            /**
+             * Entries are read through a window, so runs of nearby entries cost one read.
+             */
+            byte[] window = new byte[WINDOW_SIZE];
+            for (int a = 0; a < archives.size(); a++) {
+                if (starts[a] == starts[a + 1])
+                    continue;
+                Arrays.sort(order, starts[a], starts[a + 1]);
+                try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(archives.get(a).getArchiveDataFile().getDataFile())) {
+                    long fileSize = lease.size();
+                    long windowStart = 0;
+                    int windowLength = 0;
+                    for (int o = starts[a]; o < starts[a + 1]; o++) {
+                        int pair = (int) order[o];
+                        int k = pairs[pair * 2 + side];
+                        long offset = offsets[k] & 0xFFFFFFFFL;
+                        int size = sizes[k];
+                        if (offset < windowStart || offset + size > windowStart + windowLength) {
+                            if (window.length < size)
+                                window = new byte[size];
+                            windowStart = offset;
+                            windowLength = (int) Math.min(window.length, Math.max(size, fileSize - offset));
+                            lease.read(windowStart, ByteBuffer.wrap(window, 0, windowLength));
+                        }
+                        prints[pair] = ContentFingerprint.of(window, (int) (offset - windowStart), size);
+                    }
+                }
+            }
+            return prints;
+        }
+
+    }
+
+}
@@ -0,0 +1,303 @@
+package gg.raf.suite.fs.diff;
+
+import gg.raf.suite.fs.archive.ArchiveChannelPool;
+import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
+import gg.raf.suite.fs.archive.ReleaseManifest;
+import gg.raf.suite.fs.file.RiotFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A patch rebuilding an archive of a release from the archives of an
+ *  older release.
+ *
+ * The archive index is stored as a {@link BinaryDelta} against the index
+ *  of the first older archive. The data file is stored in file order as
+ *  a run of regions: every entry whose path is in the older release is a
+ *  delta against the stored bytes of that older entry - a single copy
+ *  when it is unchanged - and every other byte is stored as is. Entries
+ *  are patched one at a time, so no data file is ever held whole.
+ *
+ * Layout, big endian:
+ *  int magic, int version, UTF releaseNumber, UTF releaseName,
+ *  int sourceCount, (UTF releaseNumber, UTF releaseName)[sourceCount],
+ *  int indexDeltaLength, byte[indexDeltaLength] indexDelta, long dataLength,
+ *  regions: (byte LITERAL, int length, byte[length]) or
+ *  (byte DELTA, int source, int slot, int deltaLength, byte[deltaLength]),
+ *  byte END, long indexCrc, long dataCrc
+ */
+public final class ReleasePatch {
+
+    /**
+     * The magic number of a patch file - "RAFP".
+     */
+    private static final int MAGIC = 0x52414650;
+
+    /**
+     * The version of the patch file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The region kinds.
+     */
+    private static final byte END = 0, LITERAL = 1, DELTA = 2;
+
+    private ReleasePatch() { }
+
+    /**
+     * Write a patch rebuilding an archive from the archives of an older release.
+     * @param sources   The archives of the older release; a path held by several is taken from the last.
+     * @param target    The archive to rebuild.
+     * @param patchFile The file to write the patch to.
+     * @throws IOException
+     */
+    public static void write(List<ArchiveFile> sources, ArchiveFile target, File patchFile) throws IOException {
+        /**
+         * The source and slot of the older entry of every path, packed as source << 32 | slot.
+         */
+        HashMap<String, Long> older = new HashMap<>();
+        for (int source = 0; source < sources.size(); source++) {
+            ArchiveFile archive = sources.get(source);
+            List<RiotFile> entries = archive.getArchiveDataFile().getFileEntries();
+            for (int slot = 0; slot < entries.size(); slot++)
+                older.put(archive.getPathTable().getPath(entries.get(slot).getPathListIndex()), ((long) source << 32) | slot);
+        }
+        CRC32 indexCrc = new CRC32(), dataCrc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(patchFile)));
+             ArchiveChannelPool.Lease targetLease = ArchiveChannelPool.getPool().acquire(target.getArchiveDataFile().getDataFile())) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(target.getManifest().getReleaseNumber());
+            out.writeUTF(target.getManifest().getReleaseName());
+            out.writeInt(sources.size());
+            for (ArchiveFile source : sources) {
+                out.writeUTF(source.getManifest().getReleaseNumber());
+                out.writeUTF(source.getManifest().getReleaseName());
+            }
+            byte[] index = Files.readAllBytes(target.getFile().toPath());
+            byte[] sourceIndex = sources.isEmpty() ? new byte[0] : Files.readAllBytes(sources.get(0).getFile().toPath());
+            byte[] indexDelta = BinaryDelta.encode(sourceIndex, index);
+            indexCrc.update(index);
+            out.writeInt(indexDelta.length);
+            out.write(indexDelta);
+
+            long dataLength = targetLease.size();
+            out.writeLong(dataLength);
+            List<RiotFile> entries = new ArrayList<>(target.getArchiveDataFile().getFileEntries());
+            entries.sort((a, b) -> Long.compare(a.getDataOffset() & 0xFFFFFFFFL, b.getDataOffset() & 0xFFFFFFFFL));
+            long position = 0;
+            for (RiotFile entry : entries) {
+                long offset = entry.getDataOffset() & 0xFFFFFFFFL;
+                long end = offset + entry.getDataSize();
+                if (offset < position) {
+                    /**
+                     * Overlaps data already written.
+                     */
+                    if (end > position)
+                        position = writeLiteral(out, targetLease, position, end, dataCrc);
+                    continue;
+                }
+                position = writeLiteral(out, targetLease, position, offset, dataCrc);
+                byte[] data = targetLease.read(offset, entry.getDataSize());
+                dataCrc.update(data);
+                Long location = older.get(target.getPathTable().getPath(entry.getPathListIndex()));
+                if (location == null) {
+                    out.writeByte(LITERAL);
+                    out.writeInt(data.length);
+                    out.write(data);
+                } else {
+                    int source = (int) (location >>> 32), slot = (int) (long) location;
+                    ArchiveFile archive = sources.get(source);
+                    RiotFile sourceEntry = archive.getArchiveDataFile().getFileEntries().get(slot);
+                    byte[] sourceData;
+                    try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(archive.getArchiveDataFile().getDataFile())) {
+                        sourceData = lease.read(sourceEntry.getDataOffset() & 0xFFFFFFFFL, sourceEntry.getDataSize());
+                    }
+                    byte[] delta = BinaryDelta.encode(sourceData, data);
+                    out.writeByte(DELTA);
+                    out.writeInt(source);
+                    out.writeInt(slot);
+                    out.writeInt(delta.length);
+                    out.write(delta);
+                }
+                position = end;
+            }
+            writeLiteral(out, targetLease, position, dataLength, dataCrc);
+            out.writeByte(END);
+            out.writeLong(indexCrc.getValue());
+            out.writeLong(dataCrc.getValue());
+        }
+    }
+
+    /**
+     * Write a range of the target data file as literal regions.
+     * @return The end of the range.
+     */
+    private static long writeLiteral(DataOutputStream out, ArchiveChannelPool.Lease lease, long from, long to, CRC32 crc) throws IOException {
+        while (from < to) {
+            int length = (int) Math.min(to - from, 1 << 20);
+            byte[] data = lease.read(from, length);
+            crc.update(data);
+            out.writeByte(LITERAL);
+            out.writeInt(length);
+            out.write(data);
+            from += length;
+        }
+        return to;
+    }
+
+    /**
+     * Apply a patch, rebuilding its archive in a cache directory that
+     *  holds the older release it was made from.
+     * @param patchFile The patch.
+     * @param rootPath  The cache directory containing release directories.
+     * @return The rebuilt archive file.
+     * @throws IOException If the patch is corrupt, or the older archives differ from those it was made from.
+     */
+    public static File apply(File patchFile, String rootPath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(patchFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a release patch: " + patchFile);
+            ReleaseManifest manifest = new ReleaseManifest(readReleaseNumber(in, patchFile), readReleaseName(in, patchFile));
+            List<ArchiveFile> sources = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                String releaseNumber = readReleaseNumber(in, patchFile);
+                String releaseName = readReleaseName(in, patchFile);
+                sources.add(ArchiveRegistry.getRegistry().get(new File(rootPath, releaseNumber + "/" + releaseName)));
+            }
+            File directory = new File(rootPath, manifest.getReleaseNumber());
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Could not create " + directory);
+            File archiveFile = new File(directory, manifest.getReleaseName());
+            File dataFile = new File(directory, manifest.getReleaseName() + ".dat");
+            File indexTemporary = new File(directory, manifest.getReleaseName() + ".patch");
+            File dataTemporary = new File(directory, manifest.getReleaseName() + ".dat.patch");
+
+            CRC32 indexCrc = new CRC32(), dataCrc = new CRC32();
+            boolean complete = false;
+            /**
+             * No region of the patch is longer than the patch itself, so
+             *  a corrupt length is rejected before it is allocated.
+             */
+            long patchLength = patchFile.length();
+            try {
+                byte[] indexDelta = new byte[readLength(in, patchLength, patchFile)];
+                in.readFully(indexDelta);
+                byte[] sourceIndex = sources.isEmpty() ? new byte[0] : Files.readAllBytes(sources.get(0).getFile().toPath());
+                byte[] index = BinaryDelta.apply(sourceIndex, indexDelta);
+                indexCrc.update(index);
+                Files.write(indexTemporary.toPath(), index);
+
+                long dataLength = in.readLong();
+                if (dataLength < 0)
+                    throw new IOException("Corrupt release patch, bad data length " + dataLength + ": " + patchFile);
+                long written = 0;
+                try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dataTemporary), 1 << 16)) {
+                    for (byte kind = in.readByte(); kind != END; kind = in.readByte()) {
+                        byte[] data;
+                        if (kind == LITERAL) {
+                            data = new byte[readLength(in, Math.min(dataLength - written, patchLength), patchFile)];
+                            in.readFully(data);
+                        } else if (kind == DELTA) {
+                            int source = in.readInt();
+                            if (source < 0 || source >= sources.size())
+                                throw new IOException("Corrupt release patch, bad source " + source + ": " + patchFile);
+                            ArchiveFile archive = sources.get(source);
+                            List<RiotFile> sourceEntries = archive.getArchiveDataFile().getFileEntries();
+                            int slot = in.readInt();
+                            if (slot < 0 || slot >= sourceEntries.size())
+                                throw new IOException("Corrupt release patch, bad slot " + slot + ": " + patchFile);
+                            RiotFile sourceEntry = sourceEntries.get(slot);
+                            byte[] delta = new byte[readLength(in, patchLength, patchFile)];
+                            in.readFully(delta);
+                            byte[] sourceData;
+                            try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(archive.getArchiveDataFile().getDataFile())) {
+                                sourceData = lease.read(sourceEntry.getDataOffset() & 0xFFFFFFFFL, sourceEntry.getDataSize());
+                            }
+                            data = BinaryDelta.apply(sourceData, delta, dataLength - written);
+                        } else
+                            throw new IOException("Corrupt release patch: " + patchFile);
+                        dataCrc.update(data);
+                        out.write(data);
+                        written += data.length;
+                    }
+                }
+                if (written != dataLength || in.readLong() != indexCrc.getValue() || in.readLong() != dataCrc.getValue())
+                    throw new IOException("The patched archive does not match; was the patch made from another release? " + patchFile);
+                complete = true;
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt release patch: " + patchFile, e);
+            } finally {
+                if (!complete) {
+                    indexTemporary.delete();
+                    dataTemporary.delete();
+                }
+            }
+            /**
+             * The files are replaced inside replace transactions, which wait for
+             *  their readers and close the pooled channels to the old files,
+             *  and hold back new readers until the archive is dropped from the
+             *  registry, so nothing reads the old files once they are replaced.
+             */
+            ArchiveChannelPool pool = ArchiveChannelPool.getPool();
+            try (ArchiveChannelPool.WriteTransaction dataWrite = pool.beginReplace(dataFile);
+                 ArchiveChannelPool.WriteTransaction indexWrite = pool.beginReplace(archiveFile)) {
+                dataWrite.replaceWith(dataTemporary);
+                indexWrite.replaceWith(indexTemporary);
+                ArchiveRegistry.getRegistry().invalidate(archiveFile);
+            } finally {
+                indexTemporary.delete();
+                dataTemporary.delete();
+            }
+            return archiveFile;
+        }
+    }
+
+    /**
+     * Read the length of a region of a patch.
+     * @param bound The length the region may not exceed.
+     */
+    private static int readLength(DataInputStream in, long bound, File patchFile) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > bound)
+            throw new IOException("Corrupt release patch, bad length " + length + ": " + patchFile);
+        return length;
+    }
+
+    /**
+     * Read a release number from a patch; digits and dots only.
+     */
+    private static String readReleaseNumber(DataInputStream in, File patchFile) throws IOException {
+        String releaseNumber = in.readUTF();
+        if (!releaseNumber.matches("[0-9]+(\\.[0-9]+)*"))
+            throw new IOException("Corrupt release patch, bad release number \"" + releaseNumber + "\": " + patchFile);
+        return releaseNumber;
+    }
+
+    /**
+     * Read an archive name from a patch; a single path component, so a
+     *  patch from another machine can not write outside the cache.
+     */
+    private static String readReleaseName(DataInputStream in, File patchFile) throws IOException {
+        String releaseName = in.readUTF();
+        if (releaseName.isEmpty() || releaseName.equals(".") || releaseName.equals("..") || releaseName.indexOf('/') >= 0
+                || releaseName.indexOf('\\') >= 0 || releaseName.indexOf(':') >= 0 || releaseName.indexOf('\0') >= 0)
+            throw new IOException("Corrupt release patch, bad archive name \"" + releaseName + "\": " + patchFile);
+        return releaseName;
+    }
+
+}
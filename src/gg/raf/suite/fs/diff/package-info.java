@@ -0,0 +1,6 @@
+/**
+ * Comparisons between releases of the cache, made from the archive
+ *  indexes without inflating unchanged data, and binary patches
+ *  rebuilding the archives of a release from an older one.
+ */
+package gg.raf.suite.fs.diff;
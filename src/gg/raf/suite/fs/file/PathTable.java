@@ -0,0 +1,229 @@
+package gg.raf.suite.fs.file;
+
+import gg.raf.suite.utilities.StringUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The path list of an archive file, kept as the raw ASCII string region
+ *  of the archive plus the offset and length of every path within it.
+ *
+ * No String is held per path; {@link #getPath(int)} creates one on demand
+ *  and {@link #indexOf(CharSequence)} compares paths against the bytes
+ *  directly.
+ */
+public final class PathTable {
+
+    /**
+     * The string region of the path list; paths are NUL terminated ASCII.
+     */
+    private final byte[] data;
+
+    /**
+     * The offset of the string region relative to the start of the path list.
+     */
+    private final int base;
+
+    /**
+     * The offset of each path relative to the start of the path list, as stored in the archive.
+     */
+    private final int[] pathOffsets;
+
+    /**
+     * The length of each path including its terminator, as stored in the archive.
+     */
+    private final int[] pathLengths;
+
+    /**
+     * The index of the terminator of each path in the string region.
+     */
+    private final int[] ends;
+
+    private PathTable(byte[] data, int base, int[] pathOffsets, int[] pathLengths, int[] ends) {
+        this.data = data;
+        this.base = base;
+        this.pathOffsets = pathOffsets;
+        this.pathLengths = pathLengths;
+        this.ends = ends;
+    }
+
+    /**
+     * Decode a path list.
+     * @param buffer            The archive buffer, in little endian order.
+     * @param pathListOffset    The offset of the path list in the buffer.
+     * @return
+     */
+    public static PathTable decode(ByteBuffer buffer, int pathListOffset) {
+        int pathListSize = buffer.getInt(pathListOffset);
+        int count = buffer.getInt(pathListOffset + 4);
+        int[] pathOffsets = new int[count];
+        int[] pathLengths = new int[count];
+        int base = 8 + count * 8, limit = base;
+        for (int i = 0, position = pathListOffset + 8; i < count; i++, position += 8) {
+            pathOffsets[i] = buffer.getInt(position);
+            pathLengths[i] = buffer.getInt(position + 4);
+            base = Math.min(base, pathOffsets[i]);
+            limit = Math.max(limit, pathOffsets[i] + pathLengths[i]);
+        }
+        limit = Math.min(Math.max(limit, pathListSize), buffer.limit() - pathListOffset);
+        /**
+         * Find every terminator in the archive buffer, then copy the whole region at once.
+         */
+        int[] ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            int end = StringUtil.indexOfNul(buffer, pathListOffset + pathOffsets[i], pathListOffset + limit);
+            ends[i] = (end < 0 ? pathListOffset + limit : end) - pathListOffset - base;
+        }
+        byte[] data = new byte[Math.max(0, limit - base)];
+        ByteBuffer region = buffer.duplicate();
+        region.position(pathListOffset + base);
+        region.get(data);
+        return new PathTable(data, base, pathOffsets, pathLengths, ends);
+    }
+
+    /**
+     * Retrieve the number of paths.
+     * @return
+     */
+    public int size() {
+        return ends.length;
+    }
+
+    /**
+     * Retrieve a path.
+     * @param index The path list index.
+     * @return A new string holding the path.
+     */
+    public String getPath(int index) {
+        int start = pathOffsets[index] - base;
+        return new String(data, start, ends[index] - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Retrieve a view of a path entry.
+     * @param index The path list index.
+     * @return
+     */
+    public RiotPath get(int index) {
+        return new RiotPath(this, index);
+    }
+
+    /**
+     * Retrieve the offset of a path relative to the start of the path list.
+     * @param index
+     * @return
+     */
+    public int getPathOffset(int index) {
+        return pathOffsets[index];
+    }
+
+    /**
+     * Retrieve the length of a path as stored in the archive, including its terminator.
+     * @param index
+     * @return
+     */
+    public int getPathLength(int index) {
+        return pathLengths[index];
+    }
+
+    /**
+     * Retrieve the number of bytes of a path, excluding its terminator.
+     * @param index
+     * @return
+     */
+    public int getByteLength(int index) {
+        return ends[index] - (pathOffsets[index] - base);
+    }
+
+    /**
+     * Does a path equal the given characters?
+     * @param index The path list index.
+     * @param path  The characters to compare with.
+     * @return
+     */
+    public boolean matches(int index, CharSequence path) {
+        int start = pathOffsets[index] - base;
+        int length = ends[index] - start;
+        if (length != path.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if ((data[start + i] & 0xFF) != path.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Does a path equal a path of another table?
+     * @param index         The path list index.
+     * @param other         The other table.
+     * @param otherIndex    The path list index in the other table.
+     * @return
+     */
+    public boolean matches(int index, PathTable other, int otherIndex) {
+        int start = pathOffsets[index] - base;
+        int length = ends[index] - start;
+        int otherStart = other.pathOffsets[otherIndex] - other.base;
+        if (length != other.ends[otherIndex] - otherStart)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (data[start + i] != other.data[otherStart + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Does a path end with the given characters, ignoring the case of ASCII letters?
+     * @param index     The path list index.
+     * @param suffix    The characters to compare with.
+     * @return
+     */
+    public boolean endsWithIgnoreCase(int index, CharSequence suffix) {
+        int end = ends[index];
+        int start = end - suffix.length();
+        if (start < pathOffsets[index] - base)
+            return false;
+        for (int i = 0; i < suffix.length(); i++) {
+            int c = data[start + i] & 0xFF, s = suffix.charAt(i);
+            if (c != s && Character.toLowerCase(c) != Character.toLowerCase(s))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find the path list index of a path.
+     * @param path
+     * @return The path list index, or -1 if the path is not in the table.
+     */
+    public int indexOf(CharSequence path) {
+        for (int i = 0; i < ends.length; i++) {
+            if (matches(i, path))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Write the paths, each followed by a terminator.
+     * @param buffer
+     */
+    public void writeStrings(ByteBuffer buffer) {
+        for (int i = 0; i < ends.length; i++) {
+            int start = pathOffsets[i] - base;
+            buffer.put(data, start, ends[i] - start);
+            buffer.put((byte) 0);
+        }
+    }
+
+    /**
+     * Retrieve the number of bytes held by this table.
+     * @return
+     */
+    public long getByteSize() {
+        return data.length + ends.length * 12L;
+    }
+
+}
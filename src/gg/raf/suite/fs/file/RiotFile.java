@@ -1,7 +1,8 @@
 package gg.raf.suite.fs.file;
 
+import gg.raf.suite.fs.blob.ContentFingerprint;
+
 import java.io.*;
-import java.util.Arrays;
 
 /**
  * Created by Allen Kinzalow on 9/24/2015.
@@ -33,22 +34,31 @@ public class RiotFile {
      */
     private int pathListIndex;
 
+    /**
+     * An empty data array shared by entries whose data has not been read.
+     */
+    private static final byte[] NO_DATA = new byte[0];
+
     /**
      * The fs data.
      */
-    private byte[] fileData;
+    private byte[] fileData = NO_DATA;
 
     /**
      * Was the file compressed?
      */
     private boolean compressed;
 
+    /**
+     * The fingerprint of the file data, or null if it was not read through the blob store.
+     */
+    private ContentFingerprint contentFingerprint;
+
     public RiotFile(int hash, int dataOffset, int dataSize, int pathListIndex) {
         this.hash = hash;
         this.dataOffset = dataOffset;
         this.dataSize = dataSize;
         this.pathListIndex = pathListIndex;
-        this.fileData = new byte[this.dataSize];
     }
 
     public RiotFile(RiotFile file) {
@@ -56,7 +66,12 @@ public class RiotFile {
         this.dataOffset = file.getDataOffset();
         this.dataSize = file.getDataSize();
         this.pathListIndex = file.getPathListIndex();
-        this.fileData = Arrays.copyOf(file.getFileData(), file.getFileData().length);
+        /**
+         * File data is replaced rather than modified, so it is shared.
+         */
+        this.fileData = file.getFileData();
+        this.compressed = file.isCompressed();
+        this.contentFingerprint = file.getContentFingerprint();
     }
 
     /**
@@ -105,6 +120,7 @@ public class RiotFile {
      */
     public void setFileData(byte[] fileData) {
         this.fileData = fileData;
+        this.contentFingerprint = null;
     }
 
     /**
@@ -139,6 +155,22 @@ public class RiotFile {
         return compressed;
     }
 
+    /**
+     * Retrieve the fingerprint of the file data.
+     * @return The fingerprint, or null if the data was not read through the blob store.
+     */
+    public ContentFingerprint getContentFingerprint() {
+        return contentFingerprint;
+    }
+
+    /**
+     * Set the fingerprint of the file data.
+     * @param contentFingerprint
+     */
+    public void setContentFingerprint(ContentFingerprint contentFingerprint) {
+        this.contentFingerprint = contentFingerprint;
+    }
+
     /**
      * An "abstract" method for subclasses to utilize for
      *  further decoding of the file byte data.
@@ -159,24 +191,39 @@ public class RiotFile {
         }
     }
 
+    /**
+     * Compute the hash of a path as stored in the file list of an archive.
+     * @param path
+     * @return
+     */
     public long hash(String path) {
-        System.out.println("Path: " + path);
-        path = path.trim().toLowerCase();
+        return hashPath(path) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Compute the hash of a path as stored in the file list of an archive.
+     *  Leading and trailing whitespace is ignored and the path is lower cased
+     *  one character at a time, so no garbage is created.
+     * @param path
+     * @return
+     */
+    public static int hashPath(CharSequence path) {
+        int start = 0, end = path.length();
+        while (start < end && path.charAt(start) <= ' ')
+            start++;
+        while (end > start && path.charAt(end - 1) <= ' ')
+            end--;
         long hash = 0;
         long temp;
-        int count = 1;
-        for(char c : path.toCharArray()) {
-            System.out.println("--Step: " + count);
-            hash = (hash << 4) + c;
-            temp = hash & 0xf0000000;
-            System.out.println("---Hash: " + hash + " Temp: " + temp);
-            if(temp != 0) {
+        for (int i = start; i < end; i++) {
+            hash = (hash << 4) + Character.toLowerCase(path.charAt(i));
+            temp = hash & 0xf0000000L;
+            if (temp != 0) {
                 hash = hash ^ (temp >> 24);
                 hash = hash ^ temp;
             }
-            count++;
         }
-        return hash;
+        return (int) hash;
     }
 
 }
@@ -5,6 +5,10 @@ import gg.raf.suite.fs.file.dds.DDSFile;
 import gg.raf.suite.fs.file.skl.SklFile;
 import gg.raf.suite.fs.file.skn.SknFile;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+
 /**
  * Created by Allen Kinzalow on 10/1/2015.
  */
@@ -16,6 +20,44 @@ public enum RiotFileType {
     SKN("skn"),
     DEFAULT("");
 
+    /**
+     * The number of bytes of the start of a file needed to read its magic number.
+     */
+    public static final int MAGIC_LENGTH = 8;
+
+    /**
+     * The magic number of a dds file - "DDS ".
+     */
+    private static final int DDS_MAGIC = 0x20534444;
+
+    /**
+     * The magic number of a skn file.
+     */
+    private static final int SKN_MAGIC = 0x00112233;
+
+    /**
+     * The ids leading skl and anm files.
+     */
+    private static final byte[] SKL_ID = "r3d2sklt".getBytes(StandardCharsets.US_ASCII),
+            ANM_ID = "r3d2anmd".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Every type, by ordinal; values() copies its array on every call.
+     */
+    private static final RiotFileType[] TYPES = values();
+
+    /**
+     * The type of each lower case extension.
+     */
+    private static final HashMap<String, RiotFileType> EXTENSIONS = new HashMap<>();
+
+    static {
+        for (RiotFileType type : TYPES) {
+            if (type != DEFAULT)
+                EXTENSIONS.put(type.getExtension(), type);
+        }
+    }
+
     private String extension;
 
     RiotFileType(String extension) {
@@ -27,14 +69,97 @@ public enum RiotFileType {
     }
 
     public static RiotFileType typeForExtension(String extension) {
-        for(RiotFileType type : RiotFileType.values())
-            if(type.getExtension().equalsIgnoreCase(extension))
-                return type;
+        RiotFileType type = EXTENSIONS.get(extension.toLowerCase(Locale.ROOT));
+        return type == null ? DEFAULT : type;
+    }
+
+    /**
+     * Retrieve the type of a path from its extension.
+     * @param path
+     * @return
+     */
+    public static RiotFileType typeForPath(String path) {
+        return typeForExtension(path.substring(path.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * Retrieve the type of the given ordinal, as stored in the cache index.
+     * @param ordinal
+     * @return
+     */
+    public static RiotFileType typeForOrdinal(int ordinal) {
+        return ordinal >= 0 && ordinal < TYPES.length ? TYPES[ordinal] : DEFAULT;
+    }
+
+    /**
+     * Retrieve the number of types.
+     * @return
+     */
+    public static int count() {
+        return TYPES.length;
+    }
+
+    /**
+     * Identify a file from the magic number at its start.
+     * @param data      The data holding the start of the uncompressed file.
+     * @param offset    The offset of the file in the data.
+     * @param length    The number of bytes of the file in the data.
+     * @return The type, or DEFAULT if the magic number is not known.
+     */
+    public static RiotFileType typeForMagic(byte[] data, int offset, int length) {
+        if (length >= 4) {
+            int magic = (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                    | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+            if (magic == DDS_MAGIC)
+                return DDS;
+            if (magic == SKN_MAGIC)
+                return SKN;
+        }
+        if (startsWith(data, offset, length, SKL_ID))
+            return SKL;
+        if (startsWith(data, offset, length, ANM_ID))
+            return ANM;
+        return DEFAULT;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int length, byte[] id) {
+        if (length < id.length)
+            return false;
+        for (int i = 0; i < id.length; i++) {
+            if (data[offset + i] != id[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Retrieve the type a file was wrapped as.
+     * @param file
+     * @return
+     */
+    public static RiotFileType typeOf(RiotFile file) {
+        if (file instanceof DDSFile)
+            return DDS;
+        if (file instanceof AnmFile)
+            return ANM;
+        if (file instanceof SklFile)
+            return SKL;
+        if (file instanceof SknFile)
+            return SKN;
         return DEFAULT;
     }
 
     public static RiotFile wrapFileType(String path, RiotFile file) {
-        RiotFileType type = typeForExtension(path.substring(path.lastIndexOf('.') + 1, path.length()));
+        return wrapFileType(typeForPath(path), file);
+    }
+
+    /**
+     * Wrap a file in the class decoding its type.
+     * @param type
+     * @param file
+     * @return
+     */
+    public static RiotFile wrapFileType(RiotFileType type, RiotFile file) {
         if(type == null)
             return file;
         switch(type) {
@@ -9,27 +9,25 @@ package gg.raf.suite.fs.file;
  *  this single file. The file can be matched with a RiotPath based on
  *  the file's path list index and this RiotPath's position in the total
  *  list of directories.
+ *
+ * A RiotPath is a view of one entry of a {@link PathTable}; the
+ *  path string is only created when requested.
  */
 public class RiotPath {
 
     /**
-     * The offset of the path in the buffer.
-     */
-    int pathOffset;
-
-    /**
-     * The length of the path in bytes.
+     * The path table holding the path.
      */
-    int pathLength;
+    private final PathTable table;
 
     /**
-     * The path.
+     * The path list index of the path.
      */
-    String path = "";
+    private final int index;
 
-    public RiotPath(int pathOffset, int pathLength) {
-        this.pathOffset = pathOffset;
-        this.pathLength = pathLength;
+    public RiotPath(PathTable table, int index) {
+        this.table = table;
+        this.index = index;
     }
 
     /**
@@ -37,7 +35,7 @@ public class RiotPath {
      * @return
      */
     public int getPathOffset() {
-        return pathOffset;
+        return table.getPathOffset(index);
     }
 
     /**
@@ -45,23 +43,15 @@ public class RiotPath {
      * @return
      */
     public int getPathLength() {
-        return pathLength;
-    }
-
-    /**
-     * Set the entry's path.
-     * @param path
-     */
-    public void setString(String path) {
-        this.path = path;
+        return table.getPathLength(index);
     }
 
     /**
-     * Return the path.
+     * Return the path, created from the path table.
      * @return
      */
     public String getPath() {
-        return path;
+        return table.getPath(index);
     }
 
 }
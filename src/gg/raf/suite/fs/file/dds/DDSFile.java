@@ -1,10 +1,13 @@
 package gg.raf.suite.fs.file.dds;
 
 import gg.raf.suite.fs.file.RiotFile;
+import gg.raf.suite.fs.file.dds.decompressor.BC4Decompressor;
+import gg.raf.suite.fs.file.dds.decompressor.BC5Decompressor;
 import gg.raf.suite.fs.file.dds.decompressor.DXT1Decompressor;
 import gg.raf.suite.fs.file.dds.decompressor.DXT3Decompressor;
 import gg.raf.suite.fs.file.dds.decompressor.DXT5Decompressor;
 import gg.raf.suite.fs.file.dds.decompressor.Decompressor;
+import gg.raf.suite.fs.file.dds.decompressor.MaskDecompressor;
 import gg.raf.suite.fs.file.dds.flags.DDSCaps2Flags;
 import gg.raf.suite.fs.file.dds.flags.DDSCapsFlags;
 import gg.raf.suite.fs.file.dds.flags.DDSHeaderFlags;
@@ -42,6 +45,16 @@ import java.util.ArrayList;
  */
 public class DDSFile extends RiotFile {
 
+    /**
+     * The magic number of a dds file - "DDS ".
+     */
+    private static final int DDS_MAGIC = 0x20534444;
+
+    /**
+     * The length of the magic number and header.
+     */
+    private static final int HEADER_LENGTH = 128;
+
     /**
      * FourCC constants.
      */
@@ -56,6 +69,18 @@ public class DDSFile extends RiotFile {
      */
     private static final int PF_DXT5 = 0x35545844;
 
+    /**
+     * One interpolated 8 bit channel - "ATI1" or "BC4U".
+     */
+    private static final int PF_ATI1 = 0x31495441;
+    private static final int PF_BC4U = 0x55344342;
+
+    /**
+     * Two interpolated 8 bit channels - "ATI2" or "BC5U".
+     */
+    private static final int PF_ATI2 = 0x32495441;
+    private static final int PF_BC5U = 0x55354342;
+
     /**
      * A "magic number" containing the four character code 'DDS' (0x20534444).
      */
@@ -81,6 +106,16 @@ public class DDSFile extends RiotFile {
      */
     private int[] mipmapSizes;
 
+    /**
+     * The offset of each mipmap level in the file data.
+     */
+    private int[] mipmapOffsets;
+
+    /**
+     * The offset of the first surface in the file data, or 0 until the header is decoded.
+     */
+    private int surfaceOffset;
+
     /**
      * The format of this dds texture.
      */
@@ -104,150 +139,327 @@ public class DDSFile extends RiotFile {
     @Override
     public void decode() {
         try {
-            ByteBuffer buffer = ByteBuffer.wrap(this.getFileData());
-
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
-
-            this.ddsMagicNumber = buffer.getInt();
-            System.out.println("Magic: " + ddsMagicNumber);
-            ddsHeader.setDwSize(buffer.getInt());
-            ddsHeader.setDwFlags(buffer.getInt());
-            System.out.println("Size: " + ddsHeader.getDwSize() + " Flags: " + ddsHeader.getDwFlags());
-            ddsHeader.populateFlags();
-            ddsHeader.setDwWidth(buffer.getInt());
-            ddsHeader.setDwHeight(buffer.getInt());
-            ddsHeader.setDwPitchOrLinearSize(buffer.getInt());
-            ddsHeader.setDwDepth(buffer.getInt());
-            ddsHeader.setDwMipMapCount(buffer.getInt());
-            buffer.position(buffer.position() + 44);
-
-            /**
-             * Pixel Format
-             */
-            DDSPixelFormat pfm = ddsHeader.getDwPixelFormat();
-            pfm.setDwSize(buffer.getInt());
-            if (pfm.getDwSize() != 32)
-                throw new IOException("Pixel Format Size != 32");
-            pfm.setDwFlags(buffer.getInt());
-            System.out.println("PFM Size: " + pfm.getDwSize() + " Flags: " + pfm.getDwFlags());
-            pfm.populateFlags();
-            if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_FOURCC)) {
-                pfm.setDwFourCC(buffer.getInt());
-                buffer.position(buffer.position() + 20);
-                System.out.println("FCC: " + pfm.getDwFourCC());
-                pfm.setDwFourCCString(StringUtil.intToString(pfm.getDwFourCC()));
-                this.compressed = true;
-                switch(pfm.getDwFourCC()) {
-                    case PF_DXT1:
-                        pfm.setDwRGBBitCount(4);
-                        if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_ALPHAPIXELS))
-                            format = DDSFormat.DXT1;
-                        else
-                            format = DDSFormat.DXT1;
-                        break;
-                    case PF_DXT3:
-                        pfm.setDwRGBBitCount(8);
-                        format = DDSFormat.DXT3;
-                        break;
-                    case PF_DXT5:
-                        pfm.setDwRGBBitCount(8);
-                        format = DDSFormat.DXT5;
-                        break;
-                }
-                int size = ((ddsHeader.getDwWidth() + 3) / 4) * ((ddsHeader.getDwHeight() + 3) / 4) * pfm.getDwRGBBitCount() * 2;
-                if (ddsHeader.getFlags().contains(DDSHeaderFlags.DDSD_LINEARSIZE)) {
-                    if (ddsHeader.getDwPitchOrLinearSize() == 0)
-                        ddsHeader.setDwPitchOrLinearSize(size);
-                    else if (ddsHeader.getDwPitchOrLinearSize() != size)
-                        System.out.println("Unexpected Pitch Size: " + ddsHeader.getDwPitchOrLinearSize() + " Expected: " + size);
-                }
-            } else {
-                System.out.println("Type: Uncompressed RGB");
-                compressed = false;
-                buffer.getInt();
-                pfm.setDwRGBBitCount(buffer.getInt());
-                pfm.setDwRBitMask(buffer.getInt());
-                pfm.setDwGBitMask(buffer.getInt());
-                pfm.setDwBBitMask(buffer.getInt());
-                pfm.setDwABitMask(buffer.getInt());
-
-                if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_RGB)) {
+            decodeHeader();
+            this.result = decodeMipmap(0);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+    }
+
+    /**
+     * Decode the header and work out the size and offset of every mipmap
+     *  level, without decoding any surface. The header is decoded once.
+     * @throws IOException If the file is not a texture.
+     */
+    public void decodeHeader() throws IOException {
+        if (surfaceOffset > 0)
+            return;
+        ByteBuffer buffer = ByteBuffer.wrap(this.getFileData());
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt(0) != DDS_MAGIC)
+            throw new IOException("Not a dds file.");
+        this.ddsMagicNumber = buffer.getInt();
+        ddsHeader.setDwSize(buffer.getInt());
+        ddsHeader.setDwFlags(buffer.getInt());
+        ddsHeader.populateFlags();
+        ddsHeader.setDwHeight(buffer.getInt());
+        ddsHeader.setDwWidth(buffer.getInt());
+        ddsHeader.setDwPitchOrLinearSize(buffer.getInt());
+        ddsHeader.setDwDepth(buffer.getInt());
+        ddsHeader.setDwMipMapCount(buffer.getInt());
+        buffer.position(buffer.position() + 44);
+
+        /**
+         * Pixel Format
+         */
+        DDSPixelFormat pfm = ddsHeader.getDwPixelFormat();
+        pfm.setDwSize(buffer.getInt());
+        if (pfm.getDwSize() != 32)
+            throw new IOException("Pixel Format Size != 32");
+        pfm.setDwFlags(buffer.getInt());
+        pfm.populateFlags();
+        if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_FOURCC)) {
+            pfm.setDwFourCC(buffer.getInt());
+            buffer.position(buffer.position() + 20);
+            pfm.setDwFourCCString(StringUtil.intToString(pfm.getDwFourCC()));
+            this.compressed = true;
+            switch(pfm.getDwFourCC()) {
+                case PF_DXT1:
+                    pfm.setDwRGBBitCount(4);
                     if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_ALPHAPIXELS))
-                        format = DDSFormat.RGBA8;
+                        format = DDSFormat.DXT1;
                     else
-                        format = DDSFormat.RGB8;
-                } else if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_LUMINANCE)) {
-                    switch(pfm.getDwRGBBitCount()) {
-                        case 4:  format = DDSFormat.LUMINANCE4; break;
-                        case 8:  format = DDSFormat.LUMINANCE8; break;
-                        case 12: format = DDSFormat.LUMINANCE12; break;
-                        case 16: format = DDSFormat.LUMINANCE16; break;
-                    }
-                    grayscaleOrAlpha = true;
-                } else if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_ALPHA)) {
-                    switch(pfm.getDwRGBBitCount()) {
-                        case 4:  format = DDSFormat.ALPHA4; break;
-                        case 8:  format = DDSFormat.ALPHA8; break;
-                        case 12: format = DDSFormat.ALPHA12; break;
-                        case 16: format = DDSFormat.ALPHA16; break;
-                    }
-                    grayscaleOrAlpha = true;
+                        format = DDSFormat.DXT1;
+                    break;
+                case PF_DXT3:
+                    pfm.setDwRGBBitCount(8);
+                    format = DDSFormat.DXT3;
+                    break;
+                case PF_DXT5:
+                    pfm.setDwRGBBitCount(8);
+                    format = DDSFormat.DXT5;
+                    break;
+                case PF_ATI1:
+                case PF_BC4U:
+                    pfm.setDwRGBBitCount(4);
+                    format = DDSFormat.BC4;
+                    break;
+                case PF_ATI2:
+                case PF_BC5U:
+                    pfm.setDwRGBBitCount(8);
+                    format = DDSFormat.BC5;
+                    break;
+            }
+            int size = ((ddsHeader.getDwWidth() + 3) / 4) * ((ddsHeader.getDwHeight() + 3) / 4) * pfm.getDwRGBBitCount() * 2;
+            if (ddsHeader.getFlags().contains(DDSHeaderFlags.DDSD_LINEARSIZE)) {
+                if (ddsHeader.getDwPitchOrLinearSize() == 0)
+                    ddsHeader.setDwPitchOrLinearSize(size);
+            }
+        } else {
+            compressed = false;
+            buffer.getInt();
+            pfm.setDwRGBBitCount(buffer.getInt());
+            pfm.setDwRBitMask(buffer.getInt());
+            pfm.setDwGBitMask(buffer.getInt());
+            pfm.setDwBBitMask(buffer.getInt());
+            pfm.setDwABitMask(buffer.getInt());
+
+            if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_RGB)) {
+                if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_ALPHAPIXELS))
+                    format = DDSFormat.RGBA8;
+                else
+                    format = DDSFormat.RGB8;
+            } else if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_LUMINANCE)) {
+                switch(pfm.getDwRGBBitCount()) {
+                    case 4:  format = DDSFormat.LUMINANCE4; break;
+                    case 8:  format = DDSFormat.LUMINANCE8; break;
+                    case 12: format = DDSFormat.LUMINANCE12; break;
+                    case 16: format = DDSFormat.LUMINANCE16; break;
                 }
-                int size = (pfm.getDwRGBBitCount() / 8 * ddsHeader.getDwWidth());
-                if (ddsHeader.getFlags().contains(DDSHeaderFlags.DDSD_LINEARSIZE)) {
-                    if (ddsHeader.getDwPitchOrLinearSize() == 0)
-                        ddsHeader.setDwPitchOrLinearSize(size);
-                    else if (ddsHeader.getDwPitchOrLinearSize() != size)
-                        System.out.println("Unexpected Pitch Size: " + ddsHeader.getDwPitchOrLinearSize() + " Expected: " + size);
+                grayscaleOrAlpha = true;
+            } else if (pfm.getFlags().contains(DDSPixelFormatFlags.DDPF_ALPHA)) {
+                switch(pfm.getDwRGBBitCount()) {
+                    case 4:  format = DDSFormat.ALPHA4; break;
+                    case 8:  format = DDSFormat.ALPHA8; break;
+                    case 12: format = DDSFormat.ALPHA12; break;
+                    case 16: format = DDSFormat.ALPHA16; break;
                 }
+                grayscaleOrAlpha = true;
+            }
+            int size = (pfm.getDwRGBBitCount() / 8 * ddsHeader.getDwWidth());
+            if (ddsHeader.getFlags().contains(DDSHeaderFlags.DDSD_LINEARSIZE)) {
+                if (ddsHeader.getDwPitchOrLinearSize() == 0)
+                    ddsHeader.setDwPitchOrLinearSize(size);
             }
+        }
 
-            ddsHeader.setDwCaps(buffer.getInt());
-            ddsHeader.setDwCaps2(buffer.getInt());
-            buffer.position(buffer.position() + 12);
+        ddsHeader.setDwCaps(buffer.getInt());
+        ddsHeader.setDwCaps2(buffer.getInt());
+        buffer.position(buffer.position() + 12);
 
-            if((ddsHeader.getDwCaps() & DDSCapsFlags.DDSCAPS_TEXTURE.getFlag()) != DDSCapsFlags.DDSCAPS_TEXTURE.getFlag())
-                throw new IOException("Only textures supported.");
+        if((ddsHeader.getDwCaps() & DDSCapsFlags.DDSCAPS_TEXTURE.getFlag()) != DDSCapsFlags.DDSCAPS_TEXTURE.getFlag())
+            throw new IOException("Only textures supported.");
 
-            int expectedMipmaps = 1 + (int) Math.ceil(Math.log(Math.max(ddsHeader.getDwHeight(), ddsHeader.getDwWidth())) / Math.log(2));
-            if((ddsHeader.getDwCaps() & DDSCapsFlags.DDSCAPS_MIPMAP.getFlag()) != DDSCapsFlags.DDSCAPS_MIPMAP.getFlag()) {
-                if(!ddsHeader.getFlags().contains(DDSHeaderFlags.DDSD_MIPMAPCOUNT))
-                    ddsHeader.setDwMipMapCount(expectedMipmaps);
-                else if(ddsHeader.getDwMipMapCount() != expectedMipmaps) {
-                    System.out.println("Unpexpected MipMap Count: " + ddsHeader.getDwMipMapCount() + " Expected: " + expectedMipmaps);
-                }
-            } else {
-                ddsHeader.setDwMipMapCount(1);
-            }
-
-            populateMipmapSizes();
-
-            //TODO: parse the compressed or uncompressed pixel data.
-            //max(1, ( (width + 3) / 4 ) ) x max(1, ( (height + 3) / 4 ) ) x 8(DXT1) or 16(DXT2-5)
-            Decompressor decompressor = format == DDSFormat.DXT3 ? new DXT3Decompressor() : format == DDSFormat.DXT1 ? new DXT1Decompressor() :
-                    format == DDSFormat.DXT5 ? new DXT5Decompressor() : null;
-            int blockSize = format == DDSFormat.DXT1 ? 8 : 16;
-            int pitch = Math.max(1, (ddsHeader.getDwWidth() + 3) / 4) * blockSize;
-            String sFormat = format == DDSFormat.DXT1 ? "DXT1" : format == DDSFormat.DXT3 ? "DXT3" : format == DDSFormat.DXT5 ? "DXT5" : "Uknown";
-            int expectedSize = Math.max(1, (ddsHeader.getDwWidth() + 3) / 4) * (Math.max(1, (ddsHeader.getDwHeight() + 3) / 4) * blockSize);
-            System.out.println("Buffer: cap: " + buffer.capacity() + " pos: " + buffer.position() + " length: " + buffer.array().length + " Rem: " + (buffer.array().length - buffer.position()));
-            System.out.println("Expected Size: " + expectedSize + " Format: " + sFormat + " Pitch: " + pitch);
-            if(decompressor != null) {
-                this.result = decompressor.decompress(buffer, ddsHeader.getDwWidth(), ddsHeader.getDwHeight());
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        /**
+         * A full chain halves the largest side down to 1.
+         */
+        int expectedMipmaps = 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(ddsHeader.getDwHeight(), ddsHeader.getDwWidth())));
+        if((ddsHeader.getDwCaps() & DDSCapsFlags.DDSCAPS_MIPMAP.getFlag()) == DDSCapsFlags.DDSCAPS_MIPMAP.getFlag()
+                || ddsHeader.getFlags().contains(DDSHeaderFlags.DDSD_MIPMAPCOUNT)) {
+            if(!ddsHeader.getFlags().contains(DDSHeaderFlags.DDSD_MIPMAPCOUNT) || ddsHeader.getDwMipMapCount() <= 0)
+                ddsHeader.setDwMipMapCount(expectedMipmaps);
+            else if(ddsHeader.getDwMipMapCount() > expectedMipmaps)
+                ddsHeader.setDwMipMapCount(expectedMipmaps);
+        } else {
+            ddsHeader.setDwMipMapCount(1);
         }
 
+        populateMipmapSizes(buffer.position());
+
+        this.surfaceOffset = buffer.position();
+    }
+
+    /**
+     * Decode a single mipmap level; no other level is read.
+     * @param level The level, 0 being the full size surface.
+     * @return The image, or null if the format is not supported.
+     * @throws IOException If the header cannot be decoded.
+     * @throws IllegalArgumentException If the level is out of range or its data is missing.
+     */
+    public BufferedImage decodeMipmap(int level) throws IOException {
+        decodeHeader();
+        if (level < 0 || level >= mipmapSizes.length)
+            throw new IllegalArgumentException("No mipmap level " + level + " of " + mipmapSizes.length + ".");
+        Decompressor decompressor = createDecompressor(format, ddsHeader.getDwPixelFormat());
+        if (decompressor == null)
+            return null;
+        ByteBuffer buffer = ByteBuffer.wrap(this.getFileData());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(mipmapOffsets[level]);
+        return decompressor.decompress(buffer, getMipmapWidth(level), getMipmapHeight(level));
+    }
+
+    /**
+     * Decode a band of rows of a mipmap level straight into an array of
+     *  a8r8g8b8 pixels, without making an image.
+     * @param level     The level, 0 being the full size surface.
+     * @param fromRow   The first row decoded, a multiple of 4 for block compressed formats.
+     * @param toRow     The row after the last row decoded, a multiple of 4 or the height.
+     * @param pixels    The array receiving the band, its first row at index 0.
+     * @return False if the format is not supported.
+     * @throws IOException If the header cannot be decoded.
+     * @throws IllegalArgumentException If the level or band is out of range or its data is missing.
+     */
+    public boolean decodeMipmap(int level, int fromRow, int toRow, int[] pixels) throws IOException {
+        decodeHeader();
+        if (level < 0 || level >= mipmapSizes.length)
+            throw new IllegalArgumentException("No mipmap level " + level + " of " + mipmapSizes.length + ".");
+        Decompressor decompressor = createDecompressor(format, ddsHeader.getDwPixelFormat());
+        if (decompressor == null)
+            return false;
+        ByteBuffer buffer = ByteBuffer.wrap(this.getFileData());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(mipmapOffsets[level]);
+        decompressor.decompress(buffer, getMipmapWidth(level), getMipmapHeight(level), fromRow, toRow, pixels);
+        return true;
+    }
+
+    /**
+     * Can the surfaces of this texture be decoded?
+     * @return
+     * @throws IOException If the header cannot be decoded.
+     */
+    public boolean isSupported() throws IOException {
+        decodeHeader();
+        return createDecompressor(format, ddsHeader.getDwPixelFormat()) != null;
+    }
+
+    /**
+     * Select the smallest mipmap level at least as large as a display
+     *  size, among the levels whose data is in the file.
+     * @param width     The display width.
+     * @param height    The display height.
+     * @return The level, 0 if the full size surface is needed.
+     * @throws IOException If the header cannot be decoded.
+     */
+    public int selectMipmap(int width, int height) throws IOException {
+        decodeHeader();
+        int level = 0;
+        while (level + 1 < mipmapSizes.length && isMipmapPresent(level + 1)
+                && getMipmapWidth(level + 1) >= width && getMipmapHeight(level + 1) >= height)
+            level++;
+        return level;
+    }
+
+    /**
+     * Is the data of a mipmap level in the file?
+     * @param level
+     * @return
+     */
+    public boolean isMipmapPresent(int level) {
+        return mipmapOffsets[level] + (long) mipmapSizes[level] <= this.getFileData().length;
+    }
+
+    /**
+     * Retrieve the number of mipmap levels.
+     * @return
+     */
+    public int getMipmapCount() {
+        return mipmapSizes.length;
+    }
+
+    /**
+     * Retrieve the width of a mipmap level.
+     * @param level
+     * @return
+     */
+    public int getMipmapWidth(int level) {
+        return Math.max(ddsHeader.getDwWidth() >> level, 1);
+    }
+
+    /**
+     * Retrieve the height of a mipmap level.
+     * @param level
+     * @return
+     */
+    public int getMipmapHeight(int level) {
+        return Math.max(ddsHeader.getDwHeight() >> level, 1);
+    }
+
+    /**
+     * Retrieve the offset of a mipmap level in the file data.
+     * @param level
+     * @return
+     */
+    public int getMipmapOffset(int level) {
+        return mipmapOffsets[level];
+    }
+
+    /**
+     * Retrieve the size of a mipmap level in bytes.
+     * @param level
+     * @return
+     */
+    public int getMipmapSize(int level) {
+        return mipmapSizes[level];
+    }
+
+    /**
+     * Retrieve the format of this texture.
+     * @return
+     */
+    public DDSFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Create the decompressor of a format.
+     * @param format
+     * @param pixelFormat   The pixel format, whose bit masks lay out uncompressed formats.
+     * @return The decompressor, or null if the format is not known.
+     */
+    private static Decompressor createDecompressor(DDSFormat format, DDSPixelFormat pixelFormat) {
+        if (format == null)
+            return null;
+        switch (format) {
+            case DXT1:
+                return new DXT1Decompressor();
+            case DXT3:
+                return new DXT3Decompressor();
+            case DXT5:
+                return new DXT5Decompressor();
+            case BC4:
+                return new BC4Decompressor();
+            case BC5:
+                return new BC5Decompressor();
+            case RGB8:
+            case RGBA8:
+            case LUMINANCE4:
+            case LUMINANCE8:
+            case LUMINANCE12:
+            case LUMINANCE16:
+            case ALPHA4:
+            case ALPHA8:
+            case ALPHA12:
+            case ALPHA16:
+                return new MaskDecompressor(pixelFormat);
+        }
+        return null;
     }
 
     /**
-     * Populate an array of mipmap sizes at each level.
+     * Populate an array of mipmap sizes and offsets at each level. Levels
+     *  are stored back to back, unpadded, from the largest.
+     * @param offset    The offset of the first level in the file data.
      */
-    private void populateMipmapSizes() {
+    private void populateMipmapSizes(int offset) {
         int width = ddsHeader.getDwWidth();
         int height = ddsHeader.getDwHeight();
         mipmapSizes = new int[ddsHeader.getDwMipMapCount()];
+        mipmapOffsets = new int[ddsHeader.getDwMipMapCount()];
         for(int i = 0; i < ddsHeader.getDwMipMapCount(); i++) {
             int size;
             if(compressed)
@@ -255,7 +467,9 @@ public class DDSFile extends RiotFile {
             else
                 size = width * height * ddsHeader.getDwPixelFormat().getDwRGBBitCount() / 8;
 
-            mipmapSizes[i] = ((size + 3) / 4) * 4;
+            mipmapSizes[i] = size;
+            mipmapOffsets[i] = offset;
+            offset += size;
             width = Math.max(width / 2, 1);
             height = Math.max(height / 2, 1);
         }
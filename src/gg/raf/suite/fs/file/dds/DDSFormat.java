@@ -9,6 +9,8 @@ public enum DDSFormat {
     DXT1A,
     DXT3,
     DXT5,
+    BC4,
+    BC5,
     RGBA8,
     RGB8,
     LUMINANCE4,
@@ -0,0 +1,32 @@
+package gg.raf.suite.fs.file.dds.decompressor;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes BC4(ATI1) textures, a single interpolated 8 bit channel per
+ *  block, as gray.
+ *
+ * Source: https://msdn.microsoft.com/en-us/library/windows/desktop/bb694531(v=vs.85).aspx
+ */
+public class BC4Decompressor extends BlockDecompressor {
+
+    public BC4Decompressor() {
+        super(8, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override
+    protected void decodeBlock(ByteBuffer buffer, int position, int[] pixels, int offset, int stride,
+                               int columns, int rows, int[] palette) {
+        long indexes = readChannelBlock(buffer, position, palette, 0);
+        for (int i = 0; i < 8; i++)
+            palette[i] = 0xFF000000 | palette[i] * 0x010101;
+        for (int h = 0; h < rows; h++) {
+            int row = (int) (indexes >>> h * 12);
+            int pixelIndex = offset + h * stride;
+            for (int w = 0; w < columns; w++)
+                pixels[pixelIndex + w] = palette[(row >>> w * 3) & 0x07];
+        }
+    }
+
+}
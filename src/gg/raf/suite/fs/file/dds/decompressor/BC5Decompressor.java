@@ -0,0 +1,39 @@
+package gg.raf.suite.fs.file.dds.decompressor;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes BC5(ATI2) textures, two interpolated 8 bit channels per block,
+ *  into the red and green channels.
+ *
+ * Source: https://msdn.microsoft.com/en-us/library/windows/desktop/bb694531(v=vs.85).aspx
+ */
+public class BC5Decompressor extends BlockDecompressor {
+
+    /**
+     * The index of the green values in the scratch array, after the red values.
+     */
+    private static final int GREEN_PALETTE = 8;
+
+    public BC5Decompressor() {
+        super(16, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override
+    protected void decodeBlock(ByteBuffer buffer, int position, int[] pixels, int offset, int stride,
+                               int columns, int rows, int[] palette) {
+        long redIndexes = readChannelBlock(buffer, position, palette, 0);
+        long greenIndexes = readChannelBlock(buffer, position + 8, palette, GREEN_PALETTE);
+        for (int h = 0; h < rows; h++) {
+            int reds = (int) (redIndexes >>> h * 12);
+            int greens = (int) (greenIndexes >>> h * 12);
+            int pixelIndex = offset + h * stride;
+            for (int w = 0; w < columns; w++) {
+                pixels[pixelIndex + w] = 0xFF000000 | palette[(reds >>> w * 3) & 0x07] << 16
+                        | palette[GREEN_PALETTE + ((greens >>> w * 3) & 0x07)] << 8;
+            }
+        }
+    }
+
+}
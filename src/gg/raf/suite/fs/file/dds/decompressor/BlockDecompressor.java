@@ -0,0 +1,258 @@
+package gg.raf.suite.fs.file.dds.decompressor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A decompressor of 4x4 block compressed textures.
+ *
+ * Blocks are read with absolute gets and decoded straight into the int
+ *  array backing the raster of the image; the palette of a block is held
+ *  as packed ints in a scratch array reused for every block, so no object
+ *  is made per block. Blocks on the right and bottom edges of a texture
+ *  whose size is not a multiple of four are clipped.
+ *
+ * The offset of every block row is computed from its index, so rows are
+ *  independent; large textures are split into runs of rows decoded on the
+ *  common fork join pool, each writing its own region of the raster. Any
+ *  band of block rows can be decoded on its own into a plain int array,
+ *  so a surface can be handed to its viewer a band at a time.
+ *
+ * Source: https://msdn.microsoft.com/en-us/library/windows/desktop/bb694531(v=vs.85).aspx
+ */
+public abstract class BlockDecompressor implements Decompressor {
+
+    /**
+     * The width and height of a block in pixels.
+     */
+    public static final int BLOCK_SIZE = 4;
+
+    /**
+     * The length of the scratch array handed to every block.
+     */
+    protected static final int SCRATCH_SIZE = 16;
+
+    /**
+     * The number of block rows decoded by a single task.
+     */
+    private static final int ROWS_PER_TASK = 16;
+
+    /**
+     * The number of bytes of a block.
+     */
+    private final int blockLength;
+
+    /**
+     * The type of the images decoded.
+     */
+    private final int imageType;
+
+    /**
+     * Whether large textures are decoded on several threads.
+     */
+    private boolean parallel = true;
+
+    protected BlockDecompressor(int blockLength, int imageType) {
+        this.blockLength = blockLength;
+        this.imageType = imageType;
+    }
+
+    @Override
+    public BufferedImage decompress(ByteBuffer buffer, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, imageType);
+        int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        decompress(buffer, width, height, 0, height, pixels);
+        buffer.position(buffer.position() + (int) surfaceLength(width, height));
+        return result;
+    }
+
+    @Override
+    public void decompress(ByteBuffer buffer, int width, int height, int fromRow, int toRow, int[] pixels) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Width/Height error.");
+        if (fromRow < 0 || toRow > height || fromRow >= toRow || fromRow % BLOCK_SIZE != 0
+                || (toRow % BLOCK_SIZE != 0 && toRow != height))
+            throw new IllegalArgumentException("Rows " + fromRow + " to " + toRow + " are not a band of blocks.");
+        if (pixels.length < (long) (toRow - fromRow) * width)
+            throw new IllegalArgumentException("Expected " + (toRow - fromRow) * width + " pixels, found " + pixels.length + ".");
+        if (buffer.order() != ByteOrder.LITTLE_ENDIAN)
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        long length = surfaceLength(width, height);
+        if (buffer.remaining() < length)
+            throw new IllegalArgumentException("Expected " + length + " bytes of blocks, found " + buffer.remaining() + ".");
+        int start = buffer.position();
+        int rowLength = (width + BLOCK_SIZE - 1) / BLOCK_SIZE * blockLength;
+        int from = fromRow / BLOCK_SIZE, to = (toRow + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (parallel && to - from > ROWS_PER_TASK && ForkJoinPool.getCommonPoolParallelism() > 1)
+            ForkJoinPool.commonPool().invoke(new RowTask(buffer, start, rowLength, pixels, fromRow, width, height, from, to));
+        else {
+            int[] scratch = new int[SCRATCH_SIZE];
+            for (int row = from; row < to; row++)
+                decodeRow(buffer, start + row * rowLength, row, pixels, (row * BLOCK_SIZE - fromRow) * width, width, height, scratch);
+        }
+    }
+
+    /**
+     * Retrieve the number of bytes of blocks of a surface.
+     * @param width
+     * @param height
+     * @return
+     */
+    private long surfaceLength(int width, int height) {
+        return (long) ((width + BLOCK_SIZE - 1) / BLOCK_SIZE) * ((height + BLOCK_SIZE - 1) / BLOCK_SIZE) * blockLength;
+    }
+
+    /**
+     * Set whether large textures are decoded on several threads; true by default.
+     * @param parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Decode a row of blocks.
+     * @param buffer    The block data.
+     * @param position  The position of the first block of the row.
+     * @param row       The row of blocks.
+     * @param pixels    The pixels of the image.
+     * @param offset    The index of the top left pixel of the row.
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param scratch   A scratch array of {@link #SCRATCH_SIZE} ints.
+     */
+    protected void decodeRow(ByteBuffer buffer, int position, int row, int[] pixels, int offset, int width, int height, int[] scratch) {
+        int rows = Math.min(BLOCK_SIZE, height - row * BLOCK_SIZE);
+        for (int x = 0; x < width; x += BLOCK_SIZE) {
+            decodeBlock(buffer, position, pixels, offset + x, width, Math.min(BLOCK_SIZE, width - x), rows, scratch);
+            position += blockLength;
+        }
+    }
+
+    /**
+     * Decode a block.
+     * @param buffer    The block data.
+     * @param position  The position of the block.
+     * @param pixels    The pixels of the image.
+     * @param offset    The index of the top left pixel of the block.
+     * @param stride    The width of the image.
+     * @param columns   The number of columns of the block inside the image.
+     * @param rows      The number of rows of the block inside the image.
+     * @param scratch   A scratch array of {@link #SCRATCH_SIZE} ints.
+     */
+    protected abstract void decodeBlock(ByteBuffer buffer, int position, int[] pixels, int offset, int stride,
+                                        int columns, int rows, int[] scratch);
+
+    /**
+     * Decodes a run of block rows, splitting it in halves until it is short
+     *  enough. The buffer is only read with absolute gets, so it is shared.
+     */
+    private final class RowTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer buffer;
+
+        /**
+         * The position of the first block and the number of bytes of a block row.
+         */
+        private final int start, rowLength;
+
+        private final int[] pixels;
+
+        /**
+         * The pixel row decoded at index 0 of the pixels.
+         */
+        private final int fromRow;
+
+        private final int width, height;
+
+        /**
+         * The block rows decoded, from inclusive to exclusive.
+         */
+        private final int from, to;
+
+        private RowTask(ByteBuffer buffer, int start, int rowLength, int[] pixels, int fromRow, int width, int height, int from, int to) {
+            this.buffer = buffer;
+            this.start = start;
+            this.rowLength = rowLength;
+            this.pixels = pixels;
+            this.fromRow = fromRow;
+            this.width = width;
+            this.height = height;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RowTask(buffer, start, rowLength, pixels, fromRow, width, height, from, middle),
+                        new RowTask(buffer, start, rowLength, pixels, fromRow, width, height, middle, to));
+                return;
+            }
+            int[] scratch = new int[SCRATCH_SIZE];
+            for (int row = from; row < to; row++)
+                decodeRow(buffer, start + row * rowLength, row, pixels, (row * BLOCK_SIZE - fromRow) * width, width, height, scratch);
+        }
+
+    }
+
+    /**
+     * Expand the two 5:6:5 end points of a color block into its four
+     *  colors, packed as r8g8b8.
+     * @param color0    The first end point.
+     * @param color1    The second end point.
+     * @param palette   The array receiving the colors at indexes 0 to 3.
+     */
+    protected static void expandPalette(int color0, int color1, int[] palette) {
+        int r0 = (color0 & 0xF800) >>> 8, g0 = (color0 & 0x07E0) >>> 3, b0 = (color0 & 0x001F) << 3;
+        int r1 = (color1 & 0xF800) >>> 8, g1 = (color1 & 0x07E0) >>> 3, b1 = (color1 & 0x001F) << 3;
+        palette[0] = r0 << 16 | g0 << 8 | b0;
+        palette[1] = r1 << 16 | g1 << 8 | b1;
+        palette[2] = (2 * r0 + r1 + 1) / 3 << 16 | (2 * g0 + g1 + 1) / 3 << 8 | (2 * b0 + b1 + 1) / 3;
+        palette[3] = (r0 + 2 * r1 + 1) / 3 << 16 | (g0 + 2 * g1 + 1) / 3 << 8 | (b0 + 2 * b1 + 1) / 3;
+    }
+
+    /**
+     * Expand the two end points of an interpolated 8 bit channel block, as
+     *  used for BC3 alpha and the channels of BC4 and BC5, into its eight values.
+     * @param value0    The first end point.
+     * @param value1    The second end point.
+     * @param palette   The array receiving the values.
+     * @param offset    The index of the first value in the palette.
+     */
+    protected static void expandChannelPalette(int value0, int value1, int[] palette, int offset) {
+        palette[offset] = value0;
+        palette[offset + 1] = value1;
+        if (value0 > value1) {
+            for (int i = 1; i < 7; i++)
+                palette[offset + 1 + i] = ((7 - i) * value0 + i * value1 + 3) / 7;
+        } else {
+            for (int i = 1; i < 5; i++)
+                palette[offset + 1 + i] = ((5 - i) * value0 + i * value1 + 2) / 5;
+            palette[offset + 6] = 0;
+            palette[offset + 7] = 255;
+        }
+    }
+
+    /**
+     * Read an interpolated 8 bit channel block, expanding its palette.
+     * @param buffer    The block data.
+     * @param position  The position of the channel block.
+     * @param palette   The array receiving the eight values.
+     * @param offset    The index of the first value in the palette.
+     * @return The 48 bit index field, three bits per pixel in row order.
+     */
+    protected static long readChannelBlock(ByteBuffer buffer, int position, int[] palette, int offset) {
+        long block = buffer.getLong(position);
+        expandChannelPalette((int) block & 0xFF, (int) (block >>> 8) & 0xFF, palette, offset);
+        return block >>> 16;
+    }
+
+}
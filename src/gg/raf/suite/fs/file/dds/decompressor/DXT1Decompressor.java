@@ -1,11 +1,7 @@
 package gg.raf.suite.fs.file.dds.decompressor;
 
-import gg.raf.suite.fs.file.dds.color.Color24;
-
 import java.awt.image.BufferedImage;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 /**
  * Created by Allen Kinzalow on 10/3/2015.
@@ -13,59 +9,28 @@ import java.nio.ByteOrder;
  * Source: http://worldwind31.arc.nasa.gov/svn/trunk/WorldWind/src/gov/nasa/worldwind/formats/dds/DXT1Decompressor.java
  * Soruce: https://msdn.microsoft.com/en-us/library/windows/desktop/bb694531(v=vs.85).aspx
  */
-public class DXT1Decompressor implements Decompressor {
+public class DXT1Decompressor extends BlockDecompressor {
 
     public static final int DXT1_BLOCK_SIZE = 4;
 
-    @Override
-    public BufferedImage decompress(ByteBuffer buffer, int width, int height) {
-        return decodeDxt1Buffer(buffer, width, height);
+    public DXT1Decompressor() {
+        super(8, BufferedImage.TYPE_INT_RGB);
     }
 
-    protected BufferedImage decodeDxt1Buffer(ByteBuffer buffer, int width, int height) {
-        if (width < DXT1_BLOCK_SIZE || height < DXT1_BLOCK_SIZE) {
-            throw new IllegalArgumentException("Width/Height error.");
-        }
-        try {
-            if (buffer.order() != ByteOrder.LITTLE_ENDIAN) {
-                buffer.order(ByteOrder.LITTLE_ENDIAN);
-            }
-
-            int numTilesWide = width / DXT1_BLOCK_SIZE;
-            int numTilesHigh = height / DXT1_BLOCK_SIZE;
-
-            // 8 bit per color RGB packed in to an integer as r8g8b8
-            int[] pixels = new int[DXT1_BLOCK_SIZE * width];
-
-            BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-            for (int row = 0; row < numTilesHigh; row++) {
-                for (int col = 0; col < numTilesWide; col++) {
-                    short minColor = buffer.getShort();
-                    short maxColor = buffer.getShort();
-                    int colorIndexMask = buffer.getInt();
-
-                    Color24[] lookupTable = Color24.expandLookupTable(minColor, maxColor);
-
-                    for (int k = DXT1_BLOCK_SIZE * DXT1_BLOCK_SIZE - 1; k >= 0; k--)
-                    {
-                        int h = k / DXT1_BLOCK_SIZE, w = k % DXT1_BLOCK_SIZE;
-                        int pixelIndex = h * width + (col * DXT1_BLOCK_SIZE + w);
-
-                        int colorIndex = (colorIndexMask >>> k * 2) & 0x03;
-
-                        pixels[pixelIndex] = lookupTable[colorIndex].getPixel888();
-                    }
-                }
-
-                result.setRGB(0, row * DXT1_BLOCK_SIZE, width, DXT1_BLOCK_SIZE, pixels, 0, width);
-            }
-            return result;
-        } catch (Exception e) {
-            e.printStackTrace();
+    @Override
+    protected void decodeBlock(ByteBuffer buffer, int position, int[] pixels, int offset, int stride,
+                               int columns, int rows, int[] palette) {
+        expandPalette(buffer.getShort(position), buffer.getShort(position + 2), palette);
+        for (int i = 0; i < 4; i++)
+            palette[i] |= 0xFF000000;
+        int colorIndexMask = buffer.getInt(position + 4);
+        for (int h = 0; h < rows; h++) {
+            // 8 bit per color RGB packed in to an integer as a8r8g8b8, always opaque
+            int indexes = colorIndexMask >>> h * 8;
+            int pixelIndex = offset + h * stride;
+            for (int w = 0; w < columns; w++)
+                pixels[pixelIndex + w] = palette[(indexes >>> w * 2) & 0x03];
         }
-
-        return null;
     }
 
 }
@@ -10,4 +10,20 @@ public interface Decompressor {
 
     BufferedImage decompress(ByteBuffer buffer, int width, int height);
 
+    /**
+     * Decode a band of rows of a surface into an array of pixels packed as
+     *  a8r8g8b8, with alpha 255 for formats without alpha. The first row of
+     *  the band is decoded at index 0, one width apart. The position of the
+     *  buffer, at the start of the surface, is not moved.
+     * @param buffer    The surface data.
+     * @param width     The width of the surface.
+     * @param height    The height of the surface.
+     * @param fromRow   The first row decoded.
+     * @param toRow     The row after the last row decoded.
+     * @param pixels    The array receiving at least (toRow - fromRow) * width pixels.
+     * @throws IllegalArgumentException If the band is out of the surface or
+     *  not aligned to its blocks, or the data is missing.
+     */
+    void decompress(ByteBuffer buffer, int width, int height, int fromRow, int toRow, int[] pixels);
+
 }
@@ -0,0 +1,209 @@
+package gg.raf.suite.fs.file.dds.decompressor;
+
+import gg.raf.suite.fs.file.dds.DDSPixelFormat;
+import gg.raf.suite.fs.file.dds.flags.DDSPixelFormatFlags;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Decodes uncompressed textures(RGB, luminance and alpha) from the bit
+ *  masks of their pixel format.
+ *
+ * The shift and scale of every channel are worked out once from its mask.
+ *  Pixels laid out as A8R8G8B8 or X8R8G8B8 are already the layout of the
+ *  image, so rows are copied in bulk; A8B8G8R8 is copied in bulk and has
+ *  red and blue swapped. Every other layout is decoded a pixel at a time.
+ *
+ * Source: https://msdn.microsoft.com/en-us/library/windows/desktop/bb943991(v=vs.85).aspx
+ */
+public class MaskDecompressor implements Decompressor {
+
+    /**
+     * The number of bytes of a pixel.
+     */
+    private final int pixelLength;
+
+    /**
+     * The channels of a pixel; the red channel holds the luminance of a luminance texture.
+     */
+    private final Channel red, green, blue, alpha;
+
+    /**
+     * Is the texture luminance, with its value in the red mask?
+     */
+    private final boolean luminance;
+
+    /**
+     * Does the texture hold only alpha?
+     */
+    private final boolean alphaOnly;
+
+    /**
+     * Construct a decompressor for a pixel format.
+     * @param pixelFormat
+     * @throws IllegalArgumentException If pixels are not a whole number of bytes.
+     */
+    public MaskDecompressor(DDSPixelFormat pixelFormat) {
+        int bitCount = pixelFormat.getDwRGBBitCount();
+        if (bitCount <= 0 || bitCount > 32 || bitCount % 8 != 0)
+            throw new IllegalArgumentException("Unsupported bit count: " + bitCount);
+        this.pixelLength = bitCount / 8;
+        this.luminance = pixelFormat.getFlags().contains(DDSPixelFormatFlags.DDPF_LUMINANCE);
+        this.alphaOnly = pixelFormat.getFlags().contains(DDSPixelFormatFlags.DDPF_ALPHA);
+        boolean hasAlpha = alphaOnly || pixelFormat.getFlags().contains(DDSPixelFormatFlags.DDPF_ALPHAPIXELS);
+        this.red = new Channel(alphaOnly ? 0 : pixelFormat.getDwRBitMask());
+        this.green = new Channel(alphaOnly || luminance ? 0 : pixelFormat.getDwGBitMask());
+        this.blue = new Channel(alphaOnly || luminance ? 0 : pixelFormat.getDwBBitMask());
+        this.alpha = new Channel(hasAlpha ? pixelFormat.getDwABitMask() : 0);
+    }
+
+    @Override
+    public BufferedImage decompress(ByteBuffer buffer, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, alpha.mask != 0 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        decompress(buffer, width, height, 0, height, pixels);
+        buffer.position(buffer.position() + width * height * pixelLength);
+        return result;
+    }
+
+    @Override
+    public void decompress(ByteBuffer buffer, int width, int height, int fromRow, int toRow, int[] pixels) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Width/Height error.");
+        if (fromRow < 0 || toRow > height || fromRow >= toRow)
+            throw new IllegalArgumentException("Rows " + fromRow + " to " + toRow + " are out of the surface.");
+        if (pixels.length < (long) (toRow - fromRow) * width)
+            throw new IllegalArgumentException("Expected " + (toRow - fromRow) * width + " pixels, found " + pixels.length + ".");
+        if (buffer.order() != ByteOrder.LITTLE_ENDIAN)
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        long length = (long) width * height * pixelLength;
+        if (buffer.remaining() < length)
+            throw new IllegalArgumentException("Expected " + length + " bytes of pixels, found " + buffer.remaining() + ".");
+        int start = buffer.position() + fromRow * width * pixelLength;
+        int count = (toRow - fromRow) * width;
+        if (pixelLength == 4 && !luminance && !alphaOnly && green.mask == 0x0000FF00
+                && (alpha.mask == 0 || alpha.mask == 0xFF000000)) {
+            /**
+             * The unused byte of X8R8G8B8 and X8B8G8R8 is made opaque.
+             */
+            int opaque = alpha.mask == 0 ? 0xFF000000 : 0;
+            if (red.mask == 0x00FF0000 && blue.mask == 0x000000FF) {
+                /**
+                 * A8R8G8B8 and X8R8G8B8.
+                 */
+                bulkCopy(buffer, start, pixels, count);
+                if (opaque != 0) {
+                    for (int i = 0; i < count; i++)
+                        pixels[i] |= opaque;
+                }
+                return;
+            }
+            if (red.mask == 0x000000FF && blue.mask == 0x00FF0000) {
+                /**
+                 * A8B8G8R8 and X8B8G8R8.
+                 */
+                bulkCopy(buffer, start, pixels, count);
+                for (int i = 0; i < count; i++) {
+                    int pixel = pixels[i];
+                    pixels[i] = opaque | (pixel & 0xFF00FF00) | (pixel >>> 16 & 0xFF) | (pixel & 0xFF) << 16;
+                }
+                return;
+            }
+        }
+        int position = start;
+        for (int i = 0; i < count; i++, position += pixelLength) {
+            int pixel = readPixel(buffer, position);
+            int a = alpha.mask != 0 ? alpha.get(pixel) : 0xFF;
+            int rgb;
+            if (alphaOnly)
+                rgb = 0xFFFFFF;
+            else if (luminance)
+                rgb = red.get(pixel) * 0x010101;
+            else
+                rgb = red.get(pixel) << 16 | green.get(pixel) << 8 | blue.get(pixel);
+            pixels[i] = a << 24 | rgb;
+        }
+    }
+
+    /**
+     * Copy little endian 32 bit pixels straight into an array.
+     */
+    private static void bulkCopy(ByteBuffer buffer, int start, int[] pixels, int count) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(start);
+        IntBuffer ints = slice.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        ints.get(pixels, 0, count);
+    }
+
+    /**
+     * Read a little endian pixel of {@link #pixelLength} bytes.
+     */
+    private int readPixel(ByteBuffer buffer, int position) {
+        switch (pixelLength) {
+            case 1:
+                return buffer.get(position) & 0xFF;
+            case 2:
+                return buffer.getShort(position) & 0xFFFF;
+            case 3:
+                return (buffer.get(position) & 0xFF) | (buffer.get(position + 1) & 0xFF) << 8 | (buffer.get(position + 2) & 0xFF) << 16;
+            default:
+                return buffer.getInt(position);
+        }
+    }
+
+    /**
+     * A channel of a pixel, scaled to 8 bits.
+     */
+    private static final class Channel {
+
+        /**
+         * The bits of the channel in a pixel.
+         */
+        private final int mask;
+
+        /**
+         * The shift bringing the channel to the low bits.
+         */
+        private final int shift;
+
+        /**
+         * The number of bits of the channel.
+         */
+        private final int bits;
+
+        /**
+         * The 8 bit value of every value of a channel of fewer than 8 bits, or null.
+         */
+        private final int[] scale;
+
+        private Channel(int mask) {
+            this.mask = mask;
+            this.shift = mask == 0 ? 0 : Integer.numberOfTrailingZeros(mask);
+            this.bits = Integer.bitCount(mask);
+            if (bits > 0 && bits < 8) {
+                int max = (1 << bits) - 1;
+                scale = new int[max + 1];
+                for (int value = 0; value <= max; value++)
+                    scale[value] = (value * 255 + max / 2) / max;
+            } else
+                scale = null;
+        }
+
+        /**
+         * Retrieve the channel of a pixel.
+         * @return The value from 0 to 255.
+         */
+        private int get(int pixel) {
+            int value = (pixel & mask) >>> shift;
+            if (scale != null)
+                return scale[value];
+            return bits > 8 ? value >>> (bits - 8) : value;
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+package gg.raf.suite.fs.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A compact Bloom filter over the path hashes of an archive.
+ *
+ * A negative answer means the archive definitely does not contain the
+ *  path; a positive answer is wrong for about one path in a hundred.
+ *  The bits are kept in a {@link LongBuffer} so a filter can be read
+ *  straight from the memory mapped cache index.
+ */
+public final class BloomFilter {
+
+    /**
+     * The number of bits per path, giving a false positive rate of about 1%.
+     */
+    private static final int BITS_PER_PATH = 10;
+
+    /**
+     * The number of bits set per path.
+     */
+    private static final int HASHES = 7;
+
+    /**
+     * The bits of the filter.
+     */
+    private final LongBuffer words;
+
+    /**
+     * The number of bits minus one.
+     */
+    private final int mask;
+
+    private BloomFilter(LongBuffer words) {
+        this.words = words;
+        this.mask = words.capacity() * 64 - 1;
+    }
+
+    /**
+     * Create a filter containing the given path hashes.
+     * @param hashes    The path hashes.
+     * @param count     The number of hashes to add.
+     * @return
+     */
+    public static BloomFilter create(int[] hashes, int count) {
+        int bits = Integer.highestOneBit(Math.max(64, count * BITS_PER_PATH - 1)) << 1;
+        long[] words = new long[bits / 64];
+        int mask = bits - 1;
+        for (int i = 0; i < count; i++) {
+            long hash = spread(hashes[i]);
+            int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+            for (int k = 0; k < HASHES; k++) {
+                int bit = (h1 + k * h2) & mask;
+                words[bit >>> 6] |= 1L << bit;
+            }
+        }
+        return new BloomFilter(LongBuffer.wrap(words));
+    }
+
+    /**
+     * Read a filter from the current position of a buffer, leaving the
+     *  buffer positioned after the filter.
+     * @param buffer
+     * @return
+     */
+    static BloomFilter read(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer slice = buffer.slice();
+        slice.order(buffer.order());
+        slice.limit(length * 8);
+        buffer.position(buffer.position() + length * 8);
+        return new BloomFilter(slice.asLongBuffer());
+    }
+
+    /**
+     * Write the filter.
+     * @param out
+     * @throws IOException
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(words.capacity());
+        for (int i = 0; i < words.capacity(); i++)
+            out.writeLong(words.get(i));
+    }
+
+    /**
+     * Might the filter contain the given path hash?
+     * @param pathHash
+     * @return False if the path is definitely not in the filter.
+     */
+    public boolean mightContain(int pathHash) {
+        long hash = spread(pathHash);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        for (int k = 0; k < HASHES; k++) {
+            int bit = (h1 + k * h2) & mask;
+            if ((words.get(bit >>> 6) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Retrieve the size of the filter in bytes.
+     * @return
+     */
+    public int getByteSize() {
+        return words.capacity() * 8;
+    }
+
+    /**
+     * Spread the 28 significant bits of a path hash over 64 bits.
+     */
+    private static long spread(int hash) {
+        long h = (hash & 0xFFFFFFFFL) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+}
@@ -0,0 +1,638 @@
+package gg.raf.suite.fs.index;
+
+import gg.raf.suite.config.Configuration;
+import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
+import gg.raf.suite.fs.archive.ReleaseManifest;
+import gg.raf.suite.fs.file.PathTable;
+import gg.raf.suite.fs.file.RiotFile;
+import gg.raf.suite.fs.file.RiotFileType;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The startup index of the whole cache.
+ *
+ * The index is built while the cache is walked at startup and written to
+ *  {@link #INDEX_FILE}. On the next start it is memory mapped again as long
+ *  as the stamp of the cache(the names, sizes and modification times of every
+ *  archive) has not changed.
+ *
+ * Releases and their archives are numbered in release order; these numbers
+ *  are the release and archive ids packed into {@link PathHashIndex} locations.
+ *
+ * The type of every entry is sniffed from the magic number of its data,
+ *  which takes a read of every entry, so it is not done while the index is
+ *  built. The types of an archive are sniffed on their first use, or by
+ *  {@link #sniffEntryTypes()} in the background, and written through the
+ *  writable mapping of the index file so they are kept for the next start.
+ */
+public final class CacheIndex {
+
+    /**
+     * The file the index is stored in.
+     */
+    public static final File INDEX_FILE = new File(Configuration.CONFIG_DIR, "cache.idx");
+
+    /**
+     * The magic number of an index file - "RAFI".
+     */
+    private static final int MAGIC = 0x52414649;
+
+    /**
+     * The version of the index file format.
+     */
+    private static final int VERSION = 6;
+
+    /**
+     * The states of the entry types of an archive, held in the byte before them.
+     */
+    private static final byte TYPES_UNKNOWN = 0, TYPES_SNIFFED = 1;
+
+    /**
+     * The release numbers, ordered.
+     */
+    private final String[] releases;
+
+    /**
+     * The archive names of each release.
+     */
+    private final String[][] archives;
+
+    /**
+     * The path hash index.
+     */
+    private final PathHashIndex pathHashIndex;
+
+    /**
+     * The Bloom filter over the path hashes of each archive of each release.
+     */
+    private final BloomFilter[][] pathFilters;
+
+    /**
+     * The tree of every distinct path.
+     */
+    private final PathTree pathTree;
+
+    /**
+     * The path tree node of each entry slot of each archive of each release.
+     */
+    private final IntBuffer[][] entryNodes;
+
+    /**
+     * The {@link RiotFileType} ordinal of each entry slot of each archive of
+     *  each release, sniffed from the magic number of its data, after the
+     *  state of the types of the archive.
+     */
+    private final ByteBuffer[][] entryTypes;
+
+    /**
+     * The directory of the cache, whose archives are read to sniff types.
+     */
+    private File root;
+
+    private CacheIndex(String[] releases, String[][] archives, PathHashIndex pathHashIndex, BloomFilter[][] pathFilters,
+                       PathTree pathTree, IntBuffer[][] entryNodes, ByteBuffer[][] entryTypes) {
+        this.releases = releases;
+        this.archives = archives;
+        this.pathHashIndex = pathHashIndex;
+        this.pathFilters = pathFilters;
+        this.pathTree = pathTree;
+        this.entryNodes = entryNodes;
+        this.entryTypes = entryTypes;
+    }
+
+    /**
+     * Open the index file if it was built for the current state of the cache.
+     * @param root          The directory of the cache.
+     * @param archiveFiles  Every archive of the cache in release order.
+     * @return The index, or null if the index is missing or out of date.
+     */
+    public static CacheIndex openIfCurrent(File root, File[] archiveFiles) {
+        if (!INDEX_FILE.isFile())
+            return null;
+        try (FileChannel channel = FileChannel.open(INDEX_FILE.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != computeStamp(archiveFiles))
+                return null;
+            CacheIndex index = read(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            index.root = root;
+            return index;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Read an index from a buffer positioned after the magic number, version and stamp.
+     * @param buffer
+     * @return
+     */
+    private static CacheIndex read(ByteBuffer buffer) {
+        buffer.position(16);
+        int releaseCount = buffer.getInt();
+        String[] releases = new String[releaseCount];
+        String[][] archives = new String[releaseCount][];
+        for (int r = 0; r < releaseCount; r++) {
+            releases[r] = readString(buffer);
+            archives[r] = new String[buffer.getInt()];
+            for (int a = 0; a < archives[r].length; a++)
+                archives[r][a] = readString(buffer);
+        }
+        PathHashIndex pathHashIndex = PathHashIndex.read(buffer);
+        BloomFilter[][] pathFilters = new BloomFilter[releaseCount][];
+        for (int r = 0; r < releaseCount; r++) {
+            pathFilters[r] = new BloomFilter[archives[r].length];
+            for (int a = 0; a < archives[r].length; a++)
+                pathFilters[r][a] = BloomFilter.read(buffer);
+        }
+        PathTree pathTree = PathTree.read(buffer);
+        IntBuffer[][] entryNodes = new IntBuffer[releaseCount][];
+        for (int r = 0; r < releaseCount; r++) {
+            entryNodes[r] = new IntBuffer[archives[r].length];
+            for (int a = 0; a < archives[r].length; a++) {
+                int length = buffer.getInt() * 4;
+                ByteBuffer slice = buffer.slice();
+                slice.limit(length);
+                buffer.position(buffer.position() + length);
+                entryNodes[r][a] = slice.asIntBuffer();
+            }
+        }
+        ByteBuffer[][] entryTypes = new ByteBuffer[releaseCount][];
+        for (int r = 0; r < releaseCount; r++) {
+            entryTypes[r] = new ByteBuffer[archives[r].length];
+            for (int a = 0; a < archives[r].length; a++) {
+                int length = buffer.getInt() + 1;
+                ByteBuffer slice = buffer.slice();
+                slice.limit(length);
+                buffer.position(buffer.position() + length);
+                entryTypes[r][a] = slice.slice();
+            }
+        }
+        return new CacheIndex(releases, archives, pathHashIndex, pathFilters, pathTree, entryNodes, entryTypes);
+    }
+
+    /**
+     * Read a string written by {@link DataOutputStream#writeUTF}; cache names are ASCII.
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compute the stamp of the cache from the names, sizes and modification
+     *  times of every archive and data file.
+     * @param archiveFiles
+     * @return
+     */
+    public static long computeStamp(File[] archiveFiles) {
+        long stamp = 1125899906842597L;
+        for (File file : archiveFiles) {
+            File dataFile = new File(file.getPath() + ".dat");
+            stamp = 31 * stamp + file.getAbsolutePath().hashCode();
+            stamp = 31 * stamp + file.length();
+            stamp = 31 * stamp + file.lastModified();
+            stamp = 31 * stamp + dataFile.length();
+            stamp = 31 * stamp + dataFile.lastModified();
+        }
+        return stamp;
+    }
+
+    /**
+     * Find every location of a path across the cache.
+     * @param path  The path.
+     * @param out   The array receiving the packed locations, in release order.
+     * @return The total number of locations, which may exceed the length of out.
+     */
+    public int locate(CharSequence path, long[] out) {
+        return pathHashIndex.lookup(RiotFile.hashPath(path), out);
+    }
+
+    /**
+     * Find the location of a path in a single release, skipping other
+     *  paths sharing its hash.
+     * @param path      The path.
+     * @param releaseId The release, or -1 for the latest release holding the path.
+     * @return The packed location, or -1 if the release does not hold the path.
+     */
+    public long locateRelease(CharSequence path, int releaseId) {
+        int node = pathTree.find(path);
+        if (node < 0)
+            return -1;
+        long[] locations = new long[16];
+        int count = locate(path, locations);
+        if (count > locations.length) {
+            locations = new long[count];
+            locate(path, locations);
+        }
+        long found = -1;
+        for (int i = 0; i < count; i++) {
+            if (getPathNode(locations[i]) == node && (releaseId < 0 || PathHashIndex.releaseOf(locations[i]) == releaseId))
+                found = locations[i];
+        }
+        return found;
+    }
+
+    /**
+     * Might an archive contain a path? Only the Bloom filter of the
+     *  archive is probed.
+     * @param releaseId
+     * @param archiveId
+     * @param path
+     * @return False if the archive definitely does not contain the path.
+     */
+    public boolean mightContain(int releaseId, int archiveId, CharSequence path) {
+        return pathFilters[releaseId][archiveId].mightContain(RiotFile.hashPath(path));
+    }
+
+    /**
+     * Find the releases that might contain a path by probing the Bloom
+     *  filter of every archive, without touching the path hash table.
+     * @param path  The path.
+     * @param out   The array receiving the release ids, in release order.
+     * @return The total number of releases, which may exceed the length of out.
+     */
+    public int probeReleases(CharSequence path, int[] out) {
+        int hash = RiotFile.hashPath(path);
+        int count = 0;
+        for (int r = 0; r < releases.length; r++) {
+            for (BloomFilter filter : pathFilters[r]) {
+                if (filter.mightContain(hash)) {
+                    if (count < out.length)
+                        out[count] = r;
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Retrieve the path tree node of the entry at a packed location.
+     * @param location
+     * @return
+     */
+    public int getPathNode(long location) {
+        return entryNodes[PathHashIndex.releaseOf(location)][PathHashIndex.archiveOf(location)].get(PathHashIndex.slotOf(location));
+    }
+
+    /**
+     * Retrieve the path tree node of an entry slot of an archive.
+     * @param releaseId
+     * @param archiveId
+     * @param slot
+     * @return
+     */
+    public int getPathNode(int releaseId, int archiveId, int slot) {
+        return entryNodes[releaseId][archiveId].get(slot);
+    }
+
+    /**
+     * Retrieve the type of the entry at a packed location, as sniffed from
+     *  the magic number of its data.
+     * @param location
+     * @return
+     */
+    public RiotFileType getEntryType(long location) {
+        return getEntryType(PathHashIndex.releaseOf(location), PathHashIndex.archiveOf(location), PathHashIndex.slotOf(location));
+    }
+
+    /**
+     * Retrieve the type of an entry slot of an archive, as sniffed from the
+     *  magic number of its data. The archive is sniffed on first use.
+     * @param releaseId
+     * @param archiveId
+     * @param slot
+     * @return The type, or DEFAULT if the archive could not be sniffed.
+     */
+    public RiotFileType getEntryType(int releaseId, int archiveId, int slot) {
+        ByteBuffer types = entryTypes[releaseId][archiveId];
+        synchronized (types) {
+            if (!sniff(releaseId, archiveId))
+                return RiotFileType.DEFAULT;
+            return RiotFileType.typeForOrdinal(types.get(1 + slot));
+        }
+    }
+
+    /**
+     * Sniff the types of every archive whose types are not known yet. Meant
+     *  to be run in the background once the index is open.
+     */
+    public void sniffEntryTypes() {
+        for (int r = 0; r < releases.length; r++) {
+            for (int a = 0; a < archives[r].length; a++) {
+                synchronized (entryTypes[r][a]) {
+                    sniff(r, a);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sniff the types of an archive unless they are known. The caller holds
+     *  the lock of its types.
+     * @return False if the types are not known and could not be sniffed.
+     */
+    private boolean sniff(int releaseId, int archiveId) {
+        ByteBuffer types = entryTypes[releaseId][archiveId];
+        if (types.get(0) == TYPES_SNIFFED)
+            return true;
+        if (root == null)
+            return false;
+        try {
+            ArchiveFile archive = ArchiveRegistry.getRegistry().get(new File(root, releases[releaseId] + "/" + archives[releaseId][archiveId]));
+            byte[] sniffed = archive.getEntryTypes();
+            if (sniffed.length != types.capacity() - 1)
+                return false;
+            for (int slot = 0; slot < sniffed.length; slot++)
+                types.put(1 + slot, sniffed[slot]);
+            types.put(0, TYPES_SNIFFED);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Count the entries of every type across the cache from the sniffed
+     *  types kept in the index; only archives not sniffed yet are read.
+     * @return The number of entries of each type, by {@link RiotFileType} ordinal.
+     */
+    public long[] countEntryTypes() {
+        long[] counts = new long[RiotFileType.count()];
+        for (int r = 0; r < releases.length; r++) {
+            for (int a = 0; a < archives[r].length; a++) {
+                ByteBuffer types = entryTypes[r][a];
+                synchronized (types) {
+                    boolean known = sniff(r, a);
+                    for (int slot = 1; slot < types.capacity(); slot++)
+                        counts[known ? RiotFileType.typeForOrdinal(types.get(slot)).ordinal() : RiotFileType.DEFAULT.ordinal()]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Retrieve the number of entries of an archive.
+     * @param releaseId
+     * @param archiveId
+     * @return
+     */
+    public int getEntryCount(int releaseId, int archiveId) {
+        return entryNodes[releaseId][archiveId].capacity();
+    }
+
+    /**
+     * Retrieve the tree of every distinct path in the cache.
+     * @return
+     */
+    public PathTree getPathTree() {
+        return pathTree;
+    }
+
+    /**
+     * Retrieve the path hash index.
+     * @return
+     */
+    public PathHashIndex getPathHashIndex() {
+        return pathHashIndex;
+    }
+
+    /**
+     * Retrieve the number of releases.
+     * @return
+     */
+    public int getReleaseCount() {
+        return releases.length;
+    }
+
+    /**
+     * Retrieve the release number of a release id.
+     * @param releaseId
+     * @return
+     */
+    public String getReleaseNumber(int releaseId) {
+        return releases[releaseId];
+    }
+
+    /**
+     * Retrieve the release id of a release number.
+     * @param releaseNumber
+     * @return The id, or -1 if the cache has no such release.
+     */
+    public int getReleaseId(String releaseNumber) {
+        for (int r = 0; r < releases.length; r++) {
+            if (releases[r].equals(releaseNumber))
+                return r;
+        }
+        return -1;
+    }
+
+    /**
+     * Retrieve the number of archives of a release.
+     * @param releaseId
+     * @return
+     */
+    public int getArchiveCount(int releaseId) {
+        return archives[releaseId].length;
+    }
+
+    /**
+     * Retrieve the name of an archive of a release.
+     * @param releaseId
+     * @param archiveId
+     * @return
+     */
+    public String getArchiveName(int releaseId, int archiveId) {
+        return archives[releaseId][archiveId];
+    }
+
+    /**
+     * Retrieve the release path("release/archive.raf") of a packed location.
+     * @param location
+     * @return
+     */
+    public String getReleasePath(long location) {
+        int releaseId = PathHashIndex.releaseOf(location);
+        return releases[releaseId] + "/" + archives[releaseId][PathHashIndex.archiveOf(location)];
+    }
+
+    /**
+     * Builds the index while the cache is walked.
+     */
+    public static final class Builder {
+
+        /**
+         * The stamp of the cache being indexed.
+         */
+        private final long stamp;
+
+        /**
+         * The release numbers seen so far.
+         */
+        private final List<String> releases = new ArrayList<>();
+
+        /**
+         * The archive names of each release seen so far.
+         */
+        private final List<List<String>> archives = new ArrayList<>();
+
+        /**
+         * The path hash index being built.
+         */
+        private final PathHashIndex.Builder pathHashes = new PathHashIndex.Builder();
+
+        /**
+         * The Bloom filter of each archive, in the order they were added.
+         */
+        private final List<BloomFilter> pathFilters = new ArrayList<>();
+
+        /**
+         * The path tree being built.
+         */
+        private final PathTree.Builder pathTree = new PathTree.Builder();
+
+        /**
+         * The path tree node of each entry slot of each archive, in the order they were added.
+         */
+        private final List<int[]> entryNodes = new ArrayList<>();
+
+        /**
+         * The directory of the cache.
+         */
+        private final File root;
+
+        /**
+         * Construct a builder for the given archives.
+         * @param root          The directory of the cache.
+         * @param archiveFiles  Every archive of the cache in release order.
+         */
+        public Builder(File root, File[] archiveFiles) {
+            this.root = root;
+            this.stamp = computeStamp(archiveFiles);
+        }
+
+        /**
+         * Add an archive to the index. Archives must be added in release order.
+         *  Only the index of the archive is read; the types of its entries
+         *  are left to be sniffed.
+         * @param archive
+         * @throws IOException
+         */
+        public void addArchive(ArchiveFile archive) throws IOException {
+            ReleaseManifest manifest = archive.getManifest();
+            int releaseId = releases.size() - 1;
+            if (releaseId < 0 || !releases.get(releaseId).equals(manifest.getReleaseNumber())) {
+                releases.add(manifest.getReleaseNumber());
+                archives.add(new ArrayList<>());
+                releaseId++;
+            }
+            List<String> releaseArchives = archives.get(releaseId);
+            int archiveId = releaseArchives.size();
+            releaseArchives.add(manifest.getReleaseName());
+            List<RiotFile> entries = archive.getArchiveDataFile().getFileEntries();
+            PathTable pathTable = archive.getPathTable();
+            int[] nodes = new int[entries.size()];
+            for (int slot = 0; slot < entries.size(); slot++) {
+                RiotFile entry = entries.get(slot);
+                pathHashes.add(entry.getHash(), PathHashIndex.location(releaseId, archiveId, slot));
+                nodes[slot] = pathTree.add(pathTable.getPath(entry.getPathListIndex()));
+            }
+            pathFilters.add(archive.getPathFilter());
+            entryNodes.add(nodes);
+        }
+
+        /**
+         * Write the index to {@link #INDEX_FILE} and open it.
+         * @return
+         * @throws IOException
+         */
+        public CacheIndex write() throws IOException {
+            File directory = INDEX_FILE.getParentFile();
+            if (!directory.exists())
+                directory.mkdirs();
+            File temp = File.createTempFile("cache", ".idx", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                writeTo(out);
+            }
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(INDEX_FILE.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                CacheIndex index = read(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+                index.root = root;
+                return index;
+            }
+        }
+
+        /**
+         * Build the index in memory, without writing it.
+         * @return
+         */
+        public CacheIndex build() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            CacheIndex index = read(ByteBuffer.wrap(bytes.toByteArray()));
+            index.root = root;
+            return index;
+        }
+
+        /**
+         * Write every section of the index.
+         */
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp);
+            out.writeInt(releases.size());
+            for (int r = 0; r < releases.size(); r++) {
+                out.writeUTF(releases.get(r));
+                out.writeInt(archives.get(r).size());
+                for (String name : archives.get(r))
+                    out.writeUTF(name);
+            }
+            pathHashes.write(out);
+            for (BloomFilter filter : pathFilters)
+                filter.write(out);
+            pathTree.build().write(out);
+            for (int[] nodes : entryNodes) {
+                out.writeInt(nodes.length);
+                for (int node : nodes)
+                    out.writeInt(node);
+            }
+            for (int[] nodes : entryNodes) {
+                out.writeInt(nodes.length);
+                out.writeByte(TYPES_UNKNOWN);
+                out.write(new byte[nodes.length]);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,284 @@
+package gg.raf.suite.fs.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table from path hashes({@link gg.raf.suite.fs.file.RiotFile#hashPath})
+ *  to every location of that path across all releases of the cache.
+ *
+ * A location is packed into a long holding the release id, the archive id
+ *  within the release and the slot of the entry in the archive's file list.
+ *
+ * The table is read straight from a(memory mapped) buffer. Lookups only
+ *  probe the int key table and read locations from the long table, so they
+ *  create no garbage.
+ *
+ * Layout:
+ *  int capacity(a power of two), int locationCount,
+ *  int[capacity] keys, int[capacity] starts, int[capacity] counts,
+ *  long[locationCount] locations
+ */
+public final class PathHashIndex {
+
+    /**
+     * The number of bits used for the entry slot of a location.
+     */
+    private static final int SLOT_BITS = 32;
+
+    /**
+     * The number of bits used for the archive id of a location.
+     */
+    private static final int ARCHIVE_BITS = 16;
+
+    /**
+     * The path hashes, one per table slot.
+     */
+    private final IntBuffer keys;
+
+    /**
+     * The index of the first location of each table slot.
+     */
+    private final IntBuffer starts;
+
+    /**
+     * The number of locations of each table slot; zero marks an empty slot.
+     */
+    private final IntBuffer counts;
+
+    /**
+     * The packed locations, grouped by path hash.
+     */
+    private final LongBuffer locations;
+
+    /**
+     * The table capacity minus one.
+     */
+    private final int mask;
+
+    private PathHashIndex(IntBuffer keys, IntBuffer starts, IntBuffer counts, LongBuffer locations) {
+        this.keys = keys;
+        this.starts = starts;
+        this.counts = counts;
+        this.locations = locations;
+        this.mask = keys.capacity() - 1;
+    }
+
+    /**
+     * Read an index from the current position of a buffer, leaving the
+     *  buffer positioned after the index.
+     * @param buffer
+     * @return
+     */
+    static PathHashIndex read(ByteBuffer buffer) {
+        int capacity = buffer.getInt();
+        int locationCount = buffer.getInt();
+        IntBuffer keys = slice(buffer, capacity * 4).asIntBuffer();
+        IntBuffer starts = slice(buffer, capacity * 4).asIntBuffer();
+        IntBuffer counts = slice(buffer, capacity * 4).asIntBuffer();
+        LongBuffer locations = slice(buffer, locationCount * 8L).asLongBuffer();
+        return new PathHashIndex(keys, starts, counts, locations);
+    }
+
+    /**
+     * Slice a number of bytes off the current position of a buffer.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, long length) {
+        ByteBuffer slice = buffer.slice();
+        slice.order(buffer.order());
+        slice.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+        return slice;
+    }
+
+    /**
+     * Pack a location.
+     * @param releaseId The release id(the index of the release in the cache index).
+     * @param archiveId The archive id(the index of the archive within the release).
+     * @param slot      The slot of the entry in the archive's file list.
+     * @return
+     */
+    public static long location(int releaseId, int archiveId, int slot) {
+        return ((long) releaseId << (SLOT_BITS + ARCHIVE_BITS)) | ((long) archiveId << SLOT_BITS) | (slot & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Retrieve the release id of a packed location.
+     * @param location
+     * @return
+     */
+    public static int releaseOf(long location) {
+        return (int) (location >>> (SLOT_BITS + ARCHIVE_BITS));
+    }
+
+    /**
+     * Retrieve the archive id of a packed location.
+     * @param location
+     * @return
+     */
+    public static int archiveOf(long location) {
+        return (int) (location >>> SLOT_BITS) & ((1 << ARCHIVE_BITS) - 1);
+    }
+
+    /**
+     * Retrieve the entry slot of a packed location.
+     * @param location
+     * @return
+     */
+    public static int slotOf(long location) {
+        return (int) location;
+    }
+
+    /**
+     * Find the table slot for a path hash.
+     * @param hash
+     * @return The table slot, or -1 if the hash is not in the index.
+     */
+    public int find(int hash) {
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            if (counts.get(slot) == 0)
+                return -1;
+            if (keys.get(slot) == hash)
+                return slot;
+        }
+    }
+
+    /**
+     * Retrieve the number of locations of a table slot.
+     * @param slot
+     * @return
+     */
+    public int count(int slot) {
+        return counts.get(slot);
+    }
+
+    /**
+     * Retrieve a location of a table slot.
+     * @param slot  The table slot.
+     * @param index The index of the location, in release order.
+     * @return
+     */
+    public long location(int slot, int index) {
+        return locations.get(starts.get(slot) + index);
+    }
+
+    /**
+     * Copy every location of a path hash into an array.
+     * @param hash  The path hash.
+     * @param out   The array receiving the locations.
+     * @return The total number of locations, which may exceed the length of out.
+     */
+    public int lookup(int hash, long[] out) {
+        int slot = find(hash);
+        if (slot < 0)
+            return 0;
+        int start = starts.get(slot), count = counts.get(slot);
+        for (int i = 0; i < count && i < out.length; i++)
+            out[i] = locations.get(start + i);
+        return count;
+    }
+
+    /**
+     * Retrieve the total number of locations in the index.
+     * @return
+     */
+    public int getLocationCount() {
+        return locations.capacity();
+    }
+
+    /**
+     * Scramble a path hash before it picks a table slot, since path hashes
+     *  only carry 28 significant bits.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Collects locations while the cache is indexed and writes the table.
+     */
+    public static final class Builder {
+
+        /**
+         * The path hash of each location added.
+         */
+        private int[] hashes = new int[1024];
+
+        /**
+         * The packed locations added.
+         */
+        private long[] locations = new long[1024];
+
+        /**
+         * The number of locations added.
+         */
+        private int size;
+
+        /**
+         * Add a location of a path.
+         * @param hash      The path hash.
+         * @param location  The packed location.
+         */
+        public void add(int hash, long location) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                locations = Arrays.copyOf(locations, size * 2);
+            }
+            hashes[size] = hash;
+            locations[size] = location;
+            size++;
+        }
+
+        /**
+         * Write the table.
+         * @param out
+         * @throws IOException
+         */
+        void write(DataOutputStream out) throws IOException {
+            /**
+             * Group the locations by hash, keeping the order in which they were added.
+             */
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++)
+                order[i] = ((long) hashes[i] << 32) | i;
+            Arrays.sort(order);
+            int distinct = 0;
+            for (int i = 0; i < size; i++)
+                if (i == 0 || (int) (order[i] >> 32) != (int) (order[i - 1] >> 32))
+                    distinct++;
+            int capacity = Integer.highestOneBit(Math.max(2, distinct * 2 - 1)) << 1;
+            int mask = capacity - 1;
+            int[] keys = new int[capacity], starts = new int[capacity], counts = new int[capacity];
+            for (int i = 0; i < size; ) {
+                int hash = (int) (order[i] >> 32);
+                int end = i + 1;
+                while (end < size && (int) (order[end] >> 32) == hash)
+                    end++;
+                int slot = mix(hash) & mask;
+                while (counts[slot] != 0)
+                    slot = (slot + 1) & mask;
+                keys[slot] = hash;
+                starts[slot] = i;
+                counts[slot] = end - i;
+                i = end;
+            }
+            out.writeInt(capacity);
+            out.writeInt(size);
+            for (int key : keys)
+                out.writeInt(key);
+            for (int start : starts)
+                out.writeInt(start);
+            for (int count : counts)
+                out.writeInt(count);
+            for (int i = 0; i < size; i++)
+                out.writeLong(locations[(int) order[i]]);
+        }
+
+    }
+
+}
@@ -0,0 +1,743 @@
+package gg.raf.suite.fs.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A search engine over every distinct path of the cache.
+ *
+ * Paths are numbered in sorted order and kept as one byte array. For every
+ *  trigram(three consecutive lower case bytes) the numbers of the paths
+ *  containing it are stored as a posting list of varint encoded deltas.
+ *  A query only verifies the paths found in the intersection of the posting
+ *  lists of its trigrams, so a search touches a small part of the paths.
+ *
+ * Matches are ranked by the latest release containing the path, newest first.
+ */
+public final class PathSearch {
+
+    /**
+     * The kinds of queries.
+     */
+    public enum Mode {
+
+        /**
+         * Paths containing the query, ignoring case.
+         */
+        SUBSTRING,
+
+        /**
+         * Paths matching the query as a whole, where '*' matches any run of
+         *  characters and '?' any single character, ignoring case.
+         */
+        GLOB,
+
+        /**
+         * Paths sharing at least half of the trigrams of the query, ranked
+         *  by the number of shared trigrams.
+         */
+        FUZZY
+
+    }
+
+    /**
+     * The index the paths were read from.
+     */
+    private final CacheIndex index;
+
+    /**
+     * The bytes of every path, in path order.
+     */
+    private final byte[] paths;
+
+    /**
+     * The start of each path in the path bytes, followed by the end of the last.
+     */
+    private final int[] pathStarts;
+
+    /**
+     * The latest release id of each path.
+     */
+    private final int[] latestReleases;
+
+    /**
+     * The trigram of each table slot, 0 for an empty slot.
+     */
+    private final int[] trigrams;
+
+    /**
+     * The start of the posting list of each table slot.
+     */
+    private final int[] postingStarts;
+
+    /**
+     * The number of paths in the posting list of each table slot.
+     */
+    private final int[] postingCounts;
+
+    /**
+     * The posting lists.
+     */
+    private final byte[] postings;
+
+    /**
+     * Are there paths shorter than a trigram?
+     */
+    private final boolean hasShortPaths;
+
+    /**
+     * The per path trigram counts of fuzzy queries, reused between searches.
+     */
+    private int[] scores;
+
+    /**
+     * Build the search engine for the paths of a cache index.
+     * @param index
+     */
+    public PathSearch(CacheIndex index) {
+        this.index = index;
+        PathTree tree = index.getPathTree();
+        /**
+         * Number the paths in order and copy their bytes.
+         */
+        int[] ordinals = new int[tree.getNodeCount()];
+        List<String> sorted = new ArrayList<>();
+        tree.forEachPath(node -> {
+            ordinals[node] = sorted.size();
+            sorted.add(tree.getPath(node));
+        });
+        int count = sorted.size();
+        this.pathStarts = new int[count + 1];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            pathStarts[i] = size;
+            size += sorted.get(i).length();
+        }
+        pathStarts[count] = size;
+        boolean hasShortPaths = false;
+        for (int i = 0; i < count; i++)
+            hasShortPaths |= pathStarts[i + 1] - pathStarts[i] < 3;
+        this.hasShortPaths = hasShortPaths;
+        this.paths = new byte[size];
+        for (int i = 0; i < count; i++) {
+            String path = sorted.get(i);
+            for (int c = 0; c < path.length(); c++)
+                paths[pathStarts[i] + c] = (byte) path.charAt(c);
+        }
+        sorted.clear();
+        /**
+         * Releases are numbered in order, so the last release seen is the latest.
+         */
+        this.latestReleases = new int[count];
+        for (int r = 0; r < index.getReleaseCount(); r++) {
+            for (int a = 0; a < index.getArchiveCount(r); a++) {
+                for (int slot = 0; slot < index.getEntryCount(r, a); slot++)
+                    latestReleases[ordinals[index.getPathNode(r, a, slot)]] = r;
+            }
+        }
+        /**
+         * Collect the posting lists; paths are visited in order so each list
+         *  only ever grows at its end.
+         */
+        PostingsBuilder builder = new PostingsBuilder();
+        for (int i = 0; i < count; i++) {
+            for (int p = pathStarts[i]; p + 3 <= pathStarts[i + 1]; p++)
+                builder.add(trigram(paths, p), i);
+        }
+        this.trigrams = builder.keys;
+        this.postingStarts = new int[trigrams.length];
+        this.postingCounts = builder.counts;
+        int total = 0;
+        for (int slot = 0; slot < trigrams.length; slot++) {
+            postingStarts[slot] = total;
+            total += builder.sizes[slot];
+        }
+        this.postings = new byte[total];
+        for (int slot = 0; slot < trigrams.length; slot++) {
+            if (builder.lists[slot] != null)
+                System.arraycopy(builder.lists[slot], 0, postings, postingStarts[slot], builder.sizes[slot]);
+        }
+    }
+
+    /**
+     * Search the paths.
+     * @param query The query.
+     * @param mode  The kind of query.
+     * @param limit The maximum number of matches to return.
+     * @param out   The list receiving the best matches, best first.
+     * @return The total number of matching paths.
+     */
+    @SuppressWarnings("fallthrough")
+    public int search(String query, Mode mode, int limit, List<Match> out) {
+        byte[] pattern = lowerCase(query);
+        if (pattern == null || pattern.length == 0)
+            return 0;
+        switch (mode) {
+            case GLOB:
+                return searchGlob(pattern, limit, out);
+            case FUZZY:
+                if (pattern.length >= 3)
+                    return searchFuzzy(pattern, limit, out);
+                /**
+                 * Too short to have a trigram; fall through to a substring search.
+                 */
+                // fall through
+            case SUBSTRING:
+            default:
+                return searchSubstring(pattern, limit, out);
+        }
+    }
+
+    /**
+     * Find the paths containing a pattern.
+     */
+    private int searchSubstring(byte[] pattern, int limit, List<Match> out) {
+        int[] candidates = candidates(pattern, 0, pattern.length, null);
+        long[] ranked = new long[16];
+        int matches = 0;
+        if (candidates == null) {
+            /**
+             * Too short to have a trigram; scan the path bytes in one pass
+             *  unless no trigram of any path contains the pattern.
+             */
+            if (!anyTrigramContains(pattern))
+                return 0;
+            byte first = pattern[0];
+            int path = 0, last = paths.length - pattern.length;
+            scan:
+            for (int p = 0; p <= last; p++) {
+                if (lowerCase(paths[p]) != first)
+                    continue;
+                while (pathStarts[path + 1] <= p)
+                    path++;
+                if (p + pattern.length > pathStarts[path + 1])
+                    continue;
+                for (int i = 1; i < pattern.length; i++) {
+                    if (lowerCase(paths[p + i]) != pattern[i])
+                        continue scan;
+                }
+                if (matches == ranked.length)
+                    ranked = Arrays.copyOf(ranked, matches * 2);
+                ranked[matches++] = rank(path, 0);
+                p = pathStarts[path + 1] - 1;
+            }
+            return collect(ranked, matches, limit, out);
+        }
+        /**
+         * A pattern of exactly one trigram matches every candidate.
+         */
+        boolean verify = pattern.length > 3;
+        for (int path : candidates) {
+            if (!verify || contains(path, pattern)) {
+                if (matches == ranked.length)
+                    ranked = Arrays.copyOf(ranked, matches * 2);
+                ranked[matches++] = rank(path, 0);
+            }
+        }
+        return collect(ranked, matches, limit, out);
+    }
+
+    /**
+     * Find the paths matching a glob pattern.
+     */
+    private int searchGlob(byte[] pattern, int limit, List<Match> out) {
+        /**
+         * Narrow the paths down by the trigrams of every literal run of the pattern.
+         */
+        int[] candidates = null;
+        for (int start = 0; start < pattern.length; ) {
+            int end = start;
+            while (end < pattern.length && pattern[end] != '*' && pattern[end] != '?')
+                end++;
+            if (end - start >= 3) {
+                candidates = candidates(pattern, start, end, candidates);
+                if (candidates != null && candidates.length == 0)
+                    return 0;
+            }
+            start = end + 1;
+        }
+        long[] ranked = new long[16];
+        int matches = 0;
+        int count = candidates == null ? pathStarts.length - 1 : candidates.length;
+        for (int i = 0; i < count; i++) {
+            int path = candidates == null ? i : candidates[i];
+            if (globMatches(path, pattern)) {
+                if (matches == ranked.length)
+                    ranked = Arrays.copyOf(ranked, matches * 2);
+                ranked[matches++] = rank(path, 0);
+            }
+        }
+        return collect(ranked, matches, limit, out);
+    }
+
+    /**
+     * Find the paths sharing at least half of the trigrams of a pattern.
+     */
+    private synchronized int searchFuzzy(byte[] pattern, int limit, List<Match> out) {
+        if (scores == null)
+            scores = new int[pathStarts.length - 1];
+        int[] slots = trigramSlots(pattern, 0, pattern.length);
+        int required = (distinctTrigrams(pattern, 0, pattern.length) + 1) / 2;
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        for (int slot : slots) {
+            if (slot < 0)
+                continue;
+            int position = postingStarts[slot], path = 0;
+            for (int n = 0; n < postingCounts[slot]; n++) {
+                int delta = 0, shift = 0, b;
+                do {
+                    b = postings[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                path += delta;
+                if (scores[path]++ == 0) {
+                    if (touchedCount == touched.length)
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    touched[touchedCount++] = path;
+                }
+            }
+        }
+        long[] ranked = new long[16];
+        int matches = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int path = touched[i];
+            if (scores[path] >= required) {
+                if (matches == ranked.length)
+                    ranked = Arrays.copyOf(ranked, matches * 2);
+                ranked[matches++] = rank(path, scores[path]);
+            }
+            scores[path] = 0;
+        }
+        return collect(ranked, matches, limit, out);
+    }
+
+    /**
+     * Intersect the posting lists of the trigrams of a range of a pattern.
+     * @param candidates    The paths to intersect with, or null for every path.
+     * @return The candidate paths in order, or null if the range has no trigrams.
+     */
+    private int[] candidates(byte[] pattern, int from, int to, int[] candidates) {
+        if (to - from < 3)
+            return candidates;
+        int[] slots = trigramSlots(pattern, from, to);
+        for (int slot : slots) {
+            if (slot < 0)
+                return new int[0];
+        }
+        /**
+         * Intersect the shortest lists first; once the candidates are far
+         *  fewer than the paths of a list, verifying them is cheaper than
+         *  decoding the list.
+         */
+        Integer[] order = new Integer[slots.length];
+        for (int i = 0; i < slots.length; i++)
+            order[i] = slots[i];
+        Arrays.sort(order, (a, b) -> Integer.compare(postingCounts[a], postingCounts[b]));
+        for (int slot : order) {
+            if (candidates != null && (candidates.length == 0 || candidates.length * 16 < postingCounts[slot]))
+                break;
+            candidates = intersect(slot, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Intersect a posting list with a set of paths.
+     * @param slot          The table slot of the posting list.
+     * @param candidates    The paths in order, or null to decode the whole list.
+     * @return
+     */
+    private int[] intersect(int slot, int[] candidates) {
+        int count = postingCounts[slot];
+        int[] result = new int[candidates == null ? count : Math.min(count, candidates.length)];
+        int size = 0, position = postingStarts[slot], path = 0, c = 0;
+        for (int n = 0; n < count; n++) {
+            int delta = 0, shift = 0, b;
+            do {
+                b = postings[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            path += delta;
+            if (candidates == null) {
+                result[size++] = path;
+                continue;
+            }
+            while (c < candidates.length && candidates[c] < path)
+                c++;
+            if (c == candidates.length)
+                break;
+            if (candidates[c] == path)
+                result[size++] = path;
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Find the table slot of every distinct trigram of a range of a pattern.
+     * @return The table slots, -1 for a trigram no path contains.
+     */
+    private int[] trigramSlots(byte[] pattern, int from, int to) {
+        int[] slots = new int[Math.max(0, to - from - 2)];
+        int size = 0;
+        next:
+        for (int p = from; p + 3 <= to; p++) {
+            int slot = find(trigram(pattern, p));
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot && slot >= 0)
+                    continue next;
+            }
+            slots[size++] = slot;
+        }
+        return Arrays.copyOf(slots, size);
+    }
+
+    /**
+     * Count the distinct trigrams of a range of a pattern.
+     */
+    private static int distinctTrigrams(byte[] pattern, int from, int to) {
+        int[] seen = new int[Math.max(0, to - from - 2)];
+        int size = 0;
+        next:
+        for (int p = from; p + 3 <= to; p++) {
+            int trigram = trigram(pattern, p);
+            for (int i = 0; i < size; i++) {
+                if (seen[i] == trigram)
+                    continue next;
+            }
+            seen[size++] = trigram;
+        }
+        return size;
+    }
+
+    /**
+     * Find the table slot of a trigram.
+     * @return The table slot, or -1 if no path contains the trigram.
+     */
+    private int find(int trigram) {
+        int mask = trigrams.length - 1;
+        for (int slot = mix(trigram) & mask; ; slot = (slot + 1) & mask) {
+            if (trigrams[slot] == trigram)
+                return slot;
+            if (trigrams[slot] == 0)
+                return -1;
+        }
+    }
+
+    /**
+     * Does any trigram contain a lower case pattern shorter than a trigram?
+     *  Paths shorter than a trigram have no trigrams, so they always count.
+     */
+    private boolean anyTrigramContains(byte[] pattern) {
+        if (hasShortPaths)
+            return true;
+        for (int trigram : trigrams) {
+            if (trigram == 0)
+                continue;
+            for (int shift = 16; shift >= (pattern.length - 1) * 8; shift -= 8) {
+                boolean match = true;
+                for (int i = 0; i < pattern.length && match; i++)
+                    match = (byte) (trigram >>> (shift - i * 8)) == pattern[i];
+                if (match)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Does a path contain a lower case pattern?
+     */
+    private boolean contains(int path, byte[] pattern) {
+        int start = pathStarts[path], last = pathStarts[path + 1] - pattern.length;
+        outer:
+        for (int p = start; p <= last; p++) {
+            for (int i = 0; i < pattern.length; i++) {
+                if (lowerCase(paths[p + i]) != pattern[i])
+                    continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Does a whole path match a lower case glob pattern?
+     */
+    private boolean globMatches(int path, byte[] pattern) {
+        int p = pathStarts[path], end = pathStarts[path + 1];
+        int g = 0, starPattern = -1, starPath = 0;
+        while (p < end) {
+            if (g < pattern.length && (pattern[g] == '?' || pattern[g] == lowerCase(paths[p]))) {
+                g++;
+                p++;
+            } else if (g < pattern.length && pattern[g] == '*') {
+                starPattern = g++;
+                starPath = p;
+            } else if (starPattern >= 0) {
+                g = starPattern + 1;
+                p = ++starPath;
+            } else
+                return false;
+        }
+        while (g < pattern.length && pattern[g] == '*')
+            g++;
+        return g == pattern.length;
+    }
+
+    /**
+     * Rank a match; lower ranks are better.
+     * @param path  The path number.
+     * @param score The number of shared trigrams of a fuzzy match, 0 otherwise.
+     * @return
+     */
+    private long rank(int path, int score) {
+        return ((long) (0xFFFF - score) << 48) | ((long) (0xFFFF - latestReleases[path]) << 32) | path;
+    }
+
+    /**
+     * Add the best ranked matches to a list. Only the best matches are
+     *  sorted, so a short query matching most paths stays cheap.
+     * @return The number of matches.
+     */
+    private int collect(long[] ranked, int matches, int limit, List<Match> out) {
+        int best = Math.min(matches, limit);
+        if (best <= 0)
+            return matches;
+        if (matches > best * 4) {
+            /**
+             * Keep the best ranks in a max-heap at the front of the array.
+             */
+            for (int i = best / 2 - 1; i >= 0; i--)
+                siftDown(ranked, i, best);
+            for (int i = best; i < matches; i++) {
+                if (ranked[i] < ranked[0]) {
+                    ranked[0] = ranked[i];
+                    siftDown(ranked, 0, best);
+                }
+            }
+        }
+        Arrays.sort(ranked, 0, matches > best * 4 ? best : matches);
+        for (int i = 0; i < best; i++) {
+            int path = (int) ranked[i];
+            int score = 0xFFFF - (int) (ranked[i] >>> 48);
+            out.add(new Match(getPath(path), index.getReleaseNumber(latestReleases[path]), score));
+        }
+        return matches;
+    }
+
+    /**
+     * Restore the max-heap order below a heap entry.
+     */
+    private static void siftDown(long[] heap, int i, int size) {
+        while (true) {
+            int child = i * 2 + 1;
+            if (child >= size)
+                return;
+            if (child + 1 < size && heap[child + 1] > heap[child])
+                child++;
+            if (heap[i] >= heap[child])
+                return;
+            long swap = heap[i];
+            heap[i] = heap[child];
+            heap[child] = swap;
+            i = child;
+        }
+    }
+
+    /**
+     * Retrieve a path by its number.
+     * @param path
+     * @return
+     */
+    private String getPath(int path) {
+        return new String(paths, pathStarts[path], pathStarts[path + 1] - pathStarts[path], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Retrieve the number of paths.
+     * @return
+     */
+    public int getPathCount() {
+        return pathStarts.length - 1;
+    }
+
+    /**
+     * Retrieve the number of bytes of the posting lists.
+     * @return
+     */
+    public int getPostingsSize() {
+        return postings.length;
+    }
+
+    /**
+     * Pack the lower case trigram at a position.
+     */
+    private static int trigram(byte[] data, int position) {
+        return (lowerCase(data[position]) & 0xFF) << 16 | (lowerCase(data[position + 1]) & 0xFF) << 8
+                | (lowerCase(data[position + 2]) & 0xFF);
+    }
+
+    /**
+     * Lower case an ASCII byte.
+     */
+    private static byte lowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    /**
+     * Lower case a query into bytes.
+     * @return The bytes, or null if the query is not ASCII and can not match a path.
+     */
+    private static byte[] lowerCase(String query) {
+        byte[] bytes = new byte[query.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = query.charAt(i);
+            if (c == 0 || c > 0x7F)
+                return null;
+            bytes[i] = lowerCase((byte) c);
+        }
+        return bytes;
+    }
+
+    /**
+     * Scramble a trigram before it picks a table slot.
+     */
+    private static int mix(int trigram) {
+        trigram *= 0x9E3779B9;
+        return trigram ^ (trigram >>> 16);
+    }
+
+    /**
+     * A path matching a query.
+     */
+    public static final class Match {
+
+        /**
+         * The path.
+         */
+        private final String path;
+
+        /**
+         * The latest release number containing the path.
+         */
+        private final String latestRelease;
+
+        /**
+         * The number of shared trigrams of a fuzzy match, 0 otherwise.
+         */
+        private final int score;
+
+        private Match(String path, String latestRelease, int score) {
+            this.path = path;
+            this.latestRelease = latestRelease;
+            this.score = score;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getLatestRelease() {
+            return latestRelease;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return path + "  (" + latestRelease + ")";
+        }
+
+    }
+
+    /**
+     * Collects the varint encoded posting lists while the paths are read.
+     */
+    private static final class PostingsBuilder {
+
+        /**
+         * The trigram, path count, byte size, last path and bytes of the
+         *  posting list of each table slot.
+         */
+        private int[] keys = new int[1 << 12], counts = new int[keys.length], sizes = new int[keys.length],
+                lasts = new int[keys.length];
+        private byte[][] lists = new byte[keys.length][];
+
+        /**
+         * The number of distinct trigrams.
+         */
+        private int distinct;
+
+        /**
+         * Add a path to the posting list of a trigram, once per path.
+         */
+        private void add(int trigram, int path) {
+            int slot = slot(trigram);
+            if (keys[slot] == 0) {
+                if ((distinct + 1) * 2 > keys.length) {
+                    grow();
+                    slot = slot(trigram);
+                }
+                keys[slot] = trigram;
+                lists[slot] = new byte[8];
+                distinct++;
+            } else if (lasts[slot] == path)
+                return;
+            int delta = path - lasts[slot];
+            byte[] list = lists[slot];
+            if (sizes[slot] + 5 > list.length)
+                lists[slot] = list = Arrays.copyOf(list, list.length * 2);
+            int size = sizes[slot];
+            while ((delta & ~0x7F) != 0) {
+                list[size++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            list[size++] = (byte) delta;
+            sizes[slot] = size;
+            lasts[slot] = path;
+            counts[slot]++;
+        }
+
+        /**
+         * Find the slot of a trigram, or the empty slot it belongs in.
+         */
+        private int slot(int trigram) {
+            int mask = keys.length - 1, slot = mix(trigram) & mask;
+            while (keys[slot] != 0 && keys[slot] != trigram)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        /**
+         * Double the table.
+         */
+        private void grow() {
+            int[] oldKeys = keys, oldCounts = counts, oldSizes = sizes, oldLasts = lasts;
+            byte[][] oldLists = lists;
+            keys = new int[oldKeys.length * 2];
+            counts = new int[keys.length];
+            sizes = new int[keys.length];
+            lasts = new int[keys.length];
+            lists = new byte[keys.length][];
+            for (int old = 0; old < oldKeys.length; old++) {
+                if (oldKeys[old] == 0)
+                    continue;
+                int slot = slot(oldKeys[old]);
+                keys[slot] = oldKeys[old];
+                counts[slot] = oldCounts[old];
+                sizes[slot] = oldSizes[old];
+                lasts[slot] = oldLasts[old];
+                lists[slot] = oldLists[old];
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,623 @@
+package gg.raf.suite.fs.index;
+
+import gg.raf.suite.fs.file.RiotFileType;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed radix tree of every distinct path in the cache.
+ *
+ * Every node has an int id and a label, a run of path bytes; the path of a
+ *  node is the concatenation of the labels from the root down to it. Nodes
+ *  marked as terminal end a path, so the id of a terminal node identifies a
+ *  path no matter how many archives or releases contain it. Children are
+ *  kept in byte order, so traversals visit paths sorted.
+ *
+ * Every node also carries a type mask, with one bit set for each file
+ *  extension found at or below it. Extensions are given bits in the
+ *  order they are first seen, after those of {@link RiotFileType}, and
+ *  extensions past the 63rd share {@link #OTHER_TYPES}. A type filter
+ *  can then skip any subtree whose mask has no bit in common with it.
+ *
+ * Like the other index sections the tree is read straight from a(memory
+ *  mapped) buffer.
+ *
+ * Layout:
+ *  int nodeCount, int poolSize,
+ *  int[nodeCount] labelStarts, int[nodeCount] labelLengths,
+ *  int[nodeCount] parents, int[nodeCount] firstChildren, int[nodeCount] nextSiblings,
+ *  long[nodeCount] typeMasks, byte[nodeCount] flags, byte[poolSize] pool,
+ *  int extensionCount, (byte length, byte[length] extension)[extensionCount]
+ */
+public final class PathTree {
+
+    /**
+     * The id of the root node, whose label is empty.
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * The type mask bit shared by every extension that has no bit of its own.
+     */
+    public static final long OTHER_TYPES = 1L << 63;
+
+    /**
+     * The type mask matching every file.
+     */
+    public static final long ALL_TYPES = -1L;
+
+    /**
+     * The flag marking a node that ends a path.
+     */
+    private static final byte TERMINAL = 1;
+
+    /**
+     * The start of the label of each node in the pool.
+     */
+    private final IntBuffer labelStarts;
+
+    /**
+     * The length of the label of each node.
+     */
+    private final IntBuffer labelLengths;
+
+    /**
+     * The parent of each node, -1 for the root.
+     */
+    private final IntBuffer parents;
+
+    /**
+     * The first child of each node, -1 for none.
+     */
+    private final IntBuffer firstChildren;
+
+    /**
+     * The next sibling of each node, -1 for none.
+     */
+    private final IntBuffer nextSiblings;
+
+    /**
+     * The extensions found at or below each node, one bit per extension.
+     */
+    private final LongBuffer typeMasks;
+
+    /**
+     * The flags of each node.
+     */
+    private final ByteBuffer flags;
+
+    /**
+     * The label bytes.
+     */
+    private final ByteBuffer pool;
+
+    /**
+     * The extension given each type mask bit, lower case without the '.'.
+     */
+    private final List<String> extensions;
+
+    /**
+     * The type mask bit of each extension.
+     */
+    private final HashMap<String, Long> extensionBits = new HashMap<>();
+
+    private PathTree(IntBuffer labelStarts, IntBuffer labelLengths, IntBuffer parents, IntBuffer firstChildren,
+                     IntBuffer nextSiblings, LongBuffer typeMasks, ByteBuffer flags, ByteBuffer pool, List<String> extensions) {
+        this.labelStarts = labelStarts;
+        this.labelLengths = labelLengths;
+        this.parents = parents;
+        this.firstChildren = firstChildren;
+        this.nextSiblings = nextSiblings;
+        this.typeMasks = typeMasks;
+        this.flags = flags;
+        this.pool = pool;
+        this.extensions = Collections.unmodifiableList(extensions);
+        for (int bit = 0; bit < extensions.size(); bit++)
+            extensionBits.put(extensions.get(bit), 1L << bit);
+    }
+
+    /**
+     * Read a tree from the current position of a buffer, leaving the
+     *  buffer positioned after the tree.
+     * @param buffer
+     * @return
+     */
+    static PathTree read(ByteBuffer buffer) {
+        int nodeCount = buffer.getInt();
+        int poolSize = buffer.getInt();
+        IntBuffer labelStarts = slice(buffer, nodeCount * 4).asIntBuffer();
+        IntBuffer labelLengths = slice(buffer, nodeCount * 4).asIntBuffer();
+        IntBuffer parents = slice(buffer, nodeCount * 4).asIntBuffer();
+        IntBuffer firstChildren = slice(buffer, nodeCount * 4).asIntBuffer();
+        IntBuffer nextSiblings = slice(buffer, nodeCount * 4).asIntBuffer();
+        LongBuffer typeMasks = slice(buffer, nodeCount * 8).asLongBuffer();
+        ByteBuffer flags = slice(buffer, nodeCount);
+        ByteBuffer pool = slice(buffer, poolSize);
+        int extensionCount = buffer.getInt();
+        List<String> extensions = new ArrayList<>(extensionCount);
+        for (int i = 0; i < extensionCount; i++) {
+            byte[] extension = new byte[buffer.get() & 0xFF];
+            buffer.get(extension);
+            extensions.add(new String(extension, StandardCharsets.ISO_8859_1));
+        }
+        return new PathTree(labelStarts, labelLengths, parents, firstChildren, nextSiblings, typeMasks, flags, pool, extensions);
+    }
+
+    /**
+     * Slice a number of bytes off the current position of a buffer.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.order(buffer.order());
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * Write the tree.
+     * @param out
+     * @throws IOException
+     */
+    void write(DataOutputStream out) throws IOException {
+        int nodeCount = getNodeCount();
+        out.writeInt(nodeCount);
+        out.writeInt(pool.capacity());
+        for (IntBuffer column : new IntBuffer[] { labelStarts, labelLengths, parents, firstChildren, nextSiblings }) {
+            for (int node = 0; node < nodeCount; node++)
+                out.writeInt(column.get(node));
+        }
+        for (int node = 0; node < nodeCount; node++)
+            out.writeLong(typeMasks.get(node));
+        for (int node = 0; node < nodeCount; node++)
+            out.writeByte(flags.get(node));
+        for (int i = 0; i < pool.capacity(); i++)
+            out.writeByte(pool.get(i));
+        out.writeInt(extensions.size());
+        for (String extension : extensions) {
+            out.writeByte(extension.length());
+            out.writeBytes(extension);
+        }
+    }
+
+    /**
+     * Retrieve the number of nodes.
+     * @return
+     */
+    public int getNodeCount() {
+        return labelStarts.capacity();
+    }
+
+    /**
+     * Find the node of a path.
+     * @param path
+     * @return The id of the terminal node ending the path, or -1 if the path is not in the tree.
+     */
+    public int find(CharSequence path) {
+        long position = descend(path);
+        if (position < 0)
+            return -1;
+        int node = (int) (position >>> 32);
+        return (int) position == labelLengths.get(node) && isTerminal(node) ? node : -1;
+    }
+
+    /**
+     * Walk down the tree along the given characters.
+     * @param path
+     * @return The node reached in the high word and the number of its label
+     *  bytes matched in the low word, or -1 if the characters leave the tree.
+     */
+    private long descend(CharSequence path) {
+        int node = ROOT, matched = 0;
+        for (int i = 0; i < path.length(); ) {
+            int c = path.charAt(i);
+            if (matched == labelLengths.get(node)) {
+                node = child(node, c);
+                if (node < 0)
+                    return -1;
+                matched = 0;
+            }
+            if ((pool.get(labelStarts.get(node) + matched) & 0xFF) != c)
+                return -1;
+            matched++;
+            i++;
+        }
+        return ((long) node << 32) | matched;
+    }
+
+    /**
+     * Find the child of a node whose label starts with a byte.
+     */
+    private int child(int node, int c) {
+        for (int child = firstChildren.get(node); child >= 0; child = nextSiblings.get(child)) {
+            int first = pool.get(labelStarts.get(child)) & 0xFF;
+            if (first == c)
+                return child;
+            if (first > c)
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Does a node end a path?
+     * @param node
+     * @return
+     */
+    public boolean isTerminal(int node) {
+        return (flags.get(node) & TERMINAL) != 0;
+    }
+
+    /**
+     * Retrieve the extensions found at or below a node.
+     * @param node
+     * @return A mask with the bit of every extension set.
+     */
+    public long getTypeMask(int node) {
+        return typeMasks.get(node);
+    }
+
+    /**
+     * Retrieve the extensions that have a type mask bit of their own, in bit order.
+     * @return
+     */
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * Retrieve the type mask bit of an extension.
+     * @param extension The extension, without the '.'.
+     * @return The bit, {@link #OTHER_TYPES} if the extension has no bit of its own.
+     */
+    public long getTypeBit(String extension) {
+        Long bit = extensionBits.get(extension.toLowerCase());
+        return bit == null ? OTHER_TYPES : bit;
+    }
+
+    /**
+     * Retrieve the extension of a path or name, lower case without the '.'.
+     * @param path
+     * @return The extension, empty if there is none.
+     */
+    public static String extensionOf(CharSequence path) {
+        for (int i = path.length() - 1; i >= 0; i--) {
+            char c = path.charAt(i);
+            if (c == '.')
+                return path.subSequence(i + 1, path.length()).toString().toLowerCase();
+            if (c == '/')
+                break;
+        }
+        return "";
+    }
+
+    /**
+     * Retrieve the path of a node.
+     * @param node
+     * @return
+     */
+    public String getPath(int node) {
+        int length = 0;
+        for (int n = node; n >= 0; n = parents.get(n))
+            length += labelLengths.get(n);
+        byte[] path = new byte[length];
+        for (int n = node; n >= 0; n = parents.get(n)) {
+            int labelLength = labelLengths.get(n);
+            length -= labelLength;
+            for (int i = 0; i < labelLength; i++)
+                path[length + i] = pool.get(labelStarts.get(n) + i);
+        }
+        return new String(path, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Visit every path in order.
+     * @param action    Receives the terminal node of each path.
+     */
+    public void forEachPath(IntConsumer action) {
+        visit(ROOT, action);
+    }
+
+    /**
+     * Visit every path starting with a prefix, in order.
+     * @param prefix
+     * @param action    Receives the terminal node of each path.
+     */
+    public void forEachWithPrefix(CharSequence prefix, IntConsumer action) {
+        long position = descend(prefix);
+        if (position >= 0)
+            visit((int) (position >>> 32), action);
+    }
+
+    /**
+     * Visit a node and every node below it, in order.
+     */
+    private void visit(int node, IntConsumer action) {
+        if (isTerminal(node))
+            action.accept(node);
+        for (int child = firstChildren.get(node); child >= 0; child = nextSiblings.get(child))
+            visit(child, action);
+    }
+
+    /**
+     * List the entries of a directory: the names of the directories
+     *  directly below it and of the files directly in it, each sorted.
+     * @param directory     The directory, with a trailing '/', or empty for the top level.
+     * @param directories   Receives the names of the directories.
+     * @param files         Receives the names of the files.
+     */
+    public void listDirectory(CharSequence directory, List<String> directories, List<String> files) {
+        listDirectory(directory, ALL_TYPES, directories, files);
+    }
+
+    /**
+     * List the entries of a directory holding files of the given types:
+     *  the directories directly below it with such a file anywhere below
+     *  them, and the files of those types directly in it, each sorted.
+     *  Subtrees without a matching file are never walked.
+     * @param directory     The directory, with a trailing '/', or empty for the top level.
+     * @param typeMask      The bits of the extensions to keep, or {@link #ALL_TYPES}.
+     * @param directories   Receives the names of the directories.
+     * @param files         Receives the names of the files.
+     */
+    public void listDirectory(CharSequence directory, long typeMask, List<String> directories, List<String> files) {
+        long position = descend(directory);
+        if (position < 0)
+            return;
+        collect((int) (position >>> 32), (int) position, new byte[256], 0, typeMask, directories, files);
+        directories.sort(null);
+        files.sort(null);
+    }
+
+    /**
+     * Collect the entry names below a node, starting at an offset of its label.
+     *  The walk stops below the first '/', which ends a directory name.
+     */
+    private void collect(int node, int offset, byte[] name, int length, long typeMask, List<String> directories, List<String> files) {
+        int start = labelStarts.get(node), labelLength = labelLengths.get(node);
+        for (int i = offset; i < labelLength; i++) {
+            byte b = pool.get(start + i);
+            if (b == '/') {
+                directories.add(new String(name, 0, length, StandardCharsets.ISO_8859_1));
+                return;
+            }
+            if (length == name.length)
+                name = Arrays.copyOf(name, length * 2);
+            name[length++] = b;
+        }
+        if (length > 0 && isTerminal(node)) {
+            String file = new String(name, 0, length, StandardCharsets.ISO_8859_1);
+            if (typeMask == ALL_TYPES || (getTypeBit(extensionOf(file)) & typeMask) != 0)
+                files.add(file);
+        }
+        for (int child = firstChildren.get(node); child >= 0; child = nextSiblings.get(child)) {
+            if ((typeMasks.get(child) & typeMask) != 0)
+                collect(child, 0, name, length, typeMask, directories, files);
+        }
+    }
+
+    /**
+     * Builds a tree while the cache is indexed.
+     */
+    public static final class Builder {
+
+        /**
+         * The columns of the nodes, as in the tree.
+         */
+        private int[] labelStarts = new int[1024], labelLengths = new int[1024], parents = new int[1024],
+                firstChildren = new int[1024], nextSiblings = new int[1024];
+        private long[] typeMasks = new long[1024];
+        private byte[] flags = new byte[1024];
+
+        /**
+         * The label bytes.
+         */
+        private byte[] pool = new byte[1 << 16];
+
+        /**
+         * The number of nodes and of label bytes.
+         */
+        private int nodeCount, poolSize;
+
+        /**
+         * The extension given each type mask bit.
+         */
+        private final List<String> extensions = new ArrayList<>();
+
+        /**
+         * The type mask bit of each extension.
+         */
+        private final HashMap<String, Long> extensionBits = new HashMap<>();
+
+        /**
+         * Construct a builder holding only the root.
+         *  The extensions of {@link RiotFileType} take the first bits.
+         */
+        public Builder() {
+            newNode(-1, 0, 0);
+            for (RiotFileType type : RiotFileType.values()) {
+                if (type != RiotFileType.DEFAULT)
+                    typeBit(type.getExtension());
+            }
+        }
+
+        /**
+         * Retrieve the bit of an extension, giving it the next free bit if it has none yet.
+         */
+        private long typeBit(String extension) {
+            Long bit = extensionBits.get(extension);
+            if (bit == null) {
+                if (extensions.size() == 63 || extension.length() > 255)
+                    return OTHER_TYPES;
+                bit = 1L << extensions.size();
+                extensions.add(extension);
+                extensionBits.put(extension, bit);
+            }
+            return bit;
+        }
+
+        /**
+         * Add a path to the tree.
+         * @param path  The path, in ASCII.
+         * @return The id of the terminal node of the path.
+         */
+        public int add(CharSequence path) {
+            int node = ROOT, matched = 0;
+            for (int i = 0; i < path.length(); ) {
+                int c = path.charAt(i);
+                if (matched == labelLengths[node]) {
+                    int child = -1, previous = -1;
+                    for (int n = firstChildren[node]; n >= 0; previous = n, n = nextSiblings[n]) {
+                        int first = pool[labelStarts[n]] & 0xFF;
+                        if (first >= c) {
+                            if (first == c)
+                                child = n;
+                            break;
+                        }
+                    }
+                    if (child < 0) {
+                        /**
+                         * No child continues the path; the rest of it becomes a new leaf.
+                         */
+                        int leaf = newNode(node, appendLabel(path, i), path.length() - i);
+                        link(node, previous, leaf);
+                        flags[leaf] |= TERMINAL;
+                        typeMasks[leaf] |= typeBit(extensionOf(path));
+                        return leaf;
+                    }
+                    node = child;
+                    matched = 0;
+                }
+                if ((pool[labelStarts[node] + matched] & 0xFF) != c) {
+                    node = split(node, matched);
+                    continue;
+                }
+                matched++;
+                i++;
+            }
+            if (matched < labelLengths[node])
+                node = split(node, matched);
+            flags[node] |= TERMINAL;
+            typeMasks[node] |= typeBit(extensionOf(path));
+            return node;
+        }
+
+        /**
+         * Split a node so that it ends after a number of label bytes.
+         *  The node keeps its id, children and flags for the lower part of
+         *  its label; a new node takes the upper part, so existing terminal
+         *  ids stay valid.
+         * @return The new upper node.
+         */
+        private int split(int node, int at) {
+            int parent = parents[node];
+            int upper = newNode(parent, labelStarts[node], at);
+            /**
+             * Put the upper node in place of the node among its siblings.
+             */
+            if (firstChildren[parent] == node)
+                firstChildren[parent] = upper;
+            else {
+                int n = firstChildren[parent];
+                while (nextSiblings[n] != node)
+                    n = nextSiblings[n];
+                nextSiblings[n] = upper;
+            }
+            nextSiblings[upper] = nextSiblings[node];
+            nextSiblings[node] = -1;
+            firstChildren[upper] = node;
+            parents[node] = upper;
+            labelStarts[node] += at;
+            labelLengths[node] -= at;
+            return upper;
+        }
+
+        /**
+         * Link a child after a sibling, or first if the sibling is -1.
+         */
+        private void link(int parent, int previous, int child) {
+            if (previous < 0) {
+                nextSiblings[child] = firstChildren[parent];
+                firstChildren[parent] = child;
+            } else {
+                nextSiblings[child] = nextSiblings[previous];
+                nextSiblings[previous] = child;
+            }
+        }
+
+        /**
+         * Append the rest of a path to the pool.
+         * @return The start of the label.
+         */
+        private int appendLabel(CharSequence path, int from) {
+            int length = path.length() - from;
+            if (poolSize + length > pool.length)
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+            int start = poolSize;
+            for (int i = from; i < path.length(); i++)
+                pool[poolSize++] = (byte) path.charAt(i);
+            return start;
+        }
+
+        /**
+         * Create a node.
+         */
+        private int newNode(int parent, int labelStart, int labelLength) {
+            if (nodeCount == labelStarts.length) {
+                int capacity = nodeCount * 2;
+                labelStarts = Arrays.copyOf(labelStarts, capacity);
+                labelLengths = Arrays.copyOf(labelLengths, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                typeMasks = Arrays.copyOf(typeMasks, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+            }
+            int node = nodeCount++;
+            labelStarts[node] = labelStart;
+            labelLengths[node] = labelLength;
+            parents[node] = parent;
+            firstChildren[node] = -1;
+            nextSiblings[node] = -1;
+            typeMasks[node] = 0;
+            return node;
+        }
+
+        /**
+         * Build the tree.
+         *  The type mask of every node is folded into its ancestors, in
+         *  reverse of a top down order so each node is complete before it
+         *  is folded into its parent.
+         * @return
+         */
+        public PathTree build() {
+            long[] masks = Arrays.copyOf(typeMasks, nodeCount);
+            int[] order = new int[nodeCount];
+            int count = 0;
+            order[count++] = ROOT;
+            for (int i = 0; i < count; i++) {
+                for (int child = firstChildren[order[i]]; child >= 0; child = nextSiblings[child])
+                    order[count++] = child;
+            }
+            for (int i = count - 1; i > 0; i--)
+                masks[parents[order[i]]] |= masks[order[i]];
+            return new PathTree(IntBuffer.wrap(labelStarts, 0, nodeCount).slice(), IntBuffer.wrap(labelLengths, 0, nodeCount).slice(),
+                    IntBuffer.wrap(parents, 0, nodeCount).slice(), IntBuffer.wrap(firstChildren, 0, nodeCount).slice(),
+                    IntBuffer.wrap(nextSiblings, 0, nodeCount).slice(), LongBuffer.wrap(masks), ByteBuffer.wrap(flags, 0, nodeCount).slice(),
+                    ByteBuffer.wrap(pool, 0, poolSize).slice(), new ArrayList<>(extensions));
+        }
+
+    }
+
+}
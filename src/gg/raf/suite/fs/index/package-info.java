@@ -0,0 +1,6 @@
+/**
+ * Indexes built over the whole cache at startup and persisted under
+ *  the configuration directory, answering path, release and content
+ *  queries without decoding every archive again.
+ */
+package gg.raf.suite.fs.index;
@@ -0,0 +1,428 @@
+package gg.raf.suite.fs.thumbnail;
+
+import gg.raf.suite.config.Configuration;
+import gg.raf.suite.fs.archive.ArchiveChannelPool;
+import gg.raf.suite.fs.archive.ArchiveDataFile;
+import gg.raf.suite.fs.blob.ContentFingerprint;
+import gg.raf.suite.fs.file.RiotFile;
+import gg.raf.suite.fs.file.RiotFileType;
+import gg.raf.suite.fs.file.dds.DDSFile;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of small previews of the dds textures of the cache.
+ *
+ * A thumbnail is decoded from the smallest mipmap level covering the
+ *  thumbnail size, so the full size surface of a texture with mipmaps is
+ *  never decoded. Thumbnails are keyed by the fingerprint of a sample of
+ *  the stored bytes of an entry(its first and last 4 KB, the last holding
+ *  the adler32 of the whole content) and its stored length, so a warm
+ *  lookup reads 8 KB of the archive and inflates nothing. Entries with the
+ *  same content share a thumbnail across archives and releases.
+ *
+ * Thumbnails are kept in a memory mapped file under the configuration
+ *  directory of a fixed number of fixed size slots, found by open
+ *  addressing over a few probes and overwritten in turn once those are
+ *  full; the length of a slot is written last, so a slot is whole once
+ *  its length is set. The most recently used thumbnails are also held in
+ *  memory, least recently used first out. Entries that are not a texture
+ *  are recorded too, so they are not inflated again.
+ */
+public final class ThumbnailCache {
+
+    /**
+     * The most width and height of a thumbnail.
+     */
+    public static final int THUMBNAIL_SIZE = 64;
+
+    /**
+     * The file of the thumbnails written to disk.
+     */
+    public static final File THUMBNAIL_FILE = new File(Configuration.CONFIG_DIR, "thumbnails.dat");
+
+    /**
+     * The magic number of the thumbnail file - "RAFT".
+     */
+    private static final int MAGIC = 0x54464152;
+
+    /**
+     * The version of the thumbnail file, changed whenever its layout changes.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The magic, version, slot count and thumbnail size.
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * The fingerprint(low, high and length), the width and height, then
+     *  the pixels of a thumbnail.
+     */
+    private static final int SLOT_LENGTH = 24 + THUMBNAIL_SIZE * THUMBNAIL_SIZE * 4;
+
+    /**
+     * The number of slots looked at for a thumbnail.
+     */
+    private static final int PROBES = 16;
+
+    /**
+     * The number of bytes sampled from each end of an entry.
+     */
+    private static final int SAMPLE_LENGTH = 4 * 1024;
+
+    /**
+     * The first byte of a zlib stream using a 32 KB window.
+     */
+    private static final byte ZLIB_HEADER = 0x78;
+
+    /**
+     * Held in memory for entries that are not a texture.
+     */
+    private static final BufferedImage NO_THUMBNAIL = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    /**
+     * The cache shared by the application.
+     */
+    private static final ThumbnailCache cache = new ThumbnailCache(4096, 2048, THUMBNAIL_FILE);
+
+    /**
+     * The number of slots of the thumbnail file, a power of two.
+     */
+    private final int slotCount;
+
+    /**
+     * The thumbnails held in memory by fingerprint, in access order.
+     */
+    private final LinkedHashMap<ContentFingerprint, BufferedImage> thumbnails;
+
+    /**
+     * The thumbnail file, or null to keep thumbnails in memory only.
+     */
+    private final File file;
+
+    /**
+     * The mapped thumbnail file, or null until it is opened or if it could not be.
+     */
+    private MappedByteBuffer slots;
+
+    /**
+     * Has the thumbnail file been opened?
+     */
+    private boolean opened;
+
+    /**
+     * The slot overwritten next when every probed slot is in use.
+     */
+    private int victim;
+
+    /**
+     * The number of lookups served from memory, from disk and by decoding.
+     */
+    private long hits, diskHits, misses;
+
+    /**
+     * Construct a thumbnail cache.
+     * @param slotCount     The number of slots of the thumbnail file, a power of two.
+     * @param memoryCount   The most thumbnails held in memory.
+     * @param file          The thumbnail file, or null.
+     */
+    public ThumbnailCache(int slotCount, final int memoryCount, File file) {
+        if (Integer.bitCount(slotCount) != 1)
+            throw new IllegalArgumentException("The slot count must be a power of two: " + slotCount);
+        this.slotCount = slotCount;
+        this.file = file;
+        this.thumbnails = new LinkedHashMap<ContentFingerprint, BufferedImage>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ContentFingerprint, BufferedImage> eldest) {
+                return size() > memoryCount;
+            }
+        };
+    }
+
+    /**
+     * Retrieve the cache shared by the application.
+     * @return
+     */
+    public static ThumbnailCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Retrieve the thumbnail of an entry, decoding it only if no entry with
+     *  the same content has been seen before.
+     * @param dataFile  The data file holding the entry.
+     * @param entry     The file entry.
+     * @return The thumbnail, at most {@link #THUMBNAIL_SIZE} wide and high,
+     *  or null if the entry is not a texture that can be decoded.
+     *  Thumbnails are shared and must not be modified.
+     * @throws IOException
+     */
+    public BufferedImage getThumbnail(ArchiveDataFile dataFile, RiotFile entry) throws IOException {
+        if (entry.getDataSize() <= 0)
+            return null;
+        ContentFingerprint fingerprint;
+        byte[] entryData = null;
+        long offset = entry.getDataOffset() & 0xFFFFFFFFL;
+        try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(dataFile.getDataFile())) {
+            fingerprint = entry.getDataSize() > 2 * SAMPLE_LENGTH ? sample(lease, offset, entry.getDataSize()) : null;
+            if (fingerprint == null) {
+                entryData = lease.read(offset, entry.getDataSize());
+                fingerprint = ContentFingerprint.of(entryData);
+            }
+        }
+        synchronized (this) {
+            BufferedImage thumbnail = thumbnails.get(fingerprint);
+            if (thumbnail == null && (thumbnail = readSlot(fingerprint)) != null)
+                thumbnails.put(fingerprint, thumbnail);
+            else if (thumbnail != null)
+                hits++;
+            if (thumbnail != null)
+                return thumbnail == NO_THUMBNAIL ? null : thumbnail;
+        }
+        if (entryData == null) {
+            try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(dataFile.getDataFile())) {
+                entryData = lease.read(offset, entry.getDataSize());
+            }
+        }
+        /**
+         * Inflated here rather than through the blob store, so a pass over
+         *  a directory does not push every texture through its budget.
+         */
+        byte[] data = ArchiveDataFile.inflate(entryData);
+        BufferedImage thumbnail = render(data != null ? data : entryData);
+        synchronized (this) {
+            misses++;
+            writeSlot(fingerprint, thumbnail);
+            thumbnails.put(fingerprint, thumbnail == null ? NO_THUMBNAIL : thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Fingerprint an entry by its first and last {@link #SAMPLE_LENGTH} bytes.
+     *  Only zlib streams are sampled, as their checksummed tail depends on
+     *  every byte; anything else must be fingerprinted whole.
+     * @param lease     The lease on the data file.
+     * @param offset    The offset of the entry in the data file.
+     * @param size      The size of the entry.
+     * @return The fingerprint, or null if the entry is not a zlib stream.
+     * @throws IOException
+     */
+    private static ContentFingerprint sample(ArchiveChannelPool.Lease lease, long offset, int size) throws IOException {
+        byte[] sample = new byte[2 * SAMPLE_LENGTH];
+        ByteBuffer buffer = ByteBuffer.wrap(sample);
+        buffer.limit(SAMPLE_LENGTH);
+        lease.read(offset, buffer);
+        if (sample[0] != ZLIB_HEADER)
+            return null;
+        buffer.limit(sample.length);
+        lease.read(offset + size - SAMPLE_LENGTH, buffer);
+        return ContentFingerprint.ofSample(sample, 0, sample.length, size);
+    }
+
+    /**
+     * Decode the thumbnail of a texture from the smallest mipmap level
+     *  covering the thumbnail size.
+     * @param data The content of the entry.
+     * @return The thumbnail, or null if the content is not a texture that can be decoded.
+     */
+    private static BufferedImage render(byte[] data) {
+        if (RiotFileType.typeForMagic(data, 0, data.length) != RiotFileType.DDS)
+            return null;
+        DDSFile texture = new DDSFile(0, 0, data.length, 0);
+        texture.setFileData(data);
+        try {
+            texture.decodeHeader();
+            int width = texture.getMipmapWidth(0);
+            int height = texture.getMipmapHeight(0);
+            double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(width, height));
+            int thumbnailWidth = Math.max(1, (int) Math.round(width * scale));
+            int thumbnailHeight = Math.max(1, (int) Math.round(height * scale));
+            BufferedImage image = texture.decodeMipmap(texture.selectMipmap(thumbnailWidth, thumbnailHeight));
+            if (image == null)
+                return null;
+            return scale(image, thumbnailWidth, thumbnailHeight);
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Scale an image down to a size, halving it a step at a time so every
+     *  source pixel is weighed even without a mipmap of the size.
+     * @return An argb image of the size.
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage result = image;
+        int w = image.getWidth(), h = image.getHeight();
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+            BufferedImage step = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(result, 0, 0, w, h, null);
+            graphics.dispose();
+            result = step;
+        } while (w > width || h > height);
+        return result;
+    }
+
+    /**
+     * Map the thumbnail file, creating it if it is missing or of another
+     *  layout. Thumbnails are kept in memory only if it cannot be mapped.
+     */
+    private void open() {
+        opened = true;
+        if (file == null)
+            return;
+        long length = HEADER_LENGTH + (long) slotCount * SLOT_LENGTH;
+        try {
+            File directory = file.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+                return;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                FileChannel channel = raf.getChannel();
+                boolean current = false;
+                if (channel.size() == length) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+                    channel.read(header, 0);
+                    current = header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                            && header.getInt(8) == slotCount && header.getInt(12) == THUMBNAIL_SIZE;
+                }
+                if (!current) {
+                    /**
+                     * Truncated first so every slot reads back empty.
+                     */
+                    raf.setLength(0);
+                    raf.setLength(length);
+                }
+                slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+                slots.order(ByteOrder.LITTLE_ENDIAN);
+                if (!current) {
+                    slots.putInt(4, VERSION);
+                    slots.putInt(8, slotCount);
+                    slots.putInt(12, THUMBNAIL_SIZE);
+                    slots.putInt(0, MAGIC);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            slots = null;
+        }
+    }
+
+    /**
+     * Retrieve the position of a probe of a fingerprint.
+     */
+    private int slotPosition(ContentFingerprint fingerprint, int probe) {
+        int slot = ((int) fingerprint.getHigh() + probe) & (slotCount - 1);
+        return HEADER_LENGTH + slot * SLOT_LENGTH;
+    }
+
+    /**
+     * Read the thumbnail of a fingerprint from the thumbnail file.
+     * @return The thumbnail, {@link #NO_THUMBNAIL}, or null if it is not in the file.
+     */
+    private BufferedImage readSlot(ContentFingerprint fingerprint) {
+        if (!opened)
+            open();
+        if (slots == null)
+            return null;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int position = slotPosition(fingerprint, probe);
+            if (slots.getInt(position + 16) != fingerprint.getSize() || slots.getLong(position) != fingerprint.getLow()
+                    || slots.getLong(position + 8) != fingerprint.getHigh())
+                continue;
+            diskHits++;
+            int width = slots.getShort(position + 20), height = slots.getShort(position + 22);
+            if (width <= 0 || height <= 0)
+                return NO_THUMBNAIL;
+            BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt) thumbnail.getRaster().getDataBuffer()).getData();
+            ByteBuffer view = slots.duplicate();
+            view.position(position + 24);
+            view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(pixels, 0, width * height);
+            return thumbnail;
+        }
+        return null;
+    }
+
+    /**
+     * Write the thumbnail of a fingerprint to the first free probed slot, or
+     *  over one of them if every one is in use.
+     * @param thumbnail The thumbnail, or null if the entry is not a texture.
+     */
+    private void writeSlot(ContentFingerprint fingerprint, BufferedImage thumbnail) {
+        if (!opened)
+            open();
+        if (slots == null)
+            return;
+        int position = -1;
+        for (int probe = 0; probe < PROBES && position < 0; probe++) {
+            if (slots.getInt(slotPosition(fingerprint, probe) + 16) == 0)
+                position = slotPosition(fingerprint, probe);
+        }
+        if (position < 0)
+            position = slotPosition(fingerprint, victim++ & (PROBES - 1));
+        slots.putInt(position + 16, 0);
+        slots.putLong(position, fingerprint.getLow());
+        slots.putLong(position + 8, fingerprint.getHigh());
+        if (thumbnail != null) {
+            int width = thumbnail.getWidth(), height = thumbnail.getHeight();
+            slots.putShort(position + 20, (short) width);
+            slots.putShort(position + 22, (short) height);
+            int[] pixels = new int[width * height];
+            thumbnail.getRGB(0, 0, width, height, pixels, 0, width);
+            ByteBuffer view = slots.duplicate();
+            view.position(position + 24);
+            view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(pixels);
+        } else {
+            slots.putShort(position + 20, (short) 0);
+            slots.putShort(position + 22, (short) 0);
+        }
+        slots.putInt(position + 16, fingerprint.getSize());
+    }
+
+    /**
+     * Retrieve the number of thumbnails served from memory.
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Retrieve the number of thumbnails read from the thumbnail file.
+     * @return
+     */
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    /**
+     * Retrieve the number of thumbnails decoded.
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+}
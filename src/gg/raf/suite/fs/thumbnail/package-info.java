@@ -0,0 +1,5 @@
+/**
+ * Small previews of the textures of the cache, kept on disk by content
+ *  and served to the interface from memory.
+ */
+package gg.raf.suite.fs.thumbnail;
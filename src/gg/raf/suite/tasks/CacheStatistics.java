@@ -0,0 +1,454 @@
+package gg.raf.suite.tasks;
+
+import gg.raf.suite.fs.archive.ArchiveChannelPool;
+import gg.raf.suite.fs.archive.ArchiveEntry;
+import gg.raf.suite.fs.archive.ReleaseManifest;
+import gg.raf.suite.fs.container.ArchiveContainer;
+import gg.raf.suite.fs.file.RiotFile;
+import gg.raf.suite.fs.index.PathTree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Totals the entries of the cache by type, release and directory: entry
+ *  counts, compressed sizes, uncompressed sizes and compression ratios.
+ *
+ * Counts and compressed sizes come from the archive indexes alone.
+ *  Uncompressed sizes depend on the {@link Mode}: none, estimated from a
+ *  sample of entries inflated to a scratch buffer, or exact from inflating
+ *  every entry. Entries are streamed in parallel into per thread
+ *  accumulators of primitive columns, which are added together at the end.
+ */
+public class CacheStatistics implements Runnable {
+
+    /**
+     * How uncompressed sizes are found.
+     */
+    public enum Mode {
+
+        /**
+         * From the indexes only; uncompressed sizes are unknown.
+         */
+        INDEX,
+
+        /**
+         * Inflate a sample of the entries and scale each group by its sampled ratio.
+         */
+        SAMPLED,
+
+        /**
+         * Inflate every entry.
+         */
+        EXACT
+
+    }
+
+    /**
+     * The grouping dimensions.
+     */
+    private static final int TYPE = 0, RELEASE = 1, DIRECTORY = 2, DIMENSIONS = 3;
+
+    /**
+     * The cache directory.
+     */
+    private final String rootPath;
+
+    /**
+     * How uncompressed sizes are found.
+     */
+    private final Mode mode;
+
+    /**
+     * One in how many entries is inflated in sampled mode.
+     */
+    private int sampleRate = 32;
+
+    /**
+     * The number of leading path components naming a directory group.
+     */
+    private int directoryDepth = 2;
+
+    /**
+     * The id of each group name, per dimension.
+     */
+    private final List<Map<String, Integer>> groupIds = new ArrayList<>();
+
+    /**
+     * The next group id, per dimension.
+     */
+    private final AtomicInteger[] nextIds = new AtomicInteger[DIMENSIONS];
+
+    /**
+     * The totals of each dimension, once run.
+     */
+    private List<List<Statistic>> statistics;
+
+    /**
+     * The totals of the whole cache, once run.
+     */
+    private Statistic total;
+
+    /**
+     * Construct a statistics job.
+     * @param rootPath  The cache directory containing release directories.
+     * @param mode      How uncompressed sizes are found.
+     */
+    public CacheStatistics(String rootPath, Mode mode) {
+        this.rootPath = rootPath;
+        this.mode = mode;
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            groupIds.add(new ConcurrentHashMap<>());
+            nextIds[dimension] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Set one in how many entries is inflated in sampled mode; 32 by default.
+     * @param sampleRate
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Set the number of leading path components naming a directory group; 2 by default, i.e "DATA/Characters".
+     * @param directoryDepth
+     */
+    public void setDirectoryDepth(int directoryDepth) {
+        this.directoryDepth = directoryDepth;
+    }
+
+    @Override
+    public void run() {
+        ConcurrentLinkedQueue<Inflater> created = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> {
+            Inflater inflater = new Inflater();
+            created.add(inflater);
+            return inflater;
+        });
+        ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+        Accumulator accumulator;
+        try (Stream<ArchiveEntry> entries = new ArchiveContainer(rootPath, new ArrayList<>())
+                .stream(ArchiveContainer.DEFAULT_OPEN_ARCHIVES, true)) {
+            accumulator = entries.collect(Accumulator::new,
+                    (a, entry) -> add(a, entry, inflaters.get(), buffers.get()), Accumulator::combine);
+        } finally {
+            for (Inflater inflater : created)
+                inflater.end();
+        }
+        /**
+         * Groups without a sample are scaled by the ratio of the whole sample.
+         */
+        double overallRatio = 0;
+        long sampledCompressed = 0, sampledUncompressed = 0;
+        for (int id = 0; id < accumulator.counts[TYPE].length; id++) {
+            sampledCompressed += accumulator.sampledCompressed[TYPE][id];
+            sampledUncompressed += accumulator.uncompressed[TYPE][id];
+        }
+        if (sampledCompressed > 0)
+            overallRatio = (double) sampledUncompressed / sampledCompressed;
+        List<List<Statistic>> statistics = new ArrayList<>();
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            List<Statistic> groups = new ArrayList<>();
+            for (Map.Entry<String, Integer> group : groupIds.get(dimension).entrySet()) {
+                int id = group.getValue();
+                if (id >= accumulator.counts[dimension].length)
+                    continue;
+                groups.add(new Statistic(group.getKey(), accumulator.counts[dimension][id], accumulator.compressed[dimension][id],
+                        uncompressedSize(accumulator, dimension, id, overallRatio), mode == Mode.SAMPLED));
+            }
+            statistics.add(groups);
+        }
+        statistics.get(TYPE).sort(Comparator.comparingLong(Statistic::getCompressedSize).reversed());
+        statistics.get(RELEASE).sort((a, b) -> ReleaseManifest.compareReleaseNumbers(a.getName(), b.getName()));
+        statistics.get(DIRECTORY).sort(Comparator.comparing(Statistic::getName));
+        long count = 0, compressed = 0, uncompressed = 0;
+        for (Statistic type : statistics.get(TYPE)) {
+            count += type.getCount();
+            compressed += type.getCompressedSize();
+            uncompressed += type.getUncompressedSize();
+        }
+        this.total = new Statistic("Total", count, compressed, mode == Mode.INDEX ? -1 : uncompressed, mode == Mode.SAMPLED);
+        this.statistics = statistics;
+    }
+
+    /**
+     * Add an entry to the totals of its groups.
+     */
+    private void add(Accumulator accumulator, ArchiveEntry entry, Inflater inflater, byte[] buffer) {
+        RiotFile file = entry.getEntry();
+        String path = entry.getPath();
+        int[] ids = {
+                groupId(TYPE, PathTree.extensionOf(path)),
+                groupId(RELEASE, entry.getManifest().getReleaseNumber()),
+                groupId(DIRECTORY, directoryOf(path))
+        };
+        long uncompressed = -1;
+        if (mode == Mode.EXACT || (mode == Mode.SAMPLED && isSampled(file)))
+            uncompressed = inflatedSize(entry, inflater, buffer);
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++)
+            accumulator.add(dimension, ids[dimension], file.getDataSize(), uncompressed);
+    }
+
+    /**
+     * Is an entry in the sample? The choice is made from the high bits of
+     *  the mixed path hash, since the low bits of the path hash follow the
+     *  extension, so the same entries are sampled every run.
+     */
+    private boolean isSampled(RiotFile file) {
+        return ((file.getHash() * 0x9E3779B1) >>> 8) % sampleRate == 0;
+    }
+
+    /**
+     * Retrieve the uncompressed size of a group, sampled, exact or -1 if unknown.
+     */
+    private long uncompressedSize(Accumulator accumulator, int dimension, int id, double overallRatio) {
+        switch (mode) {
+            case EXACT:
+                return accumulator.uncompressed[dimension][id];
+            case SAMPLED:
+                long sampled = accumulator.sampledCompressed[dimension][id];
+                double ratio = sampled > 0 ? (double) accumulator.uncompressed[dimension][id] / sampled : overallRatio;
+                return Math.round(accumulator.compressed[dimension][id] * ratio);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Retrieve the id of a group, assigning the next one to a new group.
+     */
+    private int groupId(int dimension, String name) {
+        return groupIds.get(dimension).computeIfAbsent(name, key -> nextIds[dimension].getAndIncrement());
+    }
+
+    /**
+     * Retrieve the leading directories of a path, up to the directory depth.
+     */
+    private String directoryOf(String path) {
+        int end = -1;
+        for (int i = 0; i < directoryDepth; i++) {
+            int next = path.indexOf('/', end + 1);
+            if (next < 0)
+                break;
+            end = next;
+        }
+        return end < 0 ? "" : path.substring(0, end);
+    }
+
+    /**
+     * Count the bytes an entry inflates to, inflating into a scratch buffer.
+     * @return The inflated size, or the stored size if the entry is not compressed.
+     */
+    private static long inflatedSize(ArchiveEntry entry, Inflater inflater, byte[] buffer) {
+        RiotFile file = entry.getEntry();
+        byte[] stored;
+        try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(entry.getArchive().getArchiveDataFile().getDataFile())) {
+            stored = new byte[file.getDataSize()];
+            lease.read(file.getDataOffset() & 0xFFFFFFFFL, ByteBuffer.wrap(stored));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return file.getDataSize();
+        }
+        inflater.reset();
+        inflater.setInput(stored);
+        long size = 0;
+        try {
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    return stored.length;
+                size += length;
+            }
+        } catch (DataFormatException e) {
+            return stored.length;
+        }
+        return size;
+    }
+
+    /**
+     * Retrieve the totals of each file type, largest first.
+     * @return
+     */
+    public List<Statistic> getTypeStatistics() {
+        return statistics.get(TYPE);
+    }
+
+    /**
+     * Retrieve the totals of each release, oldest first.
+     * @return
+     */
+    public List<Statistic> getReleaseStatistics() {
+        return statistics.get(RELEASE);
+    }
+
+    /**
+     * Retrieve the totals of each directory, sorted.
+     * @return
+     */
+    public List<Statistic> getDirectoryStatistics() {
+        return statistics.get(DIRECTORY);
+    }
+
+    /**
+     * Retrieve the totals of the whole cache.
+     * @return
+     */
+    public Statistic getTotal() {
+        return total;
+    }
+
+    /**
+     * Format the totals as a text report.
+     * @return
+     */
+    public String formatReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Cache statistics (%s)%n", mode.name().toLowerCase()));
+        append(report, total);
+        String[] titles = { "Types", "Releases", "Directories" };
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            report.append(String.format("%n%s%n", titles[dimension]));
+            for (Statistic statistic : statistics.get(dimension))
+                append(report, statistic);
+        }
+        return report.toString();
+    }
+
+    private static void append(StringBuilder report, Statistic statistic) {
+        String name = statistic.getName().isEmpty() ? "(none)" : statistic.getName();
+        if (statistic.getUncompressedSize() < 0)
+            report.append(String.format("  %-32s %9d entries %,15d bytes%n", name, statistic.getCount(), statistic.getCompressedSize()));
+        else
+            report.append(String.format("  %-32s %9d entries %,15d bytes %,15d %s %6.2f%%%n", name, statistic.getCount(),
+                    statistic.getCompressedSize(), statistic.getUncompressedSize(), statistic.isEstimated() ? "est." : "inflated",
+                    statistic.getRatio() * 100));
+    }
+
+    /**
+     * The per thread totals of every group, as primitive columns indexed by dimension and group id.
+     */
+    private static final class Accumulator {
+
+        private final long[][] counts = new long[DIMENSIONS][0];
+        private final long[][] compressed = new long[DIMENSIONS][0];
+
+        /**
+         * The inflated bytes of the entries inflated.
+         */
+        private final long[][] uncompressed = new long[DIMENSIONS][0];
+
+        /**
+         * The compressed bytes of the entries inflated.
+         */
+        private final long[][] sampledCompressed = new long[DIMENSIONS][0];
+
+        private void add(int dimension, int id, long compressedSize, long uncompressedSize) {
+            if (id >= counts[dimension].length)
+                grow(dimension, Math.max(id + 1, counts[dimension].length * 2));
+            counts[dimension][id]++;
+            compressed[dimension][id] += compressedSize;
+            if (uncompressedSize >= 0) {
+                uncompressed[dimension][id] += uncompressedSize;
+                sampledCompressed[dimension][id] += compressedSize;
+            }
+        }
+
+        private void grow(int dimension, int length) {
+            counts[dimension] = Arrays.copyOf(counts[dimension], length);
+            compressed[dimension] = Arrays.copyOf(compressed[dimension], length);
+            uncompressed[dimension] = Arrays.copyOf(uncompressed[dimension], length);
+            sampledCompressed[dimension] = Arrays.copyOf(sampledCompressed[dimension], length);
+        }
+
+        private void combine(Accumulator other) {
+            for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+                if (other.counts[dimension].length > counts[dimension].length)
+                    grow(dimension, other.counts[dimension].length);
+                for (int id = 0; id < other.counts[dimension].length; id++) {
+                    counts[dimension][id] += other.counts[dimension][id];
+                    compressed[dimension][id] += other.compressed[dimension][id];
+                    uncompressed[dimension][id] += other.uncompressed[dimension][id];
+                    sampledCompressed[dimension][id] += other.sampledCompressed[dimension][id];
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The totals of a group of entries.
+     */
+    public static final class Statistic {
+
+        private final String name;
+        private final long count;
+        private final long compressedSize;
+        private final long uncompressedSize;
+        private final boolean estimated;
+
+        private Statistic(String name, long count, long compressedSize, long uncompressedSize, boolean estimated) {
+            this.name = name;
+            this.count = count;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.estimated = estimated;
+        }
+
+        /**
+         * The extension, release number or directory of the group.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The number of entries.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * The stored bytes of the entries.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * The inflated bytes of the entries, -1 if unknown.
+         */
+        public long getUncompressedSize() {
+            return uncompressedSize;
+        }
+
+        /**
+         * Is the uncompressed size estimated from a sample?
+         */
+        public boolean isEstimated() {
+            return estimated;
+        }
+
+        /**
+         * The compressed size over the uncompressed size, -1 if unknown.
+         */
+        public double getRatio() {
+            return uncompressedSize <= 0 ? -1 : (double) compressedSize / uncompressedSize;
+        }
+
+    }
+
+}
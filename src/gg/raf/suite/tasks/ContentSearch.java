@@ -0,0 +1,415 @@
+package gg.raf.suite.tasks;
+
+import gg.raf.suite.fs.archive.ArchiveChannelPool;
+import gg.raf.suite.fs.archive.ArchiveEntry;
+import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.container.ArchiveContainer;
+import gg.raf.suite.fs.container.ArchiveSpliterator;
+import gg.raf.suite.fs.file.PathTable;
+import gg.raf.suite.fs.file.RiotFile;
+import gg.raf.suite.utilities.AhoCorasick;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Searches the content of every entry of the cache for a set of strings.
+ *
+ * Entries are streamed from the archives in parallel and inflated in
+ *  chunks into a per thread buffer, which is scanned by an
+ *  {@link AhoCorasick} automaton as it is filled; no entry is ever held
+ *  whole and no String is built until a match is reported. Matches are
+ *  passed to the listener as they are found, from the worker threads.
+ */
+public class ContentSearch implements Runnable {
+
+    /**
+     * The size of the inflate window scanned at once.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * The cache directory.
+     */
+    private final String rootPath;
+
+    /**
+     * The strings searched for.
+     */
+    private final List<String> patterns;
+
+    /**
+     * Receives every match.
+     */
+    private final Consumer<ContentMatch> listener;
+
+    /**
+     * The extensions of the entries to search, lower case with a leading '.', or empty for every entry.
+     */
+    private final List<String> extensions = new ArrayList<>();
+
+    /**
+     * The release numbers to search, or null for every release.
+     */
+    private Set<String> releases;
+
+    /**
+     * Whether ASCII letters match regardless of case.
+     */
+    private boolean ignoreCase = true;
+
+    /**
+     * The number of matches after which the search stops.
+     */
+    private int limit = Integer.MAX_VALUE;
+
+    /**
+     * The number of threads used.
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Set once the limit is reached or the search is cancelled.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * The number of matches reported.
+     */
+    private final AtomicInteger matchCount = new AtomicInteger();
+
+    /**
+     * The number of entries and inflated bytes scanned.
+     */
+    private final AtomicLong entriesScanned = new AtomicLong(), bytesScanned = new AtomicLong();
+
+    /**
+     * Construct a content search.
+     * @param rootPath  The cache directory containing release directories.
+     * @param patterns  The strings to search for.
+     * @param listener  Receives every match, from the worker threads.
+     */
+    public ContentSearch(String rootPath, Collection<String> patterns, Consumer<ContentMatch> listener) {
+        this.rootPath = rootPath;
+        this.patterns = new ArrayList<>(patterns);
+        this.listener = listener;
+    }
+
+    /**
+     * Only search entries with one of the given extensions.
+     * @param extensions    The extensions, i.e "inibin" or "skn".
+     */
+    public void setExtensions(Collection<String> extensions) {
+        this.extensions.clear();
+        for (String extension : extensions)
+            this.extensions.add("." + extension.toLowerCase());
+    }
+
+    /**
+     * Only search entries of the given releases.
+     * @param releases  The release numbers, or null for every release.
+     */
+    public void setReleases(Collection<String> releases) {
+        this.releases = releases == null ? null : new HashSet<>(releases);
+    }
+
+    /**
+     * Set whether ASCII letters match regardless of case; true by default.
+     * @param ignoreCase
+     */
+    public void setIgnoreCase(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Stop the search once a number of matches have been reported.
+     * @param limit
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Set the number of threads used; every core by default.
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Stop the search as soon as possible.
+     */
+    public void cancel() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        byte[][] needles = new byte[patterns.size()][];
+        for (int i = 0; i < needles.length; i++)
+            needles[i] = patterns.get(i).getBytes(StandardCharsets.UTF_8);
+        AhoCorasick matcher = new AhoCorasick(needles, ignoreCase);
+        ConcurrentLinkedQueue<Scanner> created = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Scanner> scanners = ThreadLocal.withInitial(() -> {
+            Scanner scanner = new Scanner(matcher);
+            created.add(scanner);
+            return scanner;
+        });
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (Stream<ArchiveEntry> entries = ArchiveContainer.stream(listArchives(), parallelism * 2, true)) {
+            /**
+             * anyMatch short-circuits, so the stream stops opening archives once stopped.
+             */
+            pool.submit(() -> entries
+                    .filter(this::accepts)
+                    .anyMatch(entry -> {
+                        if (!stopped)
+                            scanners.get().scan(entry);
+                        return stopped;
+                    })).get();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+            for (Scanner scanner : created)
+                scanner.inflater.end();
+        }
+    }
+
+    /**
+     * List the archives of the releases to search, by their release
+     *  directory, so the other archives are never decoded.
+     */
+    private File[] listArchives() {
+        File[] archives = ArchiveSpliterator.listArchives(new File(rootPath));
+        if (releases == null)
+            return archives;
+        List<File> accepted = new ArrayList<>();
+        for (File file : archives) {
+            if (releases.contains(file.getAbsoluteFile().getParentFile().getName()))
+                accepted.add(file);
+        }
+        return accepted.toArray(new File[accepted.size()]);
+    }
+
+    /**
+     * Should an entry be searched?
+     */
+    private boolean accepts(ArchiveEntry entry) {
+        if (extensions.isEmpty())
+            return true;
+        PathTable pathTable = entry.getArchive().getPathTable();
+        int pathIndex = entry.getEntry().getPathListIndex();
+        for (String extension : extensions) {
+            if (pathTable.endsWithIgnoreCase(pathIndex, extension))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Report a match unless the limit has been reached.
+     * @return False once the search should stop.
+     */
+    private boolean report(ArchiveEntry entry, int pattern, long offset) {
+        if (stopped)
+            return false;
+        int count = matchCount.incrementAndGet();
+        if (count > limit) {
+            stopped = true;
+            return false;
+        }
+        listener.accept(new ContentMatch(entry.getPath(), entry.getManifest().getReleaseNumber(),
+                entry.getManifest().getReleaseName(), patterns.get(pattern), offset));
+        if (count == limit)
+            stopped = true;
+        return true;
+    }
+
+    /**
+     * Retrieve the number of matches reported.
+     * @return
+     */
+    public int getMatchCount() {
+        return Math.min(matchCount.get(), limit);
+    }
+
+    /**
+     * Retrieve the number of entries scanned.
+     * @return
+     */
+    public long getEntriesScanned() {
+        return entriesScanned.get();
+    }
+
+    /**
+     * Retrieve the number of inflated bytes scanned.
+     * @return
+     */
+    public long getBytesScanned() {
+        return bytesScanned.get();
+    }
+
+    /**
+     * The buffers and inflater of a worker thread, reused for every entry.
+     */
+    private final class Scanner {
+
+        /**
+         * The automaton shared by every thread.
+         */
+        private final AhoCorasick matcher;
+
+        /**
+         * The inflater, reset for every entry.
+         */
+        private final Inflater inflater = new Inflater();
+
+        /**
+         * The inflate window.
+         */
+        private final byte[] window = new byte[WINDOW_SIZE];
+
+        /**
+         * The compressed data of the entry, grown as needed.
+         */
+        private byte[] compressed = new byte[WINDOW_SIZE];
+
+        /**
+         * The patterns already reported for the current entry.
+         */
+        private final boolean[] reported;
+
+        private Scanner(AhoCorasick matcher) {
+            this.matcher = matcher;
+            this.reported = new boolean[matcher.getPatternCount()];
+        }
+
+        /**
+         * Scan an entry, reporting the first match of each pattern.
+         */
+        private void scan(ArchiveEntry entry) {
+            RiotFile file = entry.getEntry();
+            int size = file.getDataSize();
+            if (compressed.length < size)
+                compressed = new byte[Math.max(size, compressed.length * 2)];
+            ArchiveFile archive = entry.getArchive();
+            try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(archive.getArchiveDataFile().getDataFile())) {
+                lease.read(file.getDataOffset() & 0xFFFFFFFFL, ByteBuffer.wrap(compressed, 0, size));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Arrays.fill(reported, false);
+            AhoCorasick.MatchHandler handler = (pattern, end) -> {
+                if (reported[pattern])
+                    return true;
+                reported[pattern] = true;
+                return report(entry, pattern, end - matcher.getLength(pattern));
+            };
+            long scanned = 0;
+            int state = AhoCorasick.START;
+            inflater.reset();
+            inflater.setInput(compressed, 0, size);
+            try {
+                while (!inflater.finished() && state >= 0) {
+                    int length = inflater.inflate(window);
+                    if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    state = matcher.scan(state, window, 0, length, scanned, handler);
+                    scanned += length;
+                }
+            } catch (DataFormatException e) {
+                /**
+                 * Not compressed; scan the stored bytes.
+                 */
+                if (scanned == 0) {
+                    matcher.scan(AhoCorasick.START, compressed, 0, size, 0, handler);
+                    scanned = size;
+                }
+            }
+            entriesScanned.incrementAndGet();
+            bytesScanned.addAndGet(scanned);
+        }
+
+    }
+
+    /**
+     * A string found in an entry.
+     */
+    public static final class ContentMatch {
+
+        private final String path;
+        private final String releaseNumber;
+        private final String releaseName;
+        private final String pattern;
+        private final long offset;
+
+        private ContentMatch(String path, String releaseNumber, String releaseName, String pattern, long offset) {
+            this.path = path;
+            this.releaseNumber = releaseNumber;
+            this.releaseName = releaseName;
+            this.pattern = pattern;
+            this.offset = offset;
+        }
+
+        /**
+         * The path of the entry.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * The release number of the archive holding the entry.
+         */
+        public String getReleaseNumber() {
+            return releaseNumber;
+        }
+
+        /**
+         * The name of the archive holding the entry.
+         */
+        public String getReleaseName() {
+            return releaseName;
+        }
+
+        /**
+         * The string found.
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * The offset of the first occurrence in the inflated entry.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return releaseNumber + "/" + releaseName + ":" + path + "@" + offset + " \"" + pattern + "\"";
+        }
+
+    }
+
+}
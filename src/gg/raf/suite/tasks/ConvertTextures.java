@@ -0,0 +1,329 @@
+package gg.raf.suite.tasks;
+
+import gg.raf.suite.RAFSuite;
+import gg.raf.suite.fs.archive.ArchiveChannelPool;
+import gg.raf.suite.fs.archive.ArchiveDataFile;
+import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
+import gg.raf.suite.fs.file.RiotFile;
+import gg.raf.suite.fs.file.RiotFileType;
+import gg.raf.suite.fs.file.dds.DDSFile;
+import gg.raf.suite.fs.index.CacheIndex;
+import gg.raf.suite.fs.index.PathHashIndex;
+import gg.raf.suite.fs.index.PathTree;
+import gg.raf.suite.utilities.PngWriter;
+import javafx.application.Platform;
+import javafx.scene.control.TextArea;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts the dds textures of the cache to png files.
+ *
+ * The textures under a path prefix, of a single release or the latest
+ *  release of each, are streamed through three stages: their stored bytes
+ *  are read on the calling thread in archive order, then inflated and
+ *  decoded on one pool and encoded by the {@link PngWriter} and written on
+ *  another. Both pools have a thread per core and a bounded queue, and a
+ *  full queue makes the stage feeding it run the task itself, so only a
+ *  few textures per core are held in memory whatever the number converted.
+ *
+ * Every png is written next to a manifest listing the textures converted,
+ *  one line each once its png is whole. Running the conversion again into
+ *  the same directory skips the textures already listed, so an interrupted
+ *  conversion resumes where it stopped.
+ */
+public class ConvertTextures implements Runnable {
+
+    /**
+     * The name of the manifest in the output directory.
+     */
+    public static final String MANIFEST_NAME = "manifest.txt";
+
+    /**
+     * The number of textures queued for each thread of a stage.
+     */
+    private static final int QUEUE_PER_THREAD = 2;
+
+    /**
+     * The least time between two progress reports, in milliseconds.
+     */
+    private static final long REPORT_INTERVAL = 5000;
+
+    /**
+     * The index of the cache.
+     */
+    private final CacheIndex index;
+
+    /**
+     * The prefix of the paths converted, empty for every path.
+     */
+    private final String prefix;
+
+    /**
+     * The release converted, or null for the latest release of each texture.
+     */
+    private final String releaseNumber;
+
+    /**
+     * The directory to write the png files and manifest to.
+     */
+    private final File outputDir;
+
+    /**
+     * A reference to the logger, or null.
+     */
+    private final TextArea logger;
+
+    /**
+     * The number of textures converted and failed, and the bytes of png written.
+     */
+    private final AtomicInteger converted = new AtomicInteger(), failed = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * The manifest, appended to as textures are converted.
+     */
+    private Writer manifest;
+
+    /**
+     * Construct a conversion.
+     * @param index         The index of the cache.
+     * @param prefix        The prefix of the paths converted, empty for every path.
+     * @param releaseNumber The release converted, or null for the latest release of each texture.
+     * @param outputDir     The directory to write the png files and manifest to.
+     * @param logger        The logger, or null.
+     */
+    public ConvertTextures(CacheIndex index, String prefix, String releaseNumber, File outputDir, TextArea logger) {
+        this.index = index;
+        this.prefix = prefix;
+        this.releaseNumber = releaseNumber;
+        this.outputDir = outputDir;
+        this.logger = logger;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int releaseId = -1;
+            if (releaseNumber != null && (releaseId = index.getReleaseId(releaseNumber)) < 0) {
+                log("No release " + releaseNumber + " in the cache.");
+                return;
+            }
+            if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                log("Could not create " + outputDir + ".");
+                return;
+            }
+            File manifestFile = new File(outputDir, MANIFEST_NAME);
+            HashSet<String> done = readManifest(manifestFile);
+            long[] locations = select(releaseId, done);
+            log("Converting " + locations.length + " textures to " + outputDir + (done.isEmpty() ? "" : ", " + done.size() + " already converted") + "...");
+
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor decoders = createPool(threads);
+            ThreadPoolExecutor encoders = createPool(threads);
+            manifest = new FileWriter(manifestFile, true);
+            long start = System.currentTimeMillis(), lastReport = start;
+            HashMap<String, ArchiveFile> archives = new HashMap<>();
+            try {
+                for (long location : locations) {
+                    String releasePath = index.getReleasePath(location);
+                    String path = index.getPathTree().getPath(index.getPathNode(location));
+                    ArchiveFile archive = archives.get(releasePath);
+                    if (archive == null)
+                        archives.put(releasePath, archive = ArchiveRegistry.getRegistry().get(new File(RAFSuite.FILE_PATH + releasePath)));
+                    ArchiveDataFile dataFile = archive.getArchiveDataFile();
+                    RiotFile entry = dataFile.getFileEntries().get(PathHashIndex.slotOf(location));
+                    byte[] entryData;
+                    try (ArchiveChannelPool.Lease lease = ArchiveChannelPool.getPool().acquire(dataFile.getDataFile())) {
+                        entryData = lease.read(entry.getDataOffset() & 0xFFFFFFFFL, entry.getDataSize());
+                    }
+                    decoders.execute(() -> decode(releasePath, path, entryData, encoders));
+                    if (System.currentTimeMillis() - lastReport >= REPORT_INTERVAL) {
+                        lastReport = System.currentTimeMillis();
+                        report(start, locations.length);
+                    }
+                }
+            } finally {
+                /**
+                 * The decoders hand their images to the encoders, so they are drained first.
+                 */
+                decoders.shutdown();
+                decoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                encoders.shutdown();
+                encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                manifest.close();
+            }
+            report(start, locations.length);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Inflate and decode a texture, then queue it to be written.
+     */
+    private void decode(String releasePath, String path, byte[] entryData, ThreadPoolExecutor encoders) {
+        try {
+            byte[] data = ArchiveDataFile.inflate(entryData);
+            DDSFile texture = new DDSFile(0, 0, entryData.length, 0);
+            texture.setFileData(data != null ? data : entryData);
+            BufferedImage image = texture.decodeMipmap(0);
+            if (image == null) {
+                failed("Unsupported format: " + path);
+                return;
+            }
+            encoders.execute(() -> encode(releasePath, path, image));
+        } catch (Exception e) {
+            failed("Could not decode " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a texture as a png and add it to the manifest. The png is
+     *  written to a temporary file first so a listed png is always whole;
+     *  one left by an interrupted conversion is overwritten on resuming.
+     */
+    private void encode(String releasePath, String path, BufferedImage image) {
+        try {
+            File file = new File(outputDir, pngPath(path));
+            File directory = file.getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+                throw new IOException("Could not create " + directory);
+            File temporary = new File(directory, file.getName() + ".tmp");
+            PngWriter.write(image, temporary);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            written.addAndGet(file.length());
+            converted.incrementAndGet();
+            synchronized (this) {
+                manifest.write(releasePath + "\t" + path + "\t" + image.getWidth() + "x" + image.getHeight() + "\n");
+                manifest.flush();
+            }
+        } catch (Exception e) {
+            failed("Could not write " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Select the locations of the textures to convert, in archive order.
+     * @param releaseId The release, or -1 for the latest release of each texture.
+     * @param done      The textures already converted.
+     */
+    private long[] select(int releaseId, HashSet<String> done) {
+        PathTree pathTree = index.getPathTree();
+        ArrayList<Long> selected = new ArrayList<>();
+        pathTree.forEachWithPrefix(prefix, node -> {
+            String path = pathTree.getPath(node);
+            if (!PathTree.extensionOf(path).equals(RiotFileType.DDS.getExtension()))
+                return;
+            long location = index.locateRelease(path, releaseId);
+            if (location < 0 || index.getEntryType(location) != RiotFileType.DDS)
+                return;
+            if (!done.contains(index.getReleasePath(location) + "\t" + path))
+                selected.add(location);
+        });
+        /**
+         * Packed locations sort by release, archive and then entry slot, so
+         *  each data file is read from front to back.
+         */
+        long[] locations = new long[selected.size()];
+        for (int i = 0; i < locations.length; i++)
+            locations[i] = selected.get(i);
+        Arrays.sort(locations);
+        return locations;
+    }
+
+    /**
+     * Read the textures already converted from a manifest.
+     * @return The release path and path of every texture listed, tab separated.
+     */
+    private static HashSet<String> readManifest(File manifestFile) throws IOException {
+        HashSet<String> done = new HashSet<>();
+        if (!manifestFile.isFile())
+            return done;
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int end = line.lastIndexOf('\t');
+                if (end > 0)
+                    done.add(line.substring(0, end));
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Retrieve the path of the png of a texture, relative to the output directory.
+     * @param path
+     * @return
+     */
+    public static String pngPath(String path) {
+        int dot = path.lastIndexOf('.');
+        return (dot > path.lastIndexOf('/') ? path.substring(0, dot) : path) + ".png";
+    }
+
+    /**
+     * Create a pool of a thread per core with a bounded queue, whose full
+     *  queue makes the submitting thread run the task itself.
+     */
+    private static ThreadPoolExecutor createPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Log the progress and throughput of the conversion.
+     */
+    private void report(long start, int total) {
+        double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        int count = converted.get();
+        log(String.format("Converted %d of %d textures(%d failed) in %.1f s: %.1f textures/s, %.1f MB of png.",
+                count, total, failed.get(), seconds, count / seconds, written.get() / (1024.0 * 1024.0)));
+    }
+
+    private void failed(String message) {
+        failed.incrementAndGet();
+        log(message);
+    }
+
+    private void log(String message) {
+        if (logger == null)
+            System.out.println(message);
+        else
+            Platform.runLater(() -> logger.appendText("\n" + message));
+    }
+
+    /**
+     * Retrieve the number of textures converted.
+     * @return
+     */
+    public int getConverted() {
+        return converted.get();
+    }
+
+    /**
+     * Retrieve the number of textures that could not be converted.
+     * @return
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+}
@@ -2,9 +2,13 @@ package gg.raf.suite.tasks;
 
 import gg.raf.suite.RAFSuite;
 import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
+import gg.raf.suite.fs.blob.ContentFingerprint;
+import gg.raf.suite.fs.container.ArchiveSpliterator;
 import javafx.scene.control.TextArea;
 
 import java.io.File;
+import java.util.HashMap;
 
 /**
  * Created by Allen Kinzalow on 9/30/2015.
@@ -26,22 +30,19 @@ public class ExportCache implements Runnable {
         this.logger = logger;
     }
 
+    /**
+     * Write every archive, oldest release first, so the latest version of
+     *  each file is the one left. A file is only inflated and written when
+     *  its content differs from the version already written to its path.
+     */
     @Override
     public void run() {
         try {
-            File directory = new File(RAFSuite.FILE_PATH);
-            for (File file : directory.listFiles()) {
-                String path = file.getAbsolutePath().substring(file.getAbsolutePath().lastIndexOf('\\') + 1, file.getAbsolutePath().length());
-                for (final File subFile : file.listFiles()) {
-                    if (subFile.getName().endsWith(".raf")) {
-                        logger.appendText("\nWriting Archive: " + path);
-                        ArchiveFile archiveFile = new ArchiveFile(subFile);
-                        archiveFile.initiate();
-                        archiveFile.getArchiveDataFile().initiate();
-                        archiveFile.writeArchive(chosenDir.getAbsolutePath() + "\\");
-
-                    }
-                }
+            HashMap<String, ContentFingerprint> written = new HashMap<>();
+            for (final File subFile : ArchiveSpliterator.listArchives(new File(RAFSuite.FILE_PATH))) {
+                ArchiveFile archiveFile = ArchiveRegistry.getRegistry().get(subFile);
+                logger.appendText("\nWriting Archive: " + archiveFile.getManifest().getReleaseNumber());
+                archiveFile.writeArchive(chosenDir.getAbsolutePath() + "\\", written);
             }
         } catch (Exception e) {
             e.printStackTrace();
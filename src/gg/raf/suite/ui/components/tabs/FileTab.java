@@ -1,7 +1,5 @@
 package gg.raf.suite.ui.components.tabs;
 
-import gg.raf.suite.RAFSuite;
-import gg.raf.suite.fs.archive.ArchiveFile;
 import gg.raf.suite.fs.file.RiotFile;
 import gg.raf.suite.fs.file.RiotFileType;
 import gg.raf.suite.ui.RAFApplication;
@@ -74,8 +72,8 @@ public class FileTab extends Tab {
         super(name);
         this.file = file;
         this.path = path;
-        this.fileType = RiotFileType.typeForExtension(path.substring(path.lastIndexOf('.') + 1, path.length()));
         this.openFile = file.get(file.keySet().toArray()[file.size() - 1]);
+        this.fileType = RiotFileType.typeOf(openFile);
         this.format = new DecimalFormat("###,###,###");
         this.layout = layout;
         try {
@@ -119,23 +117,10 @@ public class FileTab extends Tab {
                 return;
             openFile.saveFileData(file);
         });
-        this.controller.getReplaceButton().setOnMouseClicked(e -> {
-            File file = RAFApplication.FILE_CHOOSER.showOpenDialog(RAFApplication.STAGE);
-            if(file == null)
-                return;
-            /**
-             * Disabled temporarily.
-             */
-            /*try {
-                ArchiveFile archive = new ArchiveFile(new File(RAFSuite.FILE_PATH + "" + controller.getArchiveList().getSelectionModel().getSelectedItem()));
-                archive.initiate();
-                archive.getArchiveDataFile().initiate();
-                if(archive.getArchiveDataFile().addFile(this.openFile.getHash(), file))
-                    archive.encodeArchive();
-            } catch(Exception ex) {
-                ex.printStackTrace();
-            }*/
-        });
+        /**
+         * Replacing entries is not supported by the shared archives.
+         */
+        this.controller.getReplaceButton().setDisable(true);
     }
 
     /**
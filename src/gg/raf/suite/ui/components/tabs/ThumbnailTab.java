@@ -0,0 +1,135 @@
+package gg.raf.suite.ui.components.tabs;
+
+import gg.raf.suite.RAFSuite;
+import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
+import gg.raf.suite.fs.file.RiotFile;
+import gg.raf.suite.fs.file.RiotFileType;
+import gg.raf.suite.fs.index.CacheIndex;
+import gg.raf.suite.fs.index.PathHashIndex;
+import gg.raf.suite.fs.index.PathTree;
+import gg.raf.suite.fs.thumbnail.ThumbnailCache;
+import gg.raf.suite.tasks.TaskExecutor;
+import gg.raf.suite.ui.models.LayoutModel;
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Tab;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.FlowPane;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * A tab showing a grid of thumbnails of the textures of a directory.
+ *  The grid is laid out at once and the thumbnails are filled in from the
+ *  {@link ThumbnailCache} in the background, in batches, until every one
+ *  is loaded or the tab is closed. Clicking a thumbnail opens its file.
+ */
+public class ThumbnailTab extends Tab {
+
+    /**
+     * The number of thumbnails handed to the application thread at once.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * The directory shown, with a trailing '/', or empty for the top level.
+     */
+    private final String directory;
+
+    /**
+     * The layout model this tab belongs too.
+     */
+    private final LayoutModel model;
+
+    /**
+     * The grid of thumbnails.
+     */
+    private final FlowPane grid = new FlowPane();
+
+    /**
+     * Has the tab been closed?
+     */
+    private volatile boolean closed;
+
+    public ThumbnailTab(String directory, LayoutModel model) {
+        super(directory.isEmpty() ? "Thumbnails" : directory);
+        this.directory = directory;
+        this.model = model;
+        grid.setHgap(6);
+        grid.setVgap(6);
+        ScrollPane scrollPane = new ScrollPane(grid);
+        scrollPane.setFitToWidth(true);
+        this.setContent(scrollPane);
+        this.setOnClosed(event -> closed = true);
+    }
+
+    /**
+     * Lay out a cell for every texture of the directory and start loading
+     *  their thumbnails.
+     * @return The number of textures.
+     */
+    public int load() {
+        CacheIndex index = model.getCacheIndex();
+        PathTree pathTree = index.getPathTree();
+        ArrayList<String> directories = new ArrayList<>();
+        ArrayList<String> files = new ArrayList<>();
+        pathTree.listDirectory(directory, pathTree.getTypeBit(RiotFileType.DDS.getExtension()), directories, files);
+        ArrayList<Label> cells = new ArrayList<>(files.size());
+        String[] paths = new String[files.size()];
+        ImageView[] views = new ImageView[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            String path = paths[i] = directory + files.get(i);
+            ImageView view = views[i] = new ImageView();
+            view.setFitWidth(ThumbnailCache.THUMBNAIL_SIZE);
+            view.setFitHeight(ThumbnailCache.THUMBNAIL_SIZE);
+            view.setPreserveRatio(true);
+            Label cell = new Label(files.get(i), view);
+            cell.setContentDisplay(ContentDisplay.TOP);
+            cell.setMaxWidth(ThumbnailCache.THUMBNAIL_SIZE * 2);
+            cell.setOnMouseClicked(event -> model.getCacheTreeView().openFile(path));
+            cells.add(cell);
+        }
+        grid.getChildren().setAll(cells);
+        TaskExecutor.executor.submit(() -> loadThumbnails(index, paths, views));
+        return files.size();
+    }
+
+    /**
+     * Load the thumbnail of the latest release of every path, handing them
+     *  to the application thread in batches.
+     */
+    private void loadThumbnails(CacheIndex index, String[] paths, ImageView[] views) {
+        Image[] images = new Image[paths.length];
+        int shown = 0;
+        for (int i = 0; i < paths.length && !closed; i++) {
+            try {
+                long location = index.locateRelease(paths[i], -1);
+                if (location != -1 && index.getEntryType(location) == RiotFileType.DDS) {
+                    ArchiveFile archive = ArchiveRegistry.getRegistry().get(new File(RAFSuite.FILE_PATH + index.getReleasePath(location)));
+                    RiotFile entry = archive.getArchiveDataFile().getFileEntries().get(PathHashIndex.slotOf(location));
+                    BufferedImage thumbnail = ThumbnailCache.getCache().getThumbnail(archive.getArchiveDataFile(), entry);
+                    if (thumbnail != null)
+                        images[i] = SwingFXUtils.toFXImage(thumbnail, null);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (i + 1 - shown == BATCH_SIZE || i + 1 == paths.length) {
+                final int from = shown, to = i + 1;
+                Platform.runLater(() -> {
+                    for (int v = from; v < to; v++)
+                        views[v].setImage(images[v]);
+                });
+                shown = to;
+            }
+        }
+    }
+
+}
@@ -2,9 +2,14 @@ package gg.raf.suite.ui.components.treeview;
 
 import gg.raf.suite.RAFSuite;
 import gg.raf.suite.fs.archive.ArchiveFile;
+import gg.raf.suite.fs.archive.ArchiveRegistry;
+import gg.raf.suite.fs.container.ArchiveSpliterator;
 import gg.raf.suite.fs.file.RiotFile;
 import gg.raf.suite.fs.file.RiotFileType;
-import gg.raf.suite.fs.file.RiotPath;
+import gg.raf.suite.fs.index.CacheIndex;
+import gg.raf.suite.fs.index.PathHashIndex;
+import gg.raf.suite.fs.index.PathTree;
+import gg.raf.suite.tasks.TaskExecutor;
 import gg.raf.suite.ui.components.tabs.FileTab;
 import gg.raf.suite.ui.models.LayoutModel;
 import javafx.beans.value.ChangeListener;
@@ -13,9 +18,10 @@ import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Created by Allen Kinzalow on 9/30/2015.
@@ -32,11 +38,6 @@ public class CacheTreeView {
      */
     private LayoutModel model;
 
-    /**
-     * A comparator for directories in the treeview.
-     */
-    private final DirectoryComparator comparator = new DirectoryComparator();
-
     public CacheTreeView(TreeView treeView, LayoutModel model) {
         this.cacheTree = treeView;
         this.model = model;
@@ -44,65 +45,54 @@ public class CacheTreeView {
 
     /**
      * Populate the tree view.
+     *  The cache index is opened, or built while the archives are walked
+     *  if the cache has changed since it was last written. The tree items
+     *  are listed lazily from the path tree of the index.
      */
     public void populateTree() {
         try {
-            final TreeItem<String> root = new TreeItem<>("Cache Directories");
-            root.setExpanded(true);
-            HashMap<String, TreeItem<String>> dirMap = new HashMap<>(); // directory map
-            File directory = new File(RAFSuite.FILE_PATH);
-            int count = 0, count1 = 0;
-            for (File file : directory.listFiles()) {
-                for (final File subFile : file.listFiles()) {
-                    if (subFile.getName().endsWith(".raf")) {
-                        for (String dirs  : ArchiveFile.fetchPathList(subFile)) {
-                            String id = dirs.substring(0, dirs.lastIndexOf('/') + 1);
-                            String[] dir = dirs.split("/");
-                            if (!dirMap.containsKey(id)) {
-                                String key = "";
-                                for (int i = 0; i < dir.length - 1; i++) {
-                                    String before = key;
-                                    key += dir[i] + "/";
-                                    if (!dirMap.containsKey(key)) {
-                                        TreeItem<String> item = new TreeItem<>(dir[i]);
-                                        dirMap.put(key, item);
-                                        count++;
-                                        if (i > 0) {
-                                            TreeItem<String> parent = dirMap.get(before);
-                                            parent.getChildren().add(item);
-                                        } else
-                                            root.getChildren().add(item);
-                                    }
-                                }
-                            } else {
-                                String name = dirs.substring(dirs.lastIndexOf('/') + 1, dirs.length());
-                                TreeItem<String> item = new TreeItem<>(name);
-                                TreeItem<String> parent = dirMap.get(id);
-                                String subDir = subFile.getAbsolutePath().substring(0, subFile.getAbsolutePath().lastIndexOf('\\'));
-                                String releasePath = (subDir.substring(subDir.lastIndexOf('\\') + 1, subDir.length())) + "/" + subFile.getName();
-                                parent.getChildren().remove(getItemForValue(parent, name));
-                                /**
-                                 * Populate a map for release history of this file.
-                                 */
-                                ArrayList<String> history = model.getReleaseHistory().get(dirs);
-                                if(history == null)
-                                    history = new ArrayList<>();
-                                history.add(releasePath);
-                                model.getReleaseHistory().put(dirs, history);
-                                parent.getChildren().add(item);
-                            }
-                        }
-                    }
+            File root = new File(RAFSuite.FILE_PATH);
+            File[] archiveFiles = ArchiveSpliterator.listArchives(root);
+            CacheIndex index = CacheIndex.openIfCurrent(root, archiveFiles);
+            if (index == null) {
+                CacheIndex.Builder builder = new CacheIndex.Builder(root, archiveFiles);
+                for (final File subFile : archiveFiles)
+                    builder.addArchive(ArchiveRegistry.getRegistry().get(subFile));
+                try {
+                    index = builder.write();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    index = builder.build();
                 }
             }
+            model.setCacheIndex(index);
+            setTypeFilter(PathTree.ALL_TYPES);
+            /**
+             * The entry types are sniffed off the application thread; any
+             *  used before then are sniffed on first use.
+             */
+            TaskExecutor.executor.submit(index::sniffEntryTypes);
             System.gc();
-            sortDirectory(root);
-            cacheTree.setRoot(root);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Show only the files of the given types, and the directories holding them.
+     *  The tree is listed again from the root; directories without a file
+     *  of those types are skipped by their type mask without being walked.
+     * @param typeMask  The type mask bits of the path tree, or {@link PathTree#ALL_TYPES}.
+     */
+    public void setTypeFilter(long typeMask) {
+        CacheIndex index = model.getCacheIndex();
+        if (index == null)
+            return;
+        final TreeItem<String> root = new PathTreeItem(index.getPathTree(), "Cache Directories", "", typeMask);
+        root.setExpanded(true);
+        cacheTree.setRoot(root);
+    }
+
     /**
      * Establish an event for interacting with a tree cell.
      */
@@ -113,35 +103,105 @@ public class CacheTreeView {
                 if (clicked == null || clicked.getChildren() == null)
                     return;
                 model.getController().getLogger().setText(clicked.getValue());
-                try {
-                    if (clicked.getChildren().size() == 0 && clicked.getValue().contains(".")) {
-                        model.log("Loaded: " + clicked.getValue() + "");
-                        HashMap<String, RiotFile> file = new HashMap<>();
-                        String path = getFilePathForLeaf(clicked);
-                        ArrayList<String> releasePaths = model.getReleaseHistory().get(path);
-                        if (!model.getFileMap().contains(path)) {
-                            for(String releasePath : releasePaths) {
-                                ArchiveFile archive = new ArchiveFile(new File(RAFSuite.FILE_PATH + releasePath));
-                                archive.initiate();
-                                archive.getArchiveDataFile().initiate();
-                                file.put(releasePath, RiotFileType.wrapFileType(path, archive.getArchiveDataFile().getFileForPathIndex(archive.getPathIndex(path))));
-                            }
-                            final FileTab tab = new FileTab(clicked.getValue(), path, file, model.getController());
-                            tab.setOnClosed(e -> model.getFileMap().remove(path));
-
-                            model.getController().getFileTabs().getTabs().add(tab);
-                            model.getFileMap().add(path);
-                            model.getController().getCurrentAction().setText("Loaded " + clicked.getValue() + "...");
-                        }
-                    }
-                    System.gc();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                if (clicked.getChildren().size() == 0 && clicked.getValue().contains("."))
+                    openFile(getFilePathForLeaf(clicked));
             }
         });
     }
 
+    /**
+     * Open a file of the cache in a new tab with its release history,
+     *  unless it is already open.
+     * @param path
+     */
+    public void openFile(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        try {
+            model.log("Loaded: " + name + "");
+            if (!model.getFileMap().contains(path)) {
+                HashMap<String, RiotFile> file = loadReleaseHistory(path);
+                if (file.isEmpty())
+                    return;
+                final FileTab tab = new FileTab(name, path, file, model.getController());
+                tab.setOnClosed(e -> model.getFileMap().remove(path));
+
+                model.getController().getFileTabs().getTabs().add(tab);
+                model.getFileMap().add(path);
+                model.getController().getCurrentAction().setText("Loaded " + name + "...");
+            }
+            System.gc();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Load every release of a file, ordered from the oldest release to the latest.
+     *  The locations come from the cache index; without an index every
+     *  archive of the cache is searched. Every release is wrapped as the
+     *  type of the latest, so a tab decodes all of them the same way.
+     * @param path
+     * @return A map of release paths("release/archive.raf") and the file in that release.
+     * @throws IOException
+     */
+    private HashMap<String, RiotFile> loadReleaseHistory(String path) throws IOException {
+        LinkedHashMap<String, RiotFile> file = new LinkedHashMap<>();
+        RiotFileType type = RiotFileType.DEFAULT;
+        CacheIndex index = model.getCacheIndex();
+        if (index != null) {
+            int node = index.getPathTree().find(path);
+            if (node < 0)
+                return file;
+            long[] locations = new long[64];
+            int count = index.locate(path, locations);
+            if (count > locations.length) {
+                locations = new long[count];
+                index.locate(path, locations);
+            }
+            int latest = -1;
+            for (int i = 0; i < count; i++) {
+                /**
+                 * Skip other paths sharing the same hash.
+                 */
+                if (index.getPathNode(locations[i]) != node)
+                    continue;
+                String releasePath = index.getReleasePath(locations[i]);
+                ArchiveFile archive = ArchiveRegistry.getRegistry().get(new File(RAFSuite.FILE_PATH + releasePath));
+                RiotFile entry = archive.getArchiveDataFile().getFileEntries().get(PathHashIndex.slotOf(locations[i]));
+                file.put(releasePath, archive.getArchiveDataFile().readFile(entry));
+                latest = i;
+            }
+            /**
+             * Only the latest release is asked for its type, as that may
+             *  sniff the entry types of its whole archive.
+             */
+            if (latest >= 0)
+                type = index.getEntryType(locations[latest]);
+        } else {
+            for (File subFile : ArchiveSpliterator.listArchives(new File(RAFSuite.FILE_PATH))) {
+                ArchiveFile archive = ArchiveRegistry.getRegistry().get(subFile);
+                int pathIndex = archive.getPathIndex(path);
+                if (pathIndex < 0)
+                    continue;
+                String releasePath = archive.getManifest().getReleaseNumber() + "/" + archive.getManifest().getReleaseName();
+                RiotFile entry = archive.getArchiveDataFile().getFileForPathIndex(pathIndex);
+                RiotFile data = archive.getArchiveDataFile().readFile(entry);
+                byte[] fileData = data.getFileData();
+                file.put(releasePath, data);
+                type = RiotFileType.typeForMagic(fileData, 0, fileData.length);
+            }
+        }
+        /**
+         * The type sniffed from the data of the latest release decides the
+         *  decoder; a magic number that is not known falls back to the extension.
+         */
+        if (type == RiotFileType.DEFAULT)
+            type = RiotFileType.typeForPath(path);
+        for (Map.Entry<String, RiotFile> release : file.entrySet())
+            release.setValue(RiotFileType.wrapFileType(type, release.getValue()));
+        return file;
+    }
+
     /**
      * Traverse up the tree from the leaf to obtain
      *  the full path of the leaf.
@@ -157,17 +217,6 @@ public class CacheTreeView {
         return path;
     }
 
-    /**
-     * Sort the given tree item's children.
-     * @param root
-     */
-    private void sortDirectory(TreeItem<String> root) {
-        if(root.getChildren().size() == 0)
-            return;
-        root.getChildren().sort(comparator);
-        root.getChildren().forEach(e -> sortDirectory(e));
-    }
-
     /**
      * Return whether or not a tree item's has a leaf that is equal
      *  to a given value.
@@ -183,33 +232,4 @@ public class CacheTreeView {
         return false;
     }
 
-    /**
-     * Get an item for a given value in a parent treeitem.
-     * @param parent
-     * @param name
-     * @return
-     */
-    private TreeItem<String> getItemForValue(TreeItem<String> parent, String name) {
-        for(TreeItem<String> child : parent.getChildren())
-            if(child.getValue().equals(name))
-                return child;
-        return null;
-    }
-
-    /**
-     * A comparator to order TreeItem's
-     */
-    private class DirectoryComparator implements Comparator<TreeItem<String>> {
-
-        @Override
-        public int compare(TreeItem<String> o1, TreeItem<String> o2) {
-            if(o1.getChildren().size() >  0 && o2.getChildren().size() == 0)
-                return -1;
-            else if(o1.getChildren().size() == 0 && o2.getChildren().size() > 0)
-                return 1;
-            return o1.getValue().compareTo(o2.getValue());
-        }
-
-    }
-
 }
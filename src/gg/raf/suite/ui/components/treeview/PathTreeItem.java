@@ -0,0 +1,84 @@
+package gg.raf.suite.ui.components.treeview;
+
+import gg.raf.suite.fs.index.PathTree;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+
+import java.util.ArrayList;
+
+/**
+ * A tree item for a directory or file of the {@link PathTree}.
+ *  The children of a directory are listed from the path tree the first
+ *  time they are requested, so only expanded directories hold tree items.
+ *  Only files of the types of the type mask, and directories holding
+ *  them, are listed.
+ */
+public class PathTreeItem extends TreeItem<String> {
+
+    /**
+     * The path tree of the cache.
+     */
+    private final PathTree pathTree;
+
+    /**
+     * The path of this directory with a trailing '/', or null for a file.
+     */
+    private final String directory;
+
+    /**
+     * The type mask bits of the files listed.
+     */
+    private final long typeMask;
+
+    /**
+     * Have the children been listed?
+     */
+    private boolean listed;
+
+    /**
+     * Construct a tree item.
+     * @param pathTree  The path tree of the cache.
+     * @param name      The name shown for this item.
+     * @param directory The path of the directory with a trailing '/', empty for the top level, or null for a file.
+     * @param typeMask  The type mask bits of the files listed, or {@link PathTree#ALL_TYPES}.
+     */
+    public PathTreeItem(PathTree pathTree, String name, String directory, long typeMask) {
+        super(name);
+        this.pathTree = pathTree;
+        this.directory = directory;
+        this.typeMask = typeMask;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return directory == null;
+    }
+
+    @Override
+    public ObservableList<TreeItem<String>> getChildren() {
+        if (!listed) {
+            listed = true;
+            if (directory != null) {
+                ArrayList<String> directories = new ArrayList<>();
+                ArrayList<String> files = new ArrayList<>();
+                pathTree.listDirectory(directory, typeMask, directories, files);
+                ArrayList<TreeItem<String>> children = new ArrayList<>(directories.size() + files.size());
+                for (String name : directories)
+                    children.add(new PathTreeItem(pathTree, name, directory + name + "/", typeMask));
+                for (String name : files)
+                    children.add(new PathTreeItem(pathTree, name, null, typeMask));
+                super.getChildren().setAll(children);
+            }
+        }
+        return super.getChildren();
+    }
+
+    /**
+     * Retrieve the path of this directory with a trailing '/', or null for a file.
+     * @return
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+}
@@ -24,7 +24,12 @@ public class LayoutController extends Controller  {
     @FXML private MenuItem exportMenuButton;
     @FXML private MenuItem exportAllMenuButton;
     @FXML private MenuItem searchMenuButton;
-    @FXML private MenuItem ddsPngCheckButton;
+    @FXML private MenuItem contentSearchMenuButton;
+    @FXML private MenuItem statisticsMenuButton;
+    @FXML private MenuItem thumbnailsMenuButton;
+    @FXML private CheckMenuItem ddsPngCheckButton;
+    @FXML private Menu filterMenu;
+    @FXML private MenuItem showAllButton;
     @FXML private MenuItem aboutButton;
     @FXML private MenuItem checkUpdateButton;
     @FXML private MenuItem exitButton;
@@ -77,14 +82,34 @@ public class LayoutController extends Controller  {
         return searchMenuButton;
     }
 
+    public MenuItem getContentSearchMenuButton() {
+        return contentSearchMenuButton;
+    }
+
+    public MenuItem getStatisticsMenuButton() {
+        return statisticsMenuButton;
+    }
+
+    public MenuItem getThumbnailsMenuButton() {
+        return thumbnailsMenuButton;
+    }
+
     public MenuItem getExportAllMenuButton() {
         return exportAllMenuButton;
     }
 
-    public MenuItem getDdsPngCheckButton() {
+    public CheckMenuItem getDdsPngCheckButton() {
         return ddsPngCheckButton;
     }
 
+    public Menu getFilterMenu() {
+        return filterMenu;
+    }
+
+    public MenuItem getShowAllButton() {
+        return showAllButton;
+    }
+
     public MenuItem getAboutButton() {
         return aboutButton;
     }
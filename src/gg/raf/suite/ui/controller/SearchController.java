@@ -0,0 +1,43 @@
+package gg.raf.suite.ui.controller;
+
+import gg.raf.suite.fs.index.PathSearch;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+
+import java.net.URL;
+import java.util.ResourceBundle;
+
+/**
+ * This class is a controller for the search_layout.fxml.
+ * It holds the Components of the path search window.
+ */
+public class SearchController extends Controller {
+
+    /**
+     * FXML components
+     */
+    @FXML private TextField queryField;
+    @FXML private ComboBox<PathSearch.Mode> modeBox;
+    @FXML private ListView<PathSearch.Match> resultList;
+    @FXML private Label resultLabel;
+
+    @Override
+    public void initialize(URL location, ResourceBundle resources) { }
+
+    public TextField getQueryField() {
+        return queryField;
+    }
+
+    public ComboBox<PathSearch.Mode> getModeBox() {
+        return modeBox;
+    }
+
+    public ListView<PathSearch.Match> getResultList() {
+        return resultList;
+    }
+
+    public Label getResultLabel() {
+        return resultLabel;
+    }
+
+}
@@ -1,31 +1,67 @@
 package gg.raf.suite.ui.models;
 
+import gg.raf.suite.RAFSuite;
+import gg.raf.suite.fs.file.RiotFileType;
+import gg.raf.suite.fs.index.CacheIndex;
+import gg.raf.suite.fs.index.PathSearch;
+import gg.raf.suite.fs.index.PathTree;
+import gg.raf.suite.tasks.CacheStatistics;
+import gg.raf.suite.tasks.ContentSearch;
+import gg.raf.suite.tasks.ConvertTextures;
 import gg.raf.suite.tasks.ExportCache;
 import gg.raf.suite.tasks.TaskExecutor;
 import gg.raf.suite.ui.RAFApplication;
+import gg.raf.suite.ui.components.tabs.ThumbnailTab;
 import gg.raf.suite.ui.components.treeview.CacheTreeView;
+import gg.raf.suite.ui.components.treeview.PathTreeItem;
 import gg.raf.suite.ui.controller.LayoutController;
+import gg.raf.suite.ui.controller.SearchController;
+import gg.raf.suite.ui.layouts.Layout;
+import gg.raf.suite.ui.styles.Style;
+import javafx.application.Platform;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.TextInputDialog;
+import javafx.scene.control.TreeItem;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
 
 /**
  * Created by Allen Kinzalow on 9/30/2015.
  */
 public class LayoutModel extends Model<LayoutController> {
 
+    /**
+     * The number of matches after which a content search stops.
+     */
+    private static final int CONTENT_MATCH_LIMIT = 1000;
+
     /**
      * Map of opened tabs with corresponding file path.
      */
     private ArrayList<String> fileMap = new ArrayList<>();
 
     /**
-     * A hashmap of paths & a list of history releases
-     *  -does not include the latest release which is apart of the
-     *   treeview cache directory.
+     * The index of the whole cache, locating every release of a path.
+     */
+    private CacheIndex cacheIndex;
+
+    /**
+     * The search engine over every path, built in the background once the cache index is ready.
      */
-    private HashMap<String, ArrayList<String>> releaseHistory = new HashMap<>();
+    private volatile PathSearch pathSearch;
+
+    /**
+     * The window of the path search, while it is open.
+     */
+    private Stage searchStage;
 
     /**
      * A wrapper class for the tree view in layout controller.
@@ -46,17 +82,189 @@ public class LayoutModel extends Model<LayoutController> {
         cacheTreeView = new CacheTreeView(this.getController().getCacheTree(), this);
         cacheTreeView.populateTree();
         cacheTreeView.setDirectoryEvent();
+        populateFilterMenu();
+        if (cacheIndex != null)
+            TaskExecutor.executor.submit(() -> pathSearch = new PathSearch(cacheIndex));
+        this.getController().getSearchMenuButton().setOnAction(event -> openSearch());
+        this.getController().getContentSearchMenuButton().setOnAction(event -> searchContents());
+        this.getController().getStatisticsMenuButton().setOnAction(event -> {
+            log("Gathering cache statistics...");
+            TaskExecutor.executor.submit(() -> {
+                CacheStatistics statistics = new CacheStatistics(RAFSuite.FILE_PATH, CacheStatistics.Mode.SAMPLED);
+                statistics.run();
+                StringBuilder report = new StringBuilder(statistics.formatReport());
+                if (cacheIndex != null) {
+                    /**
+                     * The content types come from the magic numbers sniffed into the index.
+                     */
+                    long[] census = cacheIndex.countEntryTypes();
+                    report.append(String.format("%nContent types%n"));
+                    for (RiotFileType type : RiotFileType.values())
+                        report.append(String.format("  %-32s %9d entries%n", type == RiotFileType.DEFAULT ? "other" : type.getExtension(), census[type.ordinal()]));
+                }
+                Platform.runLater(() -> log(report.toString()));
+            });
+        });
+        this.getController().getThumbnailsMenuButton().setOnAction(event -> openThumbnails());
         this.getController().getReplaceMenuButton().setDisable(true);
         this.getController().getExportMenuButton().setDisable(true);
         this.getController().getExportAllMenuButton().setOnAction(event -> {
             File file = RAFApplication.DIRECTORY_CHOOSER.showDialog(RAFApplication.STAGE);
-            TaskExecutor.executor.submit(new ExportCache(file, this.getController().getLogger()));
+            if (file == null)
+                return;
+            if (this.getController().getDdsPngCheckButton().isSelected() && cacheIndex != null)
+                TaskExecutor.executor.submit(new ConvertTextures(cacheIndex, getSelectedDirectory(), null, file, this.getController().getLogger()));
+            else
+                TaskExecutor.executor.submit(new ExportCache(file, this.getController().getLogger()));
         });
         this.getController().getExitButton().setOnAction(event -> {
             System.exit(0);
         });
     }
 
+    /**
+     * Add a check item to the filter menu for every extension in the cache.
+     *  The tree shows the files of the checked extensions, or every file
+     *  if none is checked.
+     */
+    private void populateFilterMenu() {
+        if (cacheIndex == null) {
+            this.getController().getFilterMenu().setDisable(true);
+            return;
+        }
+        PathTree pathTree = cacheIndex.getPathTree();
+        long found = pathTree.getTypeMask(PathTree.ROOT);
+        ArrayList<CheckMenuItem> items = new ArrayList<>();
+        ArrayList<Long> bits = new ArrayList<>();
+        List<String> extensions = pathTree.getExtensions();
+        for (int bit = 0; bit < extensions.size(); bit++) {
+            if ((found & (1L << bit)) == 0)
+                continue;
+            items.add(new CheckMenuItem(extensions.get(bit).isEmpty() ? "No Extension" : "." + extensions.get(bit)));
+            bits.add(1L << bit);
+        }
+        if ((found & PathTree.OTHER_TYPES) != 0) {
+            items.add(new CheckMenuItem("Other"));
+            bits.add(PathTree.OTHER_TYPES);
+        }
+        Runnable apply = () -> {
+            long typeMask = 0;
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i).isSelected())
+                    typeMask |= bits.get(i);
+            }
+            cacheTreeView.setTypeFilter(typeMask == 0 ? PathTree.ALL_TYPES : typeMask);
+        };
+        for (CheckMenuItem item : items)
+            item.setOnAction(event -> apply.run());
+        this.getController().getFilterMenu().getItems().addAll(items);
+        this.getController().getShowAllButton().setOnAction(event -> {
+            for (CheckMenuItem item : items)
+                item.setSelected(false);
+            apply.run();
+        });
+    }
+
+    /**
+     * Retrieve the directory selected in the tree.
+     * @return The directory with a trailing '/', or empty if no directory is selected.
+     */
+    private String getSelectedDirectory() {
+        TreeItem<String> selected = this.getController().getCacheTree().getSelectionModel().getSelectedItem();
+        if (!(selected instanceof PathTreeItem) || ((PathTreeItem) selected).getDirectory() == null)
+            return "";
+        return ((PathTreeItem) selected).getDirectory();
+    }
+
+    /**
+     * Open a grid of thumbnails of the textures of the directory selected in the tree.
+     */
+    private void openThumbnails() {
+        String directory = getSelectedDirectory();
+        if (cacheIndex == null || directory.isEmpty()) {
+            log("Select a directory to show the thumbnails of its textures.");
+            return;
+        }
+        ThumbnailTab tab = new ThumbnailTab(directory, this);
+        int count = tab.load();
+        this.getController().getFileTabs().getTabs().add(tab);
+        this.getController().getFileTabs().getSelectionModel().select(tab);
+        log("Loading " + count + " thumbnails...");
+    }
+
+    /**
+     * Open the path search window, or bring it to the front if it is open.
+     */
+    private void openSearch() {
+        if (searchStage != null) {
+            searchStage.toFront();
+            return;
+        }
+        if (pathSearch == null) {
+            log("The search index is still being built...");
+            return;
+        }
+        try {
+            SearchController controller = new SearchController();
+            FXMLLoader fxmlLoader = new FXMLLoader(Layout.class.getResource("search_layout.fxml"));
+            fxmlLoader.setController(controller);
+            AnchorPane pane = fxmlLoader.load();
+            new SearchModel(controller, pathSearch, this).initialize();
+
+            searchStage = new Stage();
+            searchStage.setTitle("Search");
+            searchStage.initOwner(RAFApplication.STAGE);
+            Scene scene = new Scene(pane, 560, 420, Color.web("#202020"));
+            scene.getStylesheets().add(Style.class.getResource("style.css").toExternalForm());
+            searchStage.setScene(scene);
+            searchStage.setOnHidden(event -> searchStage = null);
+            searchStage.show();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Ask for the strings to look for and search the content of every entry
+     *  of the cache for them, logging each match as it is found.
+     */
+    private void searchContents() {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.initOwner(RAFApplication.STAGE);
+        dialog.setTitle("Search Contents");
+        dialog.setHeaderText("The strings to find, separated by commas.");
+        Optional<String> input = dialog.showAndWait();
+        if (!input.isPresent())
+            return;
+        List<String> patterns = new ArrayList<>();
+        for (String pattern : input.get().split(",")) {
+            if (!pattern.trim().isEmpty())
+                patterns.add(pattern.trim());
+        }
+        if (patterns.isEmpty())
+            return;
+        log("Searching the content of every entry for " + patterns + "...");
+        ContentSearch search = new ContentSearch(RAFSuite.FILE_PATH, patterns, match -> Platform.runLater(() -> log(match.toString())));
+        search.setLimit(CONTENT_MATCH_LIMIT);
+        TaskExecutor.executor.submit(() -> {
+            long start = System.currentTimeMillis();
+            search.run();
+            long time = System.currentTimeMillis() - start;
+            int matches = Math.min(search.getMatchCount(), CONTENT_MATCH_LIMIT);
+            String summary = matches + " matches in " + search.getEntriesScanned() + " entries (" + time + " ms)"
+                    + (matches == CONTENT_MATCH_LIMIT ? ", stopped at the limit." : ".");
+            Platform.runLater(() -> log(summary));
+        });
+    }
+
+    /**
+     * Get the cache tree view.
+     * @return
+     */
+    public CacheTreeView getCacheTreeView() {
+        return cacheTreeView;
+    }
+
     /**
      * Get the file map.
      * @return
@@ -66,11 +274,19 @@ public class LayoutModel extends Model<LayoutController> {
     }
 
     /**
-     * Get the release history.
+     * Get the cache index, or null if it could not be built.
      * @return
      */
-    public HashMap<String, ArrayList<String>> getReleaseHistory() {
-        return releaseHistory;
+    public CacheIndex getCacheIndex() {
+        return cacheIndex;
+    }
+
+    /**
+     * Set the cache index.
+     * @param cacheIndex
+     */
+    public void setCacheIndex(CacheIndex cacheIndex) {
+        this.cacheIndex = cacheIndex;
     }
 
     /**
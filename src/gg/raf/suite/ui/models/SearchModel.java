@@ -0,0 +1,99 @@
+package gg.raf.suite.ui.models;
+
+import gg.raf.suite.fs.index.PathSearch;
+import gg.raf.suite.tasks.TaskExecutor;
+import gg.raf.suite.ui.controller.SearchController;
+import javafx.application.Platform;
+import javafx.scene.input.KeyCode;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The model of the path search window. A search starts on every
+ *  keystroke and runs off the application thread; each one starts a new
+ *  generation, and the results of an older generation are dropped.
+ *  Results are ranked by the latest release of the path.
+ */
+public class SearchModel extends Model<SearchController> {
+
+    /**
+     * The maximum number of results shown.
+     */
+    private static final int RESULT_LIMIT = 200;
+
+    /**
+     * The search engine over every path in the cache.
+     */
+    private final PathSearch pathSearch;
+
+    /**
+     * The main layout model, used to open files.
+     */
+    private final LayoutModel layoutModel;
+
+    /**
+     * The generation of the latest search; results of another generation are stale.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public SearchModel(SearchController controller, PathSearch pathSearch, LayoutModel layoutModel) {
+        super(controller);
+        this.pathSearch = pathSearch;
+        this.layoutModel = layoutModel;
+    }
+
+    @Override
+    public void initialize() {
+        SearchController controller = this.getController();
+        controller.getModeBox().getItems().setAll(PathSearch.Mode.values());
+        controller.getModeBox().getSelectionModel().select(PathSearch.Mode.SUBSTRING);
+        controller.getModeBox().setOnAction(event -> search());
+        controller.getQueryField().textProperty().addListener((observable, previous, query) -> search());
+        controller.getResultList().setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2)
+                openSelected();
+        });
+        controller.getResultList().setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER)
+                openSelected();
+        });
+    }
+
+    /**
+     * Search with the current query and show the results once found.
+     */
+    private void search() {
+        SearchController controller = this.getController();
+        String query = controller.getQueryField().getText();
+        PathSearch.Mode mode = controller.getModeBox().getValue();
+        int current = generation.incrementAndGet();
+        TaskExecutor.executor.submit(() -> {
+            /**
+             * Skip searches overtaken by a later keystroke before they started.
+             */
+            if (generation.get() != current)
+                return;
+            ArrayList<PathSearch.Match> matches = new ArrayList<>();
+            long start = System.nanoTime();
+            int total = query == null ? 0 : pathSearch.search(query.trim(), mode, RESULT_LIMIT, matches);
+            long time = (System.nanoTime() - start) / 1000000;
+            Platform.runLater(() -> {
+                if (generation.get() != current)
+                    return;
+                controller.getResultList().getItems().setAll(matches);
+                controller.getResultLabel().setText(total + " paths (" + time + " ms)" + (total > matches.size() ? ", showing " + matches.size() : ""));
+            });
+        });
+    }
+
+    /**
+     * Open the selected path in a file tab.
+     */
+    private void openSelected() {
+        PathSearch.Match match = this.getController().getResultList().getSelectionModel().getSelectedItem();
+        if (match != null)
+            layoutModel.getCacheTreeView().openFile(match.getPath());
+    }
+
+}
@@ -1,20 +1,62 @@
 package gg.raf.suite.ui.models.file.dds;
 
 import gg.raf.suite.fs.file.dds.DDSFile;
+import gg.raf.suite.tasks.TaskExecutor;
+import gg.raf.suite.ui.RAFApplication;
 import gg.raf.suite.ui.controller.Controller;
 import gg.raf.suite.ui.controller.file.dds.DDSRawController;
 import gg.raf.suite.ui.controller.file.dds.DDSViewController;
 import gg.raf.suite.ui.models.file.FileModel;
-import javafx.embed.swing.SwingFXUtils;
+import gg.raf.suite.utilities.PngWriter;
+import javafx.application.Platform;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Allen Kinzalow on 9/30/2015.
+ *
+ * Textures are shown progressively: the smallest mipmap level of about
+ *  {@link #PREVIEW_SIZE} is decoded and shown scaled up first, then every
+ *  larger level in turn, each replacing the last once it is whole. Levels
+ *  are decoded in the background a band of rows at a time and the bands
+ *  are written to their image on the application thread. Showing another
+ *  version starts a new generation, and the work of an older generation
+ *  is dropped as soon as it is noticed.
  */
 public class DDSModel extends FileModel<DDSFile> {
 
+    /**
+     * The least width and height of the first level shown.
+     */
+    private static final int PREVIEW_SIZE = 128;
+
+    /**
+     * The number of rows decoded and written to the image at once.
+     */
+    private static final int BAND_HEIGHT = 256;
+
+    /**
+     * The number of bands decoded ahead of the application thread.
+     */
+    private static final int BANDS = 2;
+
+    /**
+     * The full size image, reused while the versions shown have the same size.
+     */
+    private WritableImage image;
+
+    /**
+     * The generation of the version shown; work of another generation is stale.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
     /**
      * Construct a model with a given controller.
      *
@@ -26,8 +68,13 @@ public class DDSModel extends FileModel<DDSFile> {
 
     @Override
     public void initialize() {
-        this.file.decode();
-        System.out.println("Decoding dds");
+        boolean supported = false;
+        try {
+            this.file.decodeHeader();
+            supported = this.file.isSupported();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
         DDSRawController rawController = (DDSRawController)this.getControllers()[0];
         DDSViewController viewController = (DDSViewController)this.getControllers()[1];
@@ -57,13 +104,96 @@ public class DDSModel extends FileModel<DDSFile> {
 
         //viewController.getDDSImage().setImage();
 
-        if(this.file.getResult() != null) {
-            BufferedImage image = this.file.getResult();
-            WritableImage wImage = new WritableImage(this.file.getHeader().getDwWidth(), this.file.getHeader().getDwHeight());
-            wImage = SwingFXUtils.toFXImage(image, wImage);
-            viewController.setMaxWidth(image.getWidth());
-            viewController.setMaxHeight(image.getHeight());
-            viewController.getDDSImage().setImage(wImage);
+        int current = generation.incrementAndGet();
+        if(supported)
+            display(viewController, current);
+        else
+            viewController.getDDSImage().setImage(null);
+        rawController.getSavePngButton().setDisable(!supported);
+        rawController.getSavePngButton().setOnMouseClicked(e -> {
+            File file = RAFApplication.FILE_CHOOSER.showSaveDialog(RAFApplication.STAGE);
+            if(file == null)
+                return;
+            DDSFile texture = this.file;
+            TaskExecutor.executor.submit(() -> {
+                try {
+                    BufferedImage image = texture.decodeMipmap(0);
+                    if(image != null)
+                        PngWriter.write(image, file);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            });
+        });
+    }
+
+    /**
+     * Start showing the texture, from its preview level up to full size.
+     */
+    private void display(DDSViewController viewController, int current) {
+        int width = this.file.getMipmapWidth(0);
+        int height = this.file.getMipmapHeight(0);
+        int first;
+        try {
+            first = this.file.selectMipmap(Math.min(PREVIEW_SIZE, width), Math.min(PREVIEW_SIZE, height));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if(image == null || (int) image.getWidth() != width || (int) image.getHeight() != height)
+            image = new WritableImage(width, height);
+        else if(first == 0 && viewController.getDDSImage().getImage() == image)
+            viewController.getDDSImage().setImage(null);
+        viewController.setMaxWidth(width);
+        viewController.setMaxHeight(height);
+        WritableImage full = image;
+        DDSFile texture = this.file;
+        TaskExecutor.executor.submit(() -> refine(texture, first, full, viewController, current));
+    }
+
+    /**
+     * Decode every level from the first down to full size, showing each
+     *  once it is whole. The full size image may still be shown for an
+     *  older version, so it is only written to after a smaller level has
+     *  replaced it. A few bands are reused, so the memory taken is the
+     *  images and those bands whatever the size of the texture.
+     */
+    private void refine(DDSFile texture, int first, WritableImage full, DDSViewController viewController, int current) {
+        try {
+            /**
+             * A band of the full size level holds a band of any smaller level.
+             */
+            ArrayBlockingQueue<int[]> bands = new ArrayBlockingQueue<>(BANDS);
+            for(int i = 0; i < BANDS; i++)
+                bands.add(new int[(int) full.getWidth() * Math.min(BAND_HEIGHT, (int) full.getHeight())]);
+            for(int level = first; level >= 0; level--) {
+                int width = texture.getMipmapWidth(level);
+                int height = texture.getMipmapHeight(level);
+                WritableImage target = level == 0 ? full : new WritableImage(width, height);
+                for(int y = 0; y < height; y += BAND_HEIGHT) {
+                    int[] band;
+                    while((band = bands.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                        if(generation.get() != current)
+                            return;
+                    }
+                    if(generation.get() != current)
+                        return;
+                    int row = y, rows = Math.min(BAND_HEIGHT, height - y);
+                    texture.decodeMipmap(level, row, row + rows, band);
+                    int[] decoded = band;
+                    Platform.runLater(() -> {
+                        if(generation.get() == current)
+                            target.getPixelWriter().setPixels(0, row, width, rows, PixelFormat.getIntArgbInstance(), decoded, 0, width);
+                        bands.add(decoded);
+                    });
+                }
+                Platform.runLater(() -> {
+                    if(generation.get() == current)
+                        viewController.getDDSImage().setImage(target);
+                });
+            }
+        } catch (IOException | IllegalArgumentException | InterruptedException e) {
+            e.printStackTrace();
         }
     }
 }
@@ -0,0 +1,186 @@
+package gg.raf.suite.utilities;
+
+import java.util.Arrays;
+
+/**
+ * An Aho-Corasick automaton finding several byte patterns at once in a
+ *  single pass over the data.
+ *
+ * The automaton is compiled into a dense transition table, so every byte
+ *  costs one array read. The state is carried by the caller, which lets
+ *  data be scanned in chunks as it is inflated.
+ */
+public final class AhoCorasick {
+
+    /**
+     * Receives the matches found by a scan.
+     */
+    public interface MatchHandler {
+
+        /**
+         * Handle a match.
+         * @param pattern   The index of the pattern found.
+         * @param end       The offset just past the end of the match.
+         * @return False to stop the scan.
+         */
+        boolean match(int pattern, long end);
+
+    }
+
+    /**
+     * The state before any byte has been read.
+     */
+    public static final int START = 0;
+
+    /**
+     * The next state of every state for every byte, state * 256 + byte.
+     */
+    private final int[] transitions;
+
+    /**
+     * The first pattern ending at each state, or -1.
+     */
+    private final int[] outputs;
+
+    /**
+     * The next pattern ending at the same position, for each pattern, or -1.
+     */
+    private final int[] nextOutputs;
+
+    /**
+     * The length of each pattern.
+     */
+    private final int[] lengths;
+
+    /**
+     * Build an automaton.
+     * @param patterns      The patterns, none of them empty.
+     * @param ignoreCase    Whether ASCII letters match regardless of case.
+     */
+    public AhoCorasick(byte[][] patterns, boolean ignoreCase) {
+        int maxStates = 1;
+        for (byte[] pattern : patterns) {
+            if (pattern.length == 0)
+                throw new IllegalArgumentException("Empty pattern.");
+            maxStates += pattern.length;
+        }
+        int[] goTo = new int[maxStates * 256];
+        Arrays.fill(goTo, -1);
+        int[] output = new int[maxStates];
+        Arrays.fill(output, -1);
+        this.nextOutputs = new int[patterns.length];
+        this.lengths = new int[patterns.length];
+        /**
+         * Build the trie of the patterns.
+         */
+        int states = 1;
+        for (int p = 0; p < patterns.length; p++) {
+            int state = START;
+            for (byte b : patterns[p]) {
+                int c = fold(b, ignoreCase) & 0xFF;
+                if (goTo[state * 256 + c] < 0)
+                    goTo[state * 256 + c] = states++;
+                state = goTo[state * 256 + c];
+            }
+            lengths[p] = patterns[p].length;
+            nextOutputs[p] = output[state];
+            output[state] = p;
+        }
+        /**
+         * Fill in the failure transitions breadth first, so every state
+         *  has a transition for every byte.
+         */
+        int[] failures = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        for (int c = 0; c < 256; c++) {
+            int next = goTo[c];
+            if (next < 0)
+                goTo[c] = START;
+            else {
+                failures[next] = START;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            /**
+             * Inherit the patterns ending at the failure state.
+             */
+            if (output[state] < 0)
+                output[state] = output[failures[state]];
+            else {
+                int last = output[state];
+                while (nextOutputs[last] >= 0)
+                    last = nextOutputs[last];
+                nextOutputs[last] = output[failures[state]];
+            }
+            for (int c = 0; c < 256; c++) {
+                int next = goTo[state * 256 + c];
+                if (next < 0)
+                    goTo[state * 256 + c] = goTo[failures[state] * 256 + c];
+                else {
+                    failures[next] = goTo[failures[state] * 256 + c];
+                    queue[tail++] = next;
+                }
+            }
+        }
+        if (ignoreCase) {
+            for (int state = 0; state < states; state++) {
+                for (int c = 'A'; c <= 'Z'; c++)
+                    goTo[state * 256 + c] = goTo[state * 256 + c + 32];
+            }
+        }
+        this.transitions = Arrays.copyOf(goTo, states * 256);
+        this.outputs = Arrays.copyOf(output, states);
+    }
+
+    /**
+     * Scan a range of bytes.
+     * @param state     The state to start in; {@link #START} for new data.
+     * @param data      The data.
+     * @param offset    The start of the range.
+     * @param length    The length of the range.
+     * @param position  The offset of the range within the whole data, used for match offsets.
+     * @param handler   Receives the matches.
+     * @return The state after the range, to continue with the next range,
+     *  or -1 if the handler stopped the scan.
+     */
+    public int scan(int state, byte[] data, int offset, int length, long position, MatchHandler handler) {
+        int[] transitions = this.transitions;
+        int[] outputs = this.outputs;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            state = transitions[(state << 8) | (data[i] & 0xFF)];
+            for (int p = outputs[state]; p >= 0; p = nextOutputs[p]) {
+                if (!handler.match(p, position + (i - offset) + 1))
+                    return -1;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Retrieve the length of a pattern.
+     * @param pattern
+     * @return
+     */
+    public int getLength(int pattern) {
+        return lengths[pattern];
+    }
+
+    /**
+     * Retrieve the number of patterns.
+     * @return
+     */
+    public int getPatternCount() {
+        return lengths.length;
+    }
+
+    /**
+     * Lower case an ASCII letter if case is ignored.
+     */
+    private static byte fold(byte b, boolean ignoreCase) {
+        return ignoreCase && b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+}
@@ -0,0 +1,96 @@
+package gg.raf.suite.utilities;
+
+/**
+ * The 128 bit x64 variant of MurmurHash3, a fast non cryptographic hash.
+ *
+ * Blocks are read little endian straight from the array, so hashing
+ *  allocates nothing beyond the result.
+ */
+public final class Murmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Murmur3() { }
+
+    /**
+     * Hash a range of bytes.
+     * @param data      The data.
+     * @param offset    The start of the range.
+     * @param length    The length of the range.
+     * @param seed      The seed.
+     * @param out       Receives the low and high halves of the hash.
+     */
+    @SuppressWarnings("fallthrough")
+    public static void hash128(byte[] data, int offset, int length, int seed, long[] out) {
+        long h1 = seed & 0xFFFFFFFFL, h2 = h1;
+        int blocks = length >>> 4;
+        for (int i = 0; i < blocks; i++) {
+            int position = offset + (i << 4);
+            long k1 = getLong(data, position);
+            long k2 = getLong(data, position + 8);
+
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+        /**
+         * The last 0 to 15 bytes; every case falls through to the next.
+         */
+        int tail = offset + (blocks << 4);
+        long k1 = 0, k2 = 0;
+        switch (length & 15) {
+            case 15: k2 ^= (data[tail + 14] & 0xFFL) << 48;
+            case 14: k2 ^= (data[tail + 13] & 0xFFL) << 40;
+            case 13: k2 ^= (data[tail + 12] & 0xFFL) << 32;
+            case 12: k2 ^= (data[tail + 11] & 0xFFL) << 24;
+            case 11: k2 ^= (data[tail + 10] & 0xFFL) << 16;
+            case 10: k2 ^= (data[tail + 9] & 0xFFL) << 8;
+            case 9:  k2 ^= (data[tail + 8] & 0xFFL);
+                k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            case 8:  k1 ^= (data[tail + 7] & 0xFFL) << 56;
+            case 7:  k1 ^= (data[tail + 6] & 0xFFL) << 48;
+            case 6:  k1 ^= (data[tail + 5] & 0xFFL) << 40;
+            case 5:  k1 ^= (data[tail + 4] & 0xFFL) << 32;
+            case 4:  k1 ^= (data[tail + 3] & 0xFFL) << 24;
+            case 3:  k1 ^= (data[tail + 2] & 0xFFL) << 16;
+            case 2:  k1 ^= (data[tail + 1] & 0xFFL) << 8;
+            case 1:  k1 ^= (data[tail] & 0xFFL);
+                k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = mix(h1);
+        h2 = mix(h2);
+        h1 += h2;
+        h2 += h1;
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    /**
+     * Read a little endian long.
+     */
+    private static long getLong(byte[] data, int position) {
+        return (data[position] & 0xFFL) | (data[position + 1] & 0xFFL) << 8 | (data[position + 2] & 0xFFL) << 16
+                | (data[position + 3] & 0xFFL) << 24 | (data[position + 4] & 0xFFL) << 32 | (data[position + 5] & 0xFFL) << 40
+                | (data[position + 6] & 0xFFL) << 48 | (data[position + 7] & 0xFFL) << 56;
+    }
+
+    /**
+     * The final avalanche of a half of the hash.
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+}
@@ -0,0 +1,417 @@
+package gg.raf.suite.utilities;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes images as 8 bit rgb or rgba png files, filtering and deflating
+ *  runs of rows in parallel.
+ *
+ * The rows of an image are split into chunks of about {@link #CHUNK_LENGTH}
+ *  bytes. Every chunk is filtered and deflated by its own deflater on the
+ *  common fork join pool, primed with the last 32 KB of the chunk before it
+ *  so the ratio barely suffers, and ends with a sync flush so the deflate
+ *  streams join on a byte boundary; only the last chunk finishes the stream.
+ *  Each chunk becomes an IDAT chunk of its own and the adler32 of the zlib
+ *  stream is combined from the adler32 of every chunk. Chunks are written
+ *  to the channel in order as they complete, with only a few per thread of
+ *  the pool in flight.
+ *
+ * Source: https://www.w3.org/TR/PNG/
+ * Source: https://zlib.net/pigz/
+ */
+public final class PngWriter {
+
+    /**
+     * The png signature.
+     */
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    /**
+     * The number of filtered bytes deflated by a single task.
+     */
+    private static final int CHUNK_LENGTH = 128 * 1024;
+
+    /**
+     * The size of the deflate window, primed from the chunk before.
+     */
+    private static final int WINDOW_LENGTH = 32 * 1024;
+
+    /**
+     * The number of chunks in flight for each thread of the pool.
+     */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    /**
+     * The png filter types.
+     */
+    private static final int NONE = 0, SUB = 1, UP = 2, AVERAGE = 3, PAETH = 4;
+
+    /**
+     * The deflate level; filtered texture rows gain little from the slower levels.
+     */
+    private static final int LEVEL = 2;
+
+    private PngWriter() { }
+
+    /**
+     * Write an image to a png file.
+     * @param image The image.
+     * @param file  The file, replaced if it exists.
+     * @throws IOException
+     */
+    public static void write(BufferedImage image, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(image, channel);
+        }
+    }
+
+    /**
+     * Write an image as a png to a channel.
+     * @param image     The image.
+     * @param channel   The channel.
+     * @throws IOException
+     */
+    public static void write(BufferedImage image, WritableByteChannel channel) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        int rowLength = 1 + width * (alpha ? 4 : 3);
+        int rowsPerChunk = Math.max(1, CHUNK_LENGTH / rowLength);
+        int chunkCount = (height + rowsPerChunk - 1) / rowsPerChunk;
+
+        ByteBuffer header = ByteBuffer.allocate(SIGNATURE.length + 25);
+        header.put(SIGNATURE);
+        ByteBuffer ihdr = ByteBuffer.allocate(13);
+        ihdr.putInt(width).putInt(height).put((byte) 8).put((byte) (alpha ? 6 : 2)).put((byte) 0).put((byte) 0).put((byte) 0);
+        putChunk(header, "IHDR", ihdr.array(), 0, 13);
+        header.flip();
+        writeFully(channel, header);
+
+        /**
+         * The zlib header: deflate with a 32 KB window, a fast level and no dictionary.
+         */
+        writeChunk(channel, "IDAT", new byte[] { 0x78, 0x5E }, 2);
+
+        long adler = 1;
+        boolean parallel = chunkCount > 1 && ForkJoinPool.getCommonPoolParallelism() > 1;
+        if (parallel) {
+            int inFlight = ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD;
+            ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+            int next = 0;
+            for (int written = 0; written < chunkCount; written++) {
+                while (next < chunkCount && pending.size() < inFlight) {
+                    pending.add(ForkJoinPool.commonPool().submit(new ChunkTask(image, alpha, rowLength, next * rowsPerChunk,
+                            Math.min(height, (next + 1) * rowsPerChunk), next == chunkCount - 1)));
+                    next++;
+                }
+                Chunk chunk = pending.poll().join();
+                writeChunk(channel, "IDAT", chunk.data, chunk.length);
+                adler = combineAdler32(adler, chunk.adler, chunk.filteredLength);
+            }
+        } else {
+            for (int c = 0; c < chunkCount; c++) {
+                Chunk chunk = deflateChunk(image, alpha, rowLength, c * rowsPerChunk, Math.min(height, (c + 1) * rowsPerChunk), c == chunkCount - 1);
+                writeChunk(channel, "IDAT", chunk.data, chunk.length);
+                adler = combineAdler32(adler, chunk.adler, chunk.filteredLength);
+            }
+        }
+        writeChunk(channel, "IDAT", ByteBuffer.allocate(4).putInt((int) adler).array(), 4);
+        writeChunk(channel, "IEND", new byte[0], 0);
+    }
+
+    /**
+     * Filter and deflate a run of rows.
+     * @param from  The first row, inclusive.
+     * @param to    The last row, exclusive.
+     * @param last  Does the run end the image?
+     */
+    private static Chunk deflateChunk(BufferedImage image, boolean alpha, int rowLength, int from, int to, boolean last) {
+        int width = image.getWidth();
+        int[] pixels = new int[width];
+        byte[] previous = new byte[rowLength], current = new byte[rowLength];
+        Deflater deflater = new Deflater(LEVEL, true);
+        try {
+            /**
+             * Filter the rows of the window before this chunk to prime the deflater;
+             *  the row before the first filtered row is only read.
+             */
+            int primed = from == 0 ? 0 : Math.min(from, (WINDOW_LENGTH + rowLength - 1) / rowLength);
+            int start = from - primed;
+            if (start > 0)
+                readRow(image, alpha, start - 1, pixels, previous);
+            byte[] filtered = new byte[(to - start) * rowLength];
+            for (int y = start; y < to; y++) {
+                readRow(image, alpha, y, pixels, current);
+                filterRow(current, previous, alpha ? 4 : 3, filtered, (y - start) * rowLength);
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            int offset = primed * rowLength;
+            if (offset > 0) {
+                int window = Math.min(WINDOW_LENGTH, offset);
+                deflater.setDictionary(filtered, offset - window, window);
+            }
+            int length = filtered.length - offset;
+            Adler32 adler = new Adler32();
+            adler.update(filtered, offset, length);
+
+            deflater.setInput(filtered, offset, length);
+            if (last)
+                deflater.finish();
+            byte[] output = new byte[length + length / 8 + 64];
+            int size = 0;
+            while (true) {
+                if (size == output.length)
+                    output = Arrays.copyOf(output, output.length * 2);
+                size += deflater.deflate(output, size, output.length - size, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                /**
+                 * A sync flush is complete once it leaves room in the output.
+                 */
+                if (last ? deflater.finished() : size < output.length)
+                    break;
+            }
+            return new Chunk(output, size, adler.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Check whether the pixels of an image are one packed int each, laid out
+     *  row after row from the start of its data buffer, so rows can be
+     *  copied without converting them. Sub-images share the buffer of their
+     *  parent and fail this check.
+     */
+    private static boolean isPackedInt(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB && image.getType() != BufferedImage.TYPE_INT_RGB)
+            return false;
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt) || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel))
+            return false;
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        return sampleModel.getScanlineStride() == image.getWidth()
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0;
+    }
+
+    /**
+     * Read a row of an image as rgb or rgba bytes, after the filter type byte.
+     */
+    private static void readRow(BufferedImage image, boolean alpha, int y, int[] pixels, byte[] row) {
+        int width = image.getWidth();
+        if (isPackedInt(image))
+            System.arraycopy(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), y * width, pixels, 0, width);
+        else
+            image.getRGB(0, y, width, 1, pixels, 0, width);
+        int position = 1;
+        for (int x = 0; x < width; x++) {
+            int pixel = pixels[x];
+            row[position++] = (byte) (pixel >>> 16);
+            row[position++] = (byte) (pixel >>> 8);
+            row[position++] = (byte) pixel;
+            if (alpha)
+                row[position++] = (byte) (pixel >>> 24);
+        }
+    }
+
+    /**
+     * Filter a row with the filter type whose bytes, read as signed, sum to
+     *  the least; the usual heuristic for deflate. The sums are taken in a
+     *  first pass and only the chosen filter is written.
+     * @param row           The row, after its filter type byte.
+     * @param previous      The row above, all zero for the first row.
+     * @param pixelLength   The bytes of a pixel.
+     * @param out           Receives the filter type and filtered row.
+     * @param offset        The position of the row in out.
+     */
+    private static void filterRow(byte[] row, byte[] previous, int pixelLength, byte[] out, int offset) {
+        int length = row.length;
+        int none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+        for (int i = 1; i < length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i > pixelLength ? row[i - pixelLength] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i > pixelLength ? previous[i - pixelLength] & 0xFF : 0;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) (x - a));
+            up += Math.abs((byte) (x - b));
+            average += Math.abs((byte) (x - ((a + b) >>> 1)));
+            paeth += Math.abs((byte) (x - predict(a, b, c)));
+        }
+        int best = NONE, least = none;
+        if (sub < least) { best = SUB; least = sub; }
+        if (up < least) { best = UP; least = up; }
+        if (average < least) { best = AVERAGE; least = average; }
+        if (paeth < least)
+            best = PAETH;
+        out[offset] = (byte) best;
+        for (int i = 1; i < length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i > pixelLength ? row[i - pixelLength] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            switch (best) {
+                case NONE:
+                    out[offset + i] = (byte) x;
+                    break;
+                case SUB:
+                    out[offset + i] = (byte) (x - a);
+                    break;
+                case UP:
+                    out[offset + i] = (byte) (x - b);
+                    break;
+                case AVERAGE:
+                    out[offset + i] = (byte) (x - ((a + b) >>> 1));
+                    break;
+                default:
+                    out[offset + i] = (byte) (x - predict(a, b, i > pixelLength ? previous[i - pixelLength] & 0xFF : 0));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The paeth predictor of a byte from its left, upper and upper left neighbours.
+     */
+    private static int predict(int a, int b, int c) {
+        int p = a + b - c, pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    /**
+     * Combine the adler32 of two runs of bytes into the adler32 of both.
+     * @param adler1    The adler32 of the first run.
+     * @param adler2    The adler32 of the second run.
+     * @param length2   The length of the second run.
+     * @return
+     */
+    public static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - remainder;
+        if (sum1 >= base)
+            sum1 -= base;
+        if (sum1 >= base)
+            sum1 -= base;
+        if (sum2 >= base << 1)
+            sum2 -= base << 1;
+        if (sum2 >= base)
+            sum2 -= base;
+        return sum1 | sum2 << 16;
+    }
+
+    /**
+     * Write a png chunk to a channel.
+     */
+    private static void writeChunk(WritableByteChannel channel, String type, byte[] data, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length + 12);
+        putChunk(buffer, type, data, 0, length);
+        buffer.flip();
+        writeFully(channel, buffer);
+    }
+
+    /**
+     * Put a png chunk: its length, type, data and the crc32 of its type and data.
+     */
+    private static void putChunk(ByteBuffer buffer, String type, byte[] data, int offset, int length) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.ISO_8859_1);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        buffer.putInt(length).put(typeBytes).put(data, offset, length).putInt((int) crc.getValue());
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * A deflated run of rows.
+     */
+    private static final class Chunk {
+
+        /**
+         * The deflated bytes, of which the first length are used.
+         */
+        private final byte[] data;
+
+        private final int length;
+
+        /**
+         * The adler32 and length of the filtered bytes.
+         */
+        private final long adler;
+
+        private final int filteredLength;
+
+        private Chunk(byte[] data, int length, long adler, int filteredLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.filteredLength = filteredLength;
+        }
+
+    }
+
+    /**
+     * Filters and deflates a run of rows on the pool.
+     */
+    private static final class ChunkTask extends RecursiveTask<Chunk> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage image;
+
+        private final boolean alpha;
+
+        private final int rowLength;
+
+        /**
+         * The rows of the run, from inclusive to exclusive.
+         */
+        private final int from, to;
+
+        /**
+         * Does the run end the image?
+         */
+        private final boolean last;
+
+        private ChunkTask(BufferedImage image, boolean alpha, int rowLength, int from, int to, boolean last) {
+            this.image = image;
+            this.alpha = alpha;
+            this.rowLength = rowLength;
+            this.from = from;
+            this.to = to;
+            this.last = last;
+        }
+
+        @Override
+        protected Chunk compute() {
+            return deflateChunk(image, alpha, rowLength, from, to, last);
+        }
+
+    }
+
+}
@@ -1,6 +1,8 @@
 package gg.raf.suite.utilities;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Created by Allen Kinzalow on 9/24/2015.
@@ -15,16 +17,45 @@ public final class StringUtil {
      */
     public static String readString(ByteBuffer buffer) {
         int start = buffer.position();
-        while (buffer.get() != 0);
-        int len = buffer.position() - start;
+        int end = indexOfNul(buffer, start, buffer.limit());
+        if (end < 0)
+            throw new BufferUnderflowException();
+        int len = end - start + 1;
 
         byte[] str = new byte[len];
-        buffer.position(start);
         buffer.get(str, 0, len - 1);
+        buffer.position(end + 1);
 
         return new String(str, 0, len - 1);
     }
 
+    /**
+     * Find the first NUL byte in a range of a buffer, testing eight bytes
+     *  at a time with a single word read.
+     * @param buffer
+     * @param from  The absolute index to start at.
+     * @param to    The absolute index to stop before.
+     * @return The absolute index of the NUL byte, or -1 if the range has none.
+     */
+    public static int indexOfNul(ByteBuffer buffer, int from, int to) {
+        boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+        int index = from;
+        for (; index + 8 <= to; index += 8) {
+            long word = buffer.getLong(index);
+            /**
+             * The high bit of a byte is set exactly when the byte is zero.
+             */
+            long zeros = ~(((word & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | word | 0x7F7F7F7F7F7F7F7FL);
+            if (zeros != 0)
+                return index + ((littleEndian ? Long.numberOfTrailingZeros(zeros) : Long.numberOfLeadingZeros(zeros)) >>> 3);
+        }
+        for (; index < to; index++) {
+            if (buffer.get(index) == 0)
+                return index;
+        }
+        return -1;
+    }
+
     public static String readString(ByteBuffer buffer, int size) {
         byte[] str = new byte[size];
         buffer.get(str, 0, size - 1);